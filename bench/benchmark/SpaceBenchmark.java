@@ -0,0 +1,139 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import model.BodyStore;
+import model.Space;
+import model.VectorForceCalculator;
+
+/* SpaceBenchmark is the JMH benchmark of the simulation kernels: the force
+ * calculation, the velocity update, the collision check and a whole timestep.
+ * Every benchmark runs over each combination of body count, body distribution
+ * and cluster size. Running main() also turns on the GC profiler, so the
+ * allocation rate is reported next to ops/s. See README.md for how to build
+ * and run it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpaceBenchmark
+{
+	private static final double UNIFORM_MASS = 1000;
+	private static final double UNIFORM_RADIUS = 5;
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int nBodies;
+
+	/* uniform: new Space(n, mass, radius), every body the same.
+	 * random: new Space(n), random radius with mass = radius^3. */
+	@Param({ "uniform", "random" })
+	public String distribution;
+
+	/* The fraction of the width of the space that the bodies are squeezed into,
+	 * around its center. Smaller values give denser clusters and more
+	 * collisions. */
+	@Param({ "1.0", "0.25" })
+	public double clusterSize;
+
+	@Param({ "1" })
+	public int threads;
+
+	/* allpairs: the scalar loop in Space.calculateForces().
+	 * vector: VectorForceCalculator, which needs the benchmark JVM to be run
+	 * with --add-modules jdk.incubator.vector. */
+	@Param({ "allpairs", "vector" })
+	public String force;
+
+	private Space space;
+
+	/* setUp() creates a fresh Space for every iteration, so the velocity and
+	 * collision benchmarks do not run away from the starting conditions. */
+	@Setup(Level.Iteration)
+	public void setUp()
+	{
+		space = distribution.equals("uniform") ? new Space(nBodies, UNIFORM_MASS, UNIFORM_RADIUS) : new Space(nBodies);
+		space.setVerbose(false);
+		space.setStepDelay(0);
+		space.setNumThreads(threads);
+		if (force.equals("vector"))
+		{
+			space.setForceCalculator(new VectorForceCalculator());
+		}
+
+		BodyStore store = space.getBodyStore();
+		double center = 1000; // the middle of the 2000x2000 space
+		for (int i = 0; i < store.size; i++)
+		{
+			store.x[i] = center + (store.x[i] - center) * clusterSize;
+			store.y[i] = center + (store.y[i] - center) * clusterSize;
+			store.oldX[i] = store.x[i];
+			store.oldY[i] = store.y[i];
+		}
+		space.calculateForces();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown()
+	{
+		space.setNumThreads(1); // stops the worker threads
+	}
+
+	@Benchmark
+	public BodyStore calculateForces()
+	{
+		space.calculateForces();
+		return space.getBodyStore();
+	}
+
+	@Benchmark
+	public BodyStore updateVelocitiesByForce()
+	{
+		space.updateVelocitiesByForce();
+		return space.getBodyStore();
+	}
+
+	@Benchmark
+	public BodyStore checkCollisions()
+	{
+		space.checkCollisions();
+		return space.getBodyStore();
+	}
+
+	@Benchmark
+	public BodyStore moveBodies()
+	{
+		space.moveBodies();
+		return space.getBodyStore();
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+				.include(SpaceBenchmark.class.getSimpleName())
+				.jvmArgsAppend("--add-modules", "jdk.incubator.vector")
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,494 @@
+package controller;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.management.JMException;
+
+import model.BarnesHutForceCalculator;
+import model.BlockTimesteps;
+import model.Checkpointer;
+import model.FloatForceCalculator;
+import model.ForceCalculator;
+import model.NeighbourList;
+import model.ParticleMeshForceCalculator;
+import model.ScenarioFile;
+import model.ScenarioGenerator;
+import model.Space;
+import model.SpaceCheckpoint;
+import model.SpaceMetrics;
+import model.WorkerPool;
+import model.TrajectoryRecorder;
+
+/* BatchRunner runs a simulation from the command line without any GUI. The
+ * Space is stepped as fast as possible, with nothing printed along the way,
+ * and a one line JSON summary of the run is written at the end. Run with
+ * --help to see the options. */
+public class BatchRunner
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: java controller.BatchRunner [options]",
+			"  --bodies N           number of bodies (default 1000)",
+			"  --scenario NAME      random: random mass and radius, as in new Space(n) (default)",
+			"                       uniform: every body has --mass and --radius",
+			"                       plummer: a cluster that is dense in the middle",
+			"                       disk: a disk of bodies orbiting a heavy body in the middle",
+			"                       clusters: two clusters falling into each other",
+			"  --seed S             seed for the scenario, the same seed gives the same bodies (default 1)",
+			"  --mass M             mass of every body, except in the random scenario (default 1000)",
+			"  --radius R           radius of every body, except in the random scenario (default 5)",
+			"  --scenario-file FILE load the bodies from the scenario file FILE instead",
+			"  --save-scenario FILE save the starting bodies to the scenario file FILE",
+			"  --steps N            number of timesteps to run (default 1000)",
+			"  --threads N          number of worker threads (default 1)",
+			"  --force NAME         allpairs (default), barneshut, vector: allpairs using the Vector API,",
+			"                       which needs vector/ compiled and java --add-modules jdk.incubator.vector,",
+			"                       pm: on a mesh with FFTs, or p3m: pm with the force between close bodies",
+			"                       added up directly",
+			"  --precision P        double (default), or mixed: work out each pair of allpairs in float and",
+			"                       add them up in double; java controller.PrecisionReport compares them",
+			"  --theta T            opening angle for barneshut (default " + BarnesHutForceCalculator.DEFAULT_THETA + ")",
+			"  --mesh M             mesh points along each side for pm and p3m, a power of two (default "
+					+ ParticleMeshForceCalculator.DEFAULT_MESH_SIZE + ")",
+			"  --collisions MODE    overlap (default): move the bodies, then bounce and rewind the ones",
+			"                       that overlap; events: predict when bodies touch, so none overlap",
+			"                       or pass through each other unless a body runs out of collisions in",
+			"                       a timestep, which the summary counts as droppedEvents (single threaded)",
+			"  --skin S             keep the collision candidates in a neighbour list of the pairs within S of",
+			"                       touching, built again once a body has moved S / 2 (default 0: find",
+			"                       them again every timestep)",
+			"  --block-levels L     give every body its own timestep, down to 1/2^L of the timestep",
+			"                       (default 0, every body moves by the whole timestep); only saves",
+			"                       forces, as every body still moves and collides every 1/2^L; not",
+			"                       with --force pm or p3m",
+			"  --block-accuracy E   how far in radii a body may be pulled off course in its own timestep (default "
+					+ BlockTimesteps.DEFAULT_ACCURACY + ")",
+			"  --output FILE        append the summary to FILE instead of printing it",
+			"  --timings            time every phase of a step and add the times to the summary",
+			"  --jmx                publish the counters and timings of the run over JMX as",
+			"                       nbody:type=Space,name=\"batch\"",
+			"  --record FILE        save the bodies to the trajectory file FILE, for replaying with",
+			"                       java controller.Main --replay FILE",
+			"  --record-every N     save every Nth timestep (default 1)",
+			"  --record-velocities  save velocities as well as positions",
+			"  --checkpoint FILE    save a checkpoint of the run to FILE, which --restore can carry on from",
+			"  --checkpoint-every N save a checkpoint every Nth timestep as well as at the end (default 0,",
+			"                       only at the end)",
+			"  --restore FILE       carry on from the checkpoint in FILE for another --steps timesteps,",
+			"                       instead of creating new bodies");
+
+	private int nBodies = 1000;
+	private String scenario = "random";
+	private double mass = 1000;
+	private double radius = 5;
+	private long seed = 1;
+	private String scenarioFile;
+	private String saveScenario;
+	private long steps = 1000;
+	private int threads = 1;
+	private String force = "allpairs";
+	private String precision = "double";
+	private double theta = BarnesHutForceCalculator.DEFAULT_THETA;
+	private int meshSize = ParticleMeshForceCalculator.DEFAULT_MESH_SIZE;
+	private String collisions = "overlap";
+	private double skin = 0;
+	private int blockLevels = 0;
+	private double blockAccuracy = BlockTimesteps.DEFAULT_ACCURACY;
+	private String output;
+	private boolean timings = false;
+	private boolean jmx = false;
+	private String record;
+	private long recordEvery = 1;
+	private boolean recordVelocities = false;
+	private String checkpoint;
+	private long checkpointEvery = 0;
+	private String restore;
+
+	public static void main(String[] args)
+	{
+		BatchRunner runner = new BatchRunner();
+		try
+		{
+			runner.parseArgs(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try
+		{
+			runner.run();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error: " + e);
+			System.exit(1);
+		}
+	}
+
+	/* parseArgs() reads the options in args, throwing IllegalArgumentException
+	 * for anything it does not understand. */
+	private void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String option = args[i];
+			if (option.equals("--help"))
+			{
+				System.out.println(USAGE);
+				System.exit(0);
+			}
+			if (option.equals("--record-velocities"))
+			{
+				recordVelocities = true;
+				continue;
+			}
+			if (option.equals("--timings"))
+			{
+				timings = true;
+				continue;
+			}
+			if (option.equals("--jmx"))
+			{
+				jmx = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+			{
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try
+			{
+				switch (option)
+				{
+				case "--bodies":
+					nBodies = Integer.parseInt(value);
+					break;
+				case "--scenario":
+					scenario = value;
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				case "--scenario-file":
+					scenarioFile = value;
+					break;
+				case "--save-scenario":
+					saveScenario = value;
+					break;
+				case "--mass":
+					mass = Double.parseDouble(value);
+					break;
+				case "--radius":
+					radius = Double.parseDouble(value);
+					break;
+				case "--steps":
+					steps = Long.parseLong(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--force":
+					force = value;
+					break;
+				case "--precision":
+					precision = value;
+					break;
+				case "--theta":
+					theta = Double.parseDouble(value);
+					break;
+				case "--mesh":
+					meshSize = Integer.parseInt(value);
+					break;
+				case "--collisions":
+					collisions = value;
+					break;
+				case "--skin":
+					skin = Double.parseDouble(value);
+					break;
+				case "--block-levels":
+					blockLevels = Integer.parseInt(value);
+					break;
+				case "--block-accuracy":
+					blockAccuracy = Double.parseDouble(value);
+					break;
+				case "--output":
+					output = value;
+					break;
+				case "--record":
+					record = value;
+					break;
+				case "--record-every":
+					recordEvery = Long.parseLong(value);
+					break;
+				case "--checkpoint":
+					checkpoint = value;
+					break;
+				case "--checkpoint-every":
+					checkpointEvery = Long.parseLong(value);
+					break;
+				case "--restore":
+					restore = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+			}
+		}
+
+		if (!Arrays.asList(ScenarioGenerator.SCENARIOS).contains(scenario))
+		{
+			throw new IllegalArgumentException("Unknown scenario " + scenario);
+		}
+		if (!Arrays.asList("allpairs", "barneshut", "vector", "pm", "p3m").contains(force))
+		{
+			throw new IllegalArgumentException("Unknown force method " + force);
+		}
+		if (!precision.equals("double") && !precision.equals("mixed"))
+		{
+			throw new IllegalArgumentException("Unknown precision " + precision);
+		}
+		if (precision.equals("mixed") && !force.equals("allpairs"))
+		{
+			throw new IllegalArgumentException("--precision mixed only works with --force allpairs");
+		}
+		if (meshSize < 2 || Integer.bitCount(meshSize) != 1)
+		{
+			throw new IllegalArgumentException("--mesh must be a power of two of at least 2");
+		}
+		if (!collisions.equals("overlap") && !collisions.equals("events"))
+		{
+			throw new IllegalArgumentException("Unknown collision mode " + collisions);
+		}
+		if (blockLevels < 0 || blockLevels > 20)
+		{
+			throw new IllegalArgumentException("--block-levels must be between 0 and 20");
+		}
+		if (blockLevels > 0 && (force.equals("pm") || force.equals("p3m")))
+		{
+			// the mesh costs the same however few bodies need new forces
+			throw new IllegalArgumentException("--block-levels cannot be used with --force " + force);
+		}
+		if (!(blockAccuracy > 0))
+		{
+			throw new IllegalArgumentException("--block-accuracy must be positive");
+		}
+		if (nBodies < 1 || steps < 0 || threads < 1 || recordEvery < 1 || checkpointEvery < 0 || skin < 0)
+		{
+			throw new IllegalArgumentException("--bodies, --threads and --record-every must be positive, "
+					+ "--steps, --checkpoint-every and --skin must not be negative");
+		}
+	}
+
+	/* run() creates or restores the Space, steps it and writes the summary. */
+	private void run() throws IOException
+	{
+		long setupStart = System.nanoTime();
+		Space space;
+		if (restore != null)
+		{
+			space = SpaceCheckpoint.readFrom(Paths.get(restore)).restore();
+			nBodies = space.getBodyStore().getSize();
+			scenario = "restored";
+		}
+		else if (scenarioFile != null)
+		{
+			space = new Space(ScenarioFile.read(Paths.get(scenarioFile)));
+			nBodies = space.getBodyStore().getSize();
+			scenario = "file";
+		}
+		else
+		{
+			ScenarioGenerator generator = new ScenarioGenerator(seed);
+			generator.setMass(mass);
+			generator.setRadius(radius);
+			WorkerPool pool = threads > 1 ? new WorkerPool(threads) : null;
+			generator.setWorkerPool(pool);
+			space = new Space(generator.generate(scenario, nBodies));
+			if (pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+		if (saveScenario != null)
+		{
+			ScenarioFile.write(Paths.get(saveScenario), space.getBodyStore());
+		}
+		space.setVerbose(false);
+		space.setStepDelay(0);
+		space.setNumThreads(threads);
+		if (force.equals("barneshut"))
+		{
+			space.setForceCalculator(new BarnesHutForceCalculator(theta));
+		}
+		else if (force.equals("vector"))
+		{
+			space.setForceCalculator(newVectorForceCalculator());
+		}
+		else if (force.equals("pm") || force.equals("p3m"))
+		{
+			space.setForceCalculator(new ParticleMeshForceCalculator(meshSize, force.equals("p3m")));
+		}
+		if (precision.equals("mixed"))
+		{
+			space.setForceCalculator(new FloatForceCalculator());
+		}
+		space.setEventDrivenCollisions(collisions.equals("events"));
+		space.setBlockTimesteps(blockLevels, blockAccuracy);
+		space.setNeighbourSkin(skin);
+		int startCollisions = space.getNumCollisions();
+		SpaceMetrics metrics = space.getMetrics();
+		metrics.setTimingEnabled(timings);
+		if (jmx)
+		{
+			try
+			{
+				metrics.register("batch");
+			}
+			catch (JMException e)
+			{
+				System.err.println("Could not publish over JMX: " + e.getMessage());
+			}
+		}
+		TrajectoryRecorder recorder = null;
+		if (record != null)
+		{
+			recorder = new TrajectoryRecorder(Paths.get(record), space.getBodyStore(), recordVelocities);
+			recorder.record(space.getBodyStore(), space.getStep());
+		}
+		Checkpointer checkpointer = checkpoint != null ? new Checkpointer(Paths.get(checkpoint)) : null;
+
+		long runStart = System.nanoTime();
+		for (long i = 1; i <= steps; i++)
+		{
+			space.moveBodies();
+			if (recorder != null && i % recordEvery == 0)
+			{
+				recorder.record(space.getBodyStore(), space.getStep());
+			}
+			if (checkpointer != null && checkpointEvery > 0 && i % checkpointEvery == 0 && i < steps)
+			{
+				checkpointer.checkpoint(space);
+			}
+		}
+		long runEnd = System.nanoTime();
+		if (recorder != null)
+		{
+			recorder.close();
+		}
+		if (checkpointer != null)
+		{
+			checkpointer.checkpoint(space);
+			checkpointer.close();
+		}
+
+		double setupSeconds = (runStart - setupStart) / 1e9;
+		double runSeconds = (runEnd - runStart) / 1e9;
+		int collisions = space.getNumCollisions() - startCollisions;
+		StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+				"{\"bodies\": %d, \"scenario\": \"%s\", \"steps\": %d, \"threads\": %d, \"force\": \"%s\", \"precision\": \"%s\", "
+						+ "\"setupSeconds\": %.6f, \"runSeconds\": %.6f, \"stepsPerSecond\": %.3f, "
+						+ "\"collisions\": %d, \"collisionsPerSecond\": %.3f",
+				nBodies, scenario, steps, threads, force, precision, setupSeconds, runSeconds,
+				runSeconds > 0 ? steps / runSeconds : 0.0, collisions,
+				runSeconds > 0 ? collisions / runSeconds : 0.0));
+		BlockTimesteps blocks = space.getBlockTimesteps();
+		if (blocks != null)
+		{
+			// how many bodies got a new force per timestep, out of nBodies
+			summary.append(String.format(Locale.ROOT, ", \"blockLevels\": %d, \"updatesPerStep\": %.1f",
+					blocks.getMaxLevel(), steps > 0 ? blocks.getActiveUpdates() / (double) steps : 0.0));
+		}
+		if (force.equals("pm") || force.equals("p3m"))
+		{
+			summary.append(", \"mesh\": ").append(meshSize);
+		}
+		if (this.collisions.equals("events"))
+		{
+			summary.append(", \"droppedEvents\": ").append(metrics.getDroppedEvents());
+		}
+		NeighbourList neighbours = space.getNeighbourList();
+		if (neighbours != null)
+		{
+			summary.append(String.format(Locale.ROOT, ", \"skin\": %s, \"neighbourBuilds\": %d", skin, neighbours.getBuilds()));
+		}
+		if (timings)
+		{
+			// e.g. "phaseSeconds": {"force": 1.5, "velocity": 0.01, ...}
+			summary.append(", \"rewinds\": ").append(metrics.getRewinds()).append(", \"phaseSeconds\": {");
+			for (SpaceMetrics.Phase phase : SpaceMetrics.Phase.values())
+			{
+				if (phase.ordinal() > 0)
+				{
+					summary.append(", ");
+				}
+				summary.append(String.format(Locale.ROOT, "\"%s\": %.6f", phaseName(phase), metrics.getPhaseNanos(phase) / 1e9));
+			}
+			summary.append('}');
+		}
+		summary.append('}');
+
+		if (output == null)
+		{
+			System.out.println(summary);
+		}
+		else
+		{
+			try (PrintWriter out = new PrintWriter(new FileWriter(output, true)))
+			{
+				out.println(summary);
+			}
+		}
+		space.setNumThreads(1); // stops the worker threads
+	}
+
+	/* newVectorForceCalculator() creates a model.VectorForceCalculator. The
+	 * class is only there when vector/ was compiled too, so it is loaded by name;
+	 * without it, or without the Vector API module at run time, the forces are
+	 * worked out by the scalar all-pairs loop instead. */
+	private static ForceCalculator newVectorForceCalculator()
+	{
+		try
+		{
+			Class<?> type = Class.forName("model.VectorForceCalculator");
+			ForceCalculator calculator = (ForceCalculator) type.getDeclaredConstructor().newInstance();
+			if (!(Boolean) type.getMethod("isVectorized").invoke(calculator))
+			{
+				System.err.println("The Vector API is not available, so --force vector runs a scalar loop."
+						+ " Start java with --add-modules jdk.incubator.vector to use it.");
+			}
+			return calculator;
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			System.err.println("VectorForceCalculator was not compiled, so --force vector runs the all-pairs loop."
+					+ " Compile vector/ with --add-modules jdk.incubator.vector to use it.");
+			return null;
+		}
+	}
+
+	/* phaseName() returns the name of phase in the summary: COLLISION_DETECT
+	 * becomes collisionDetect. */
+	static String phaseName(SpaceMetrics.Phase phase)
+	{
+		String[] words = phase.name().toLowerCase(Locale.ROOT).split("_");
+		StringBuilder name = new StringBuilder(words[0]);
+		for (int w = 1; w < words.length; w++)
+		{
+			name.append(Character.toUpperCase(words[w].charAt(0))).append(words[w].substring(1));
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,325 @@
+package controller;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import model.BodyStore;
+import model.DomainNode;
+import model.ScenarioFile;
+import model.ScenarioGenerator;
+import model.Space;
+
+/* DistributedRunner runs a simulation spread over several processes, each
+ * owning a vertical strip of the space, that talk to each other over TCP.
+ * Started without --rank it is process 0 and starts the other processes
+ * itself, as new JVMs on this machine with the same options. With --rank
+ * every process is started by hand, which also works across machines that can
+ * reach --host. Process 0 writes a one line JSON summary at the end, like
+ * BatchRunner. Run with --help to see the options. */
+public class DistributedRunner
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: java controller.DistributedRunner [options]",
+			"  --nodes N            number of processes (default 2)",
+			"  --rank R             run only process R, for starting each process by hand (default:",
+			"                       run process 0 and start the others as new JVMs)",
+			"  --host HOST          host of process 0, where every process listens (default localhost)",
+			"  --port P             process R listens on port P + R (default 47000)",
+			"  --halo H             how close to a body of another process a body has to come to be",
+			"                       checked for collisions there (default " + DomainNode.DEFAULT_HALO + ")",
+			"  --summary-cell C     processes that are not next to each other only get the mass in cells",
+			"                       of C units; 0 sends every body, which gives the same forces as",
+			"                       BatchRunner (default " + DomainNode.DEFAULT_SUMMARY_CELL + ")",
+			"  --bodies N           number of bodies (default 1000)",
+			"  --scenario NAME      random, uniform, plummer, disk or clusters, as in BatchRunner (default random)",
+			"  --seed S             seed for the scenario (default 1)",
+			"  --mass M             mass of every body, except in the random scenario (default 1000)",
+			"  --radius R           radius of every body, except in the random scenario (default 5)",
+			"  --scenario-file FILE load the bodies from the scenario file FILE instead; every process",
+			"                       has to be able to read it",
+			"  --steps N            number of timesteps to run (default 1000)",
+			"  --check              run the same bodies in a single Space as well, and add how far the",
+			"                       two runs ended up apart and the collisions of each to the summary",
+			"  --output FILE        append the summary to FILE instead of printing it");
+
+	private static final int DEFAULT_PORT = 47000;
+
+	private int nodes = 2;
+	private int rank = -1; // -1 to start the other processes
+	private String host = "localhost";
+	private int port = DEFAULT_PORT;
+	private double halo = DomainNode.DEFAULT_HALO;
+	private double summaryCell = DomainNode.DEFAULT_SUMMARY_CELL;
+	private int nBodies = 1000;
+	private String scenario = "random";
+	private double mass = 1000;
+	private double radius = 5;
+	private long seed = 1;
+	private String scenarioFile;
+	private long steps = 1000;
+	private boolean check = false;
+	private String output;
+
+	public static void main(String[] args)
+	{
+		DistributedRunner runner = new DistributedRunner();
+		try
+		{
+			runner.parseArgs(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try
+		{
+			System.exit(runner.run(args));
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error: " + e);
+			System.exit(1);
+		}
+	}
+
+	/* parseArgs() reads the options in args, throwing IllegalArgumentException
+	 * for anything it does not understand. */
+	private void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String option = args[i];
+			if (option.equals("--help"))
+			{
+				System.out.println(USAGE);
+				System.exit(0);
+			}
+			if (option.equals("--check"))
+			{
+				check = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+			{
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try
+			{
+				switch (option)
+				{
+				case "--nodes":
+					nodes = Integer.parseInt(value);
+					break;
+				case "--rank":
+					rank = Integer.parseInt(value);
+					break;
+				case "--host":
+					host = value;
+					break;
+				case "--port":
+					port = Integer.parseInt(value);
+					break;
+				case "--halo":
+					halo = Double.parseDouble(value);
+					break;
+				case "--summary-cell":
+					summaryCell = Double.parseDouble(value);
+					break;
+				case "--bodies":
+					nBodies = Integer.parseInt(value);
+					break;
+				case "--scenario":
+					scenario = value;
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				case "--mass":
+					mass = Double.parseDouble(value);
+					break;
+				case "--radius":
+					radius = Double.parseDouble(value);
+					break;
+				case "--scenario-file":
+					scenarioFile = value;
+					break;
+				case "--steps":
+					steps = Long.parseLong(value);
+					break;
+				case "--output":
+					output = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+			}
+		}
+
+		if (!Arrays.asList(ScenarioGenerator.SCENARIOS).contains(scenario))
+		{
+			throw new IllegalArgumentException("Unknown scenario " + scenario);
+		}
+		if (nodes < 1 || rank >= nodes || rank < -1)
+		{
+			throw new IllegalArgumentException("--nodes must be positive and --rank between 0 and --nodes - 1");
+		}
+		if (nBodies < 1 || steps < 0 || port < 1 || port + nodes > 65536 || halo < 0 || summaryCell < 0)
+		{
+			throw new IllegalArgumentException(
+					"--bodies and --port must be positive, --steps, --halo and --summary-cell must not be negative");
+		}
+	}
+
+	/* run() starts the other processes if it has to, runs this one and returns
+	 * the exit code. */
+	private int run(String[] args) throws IOException
+	{
+		List<Process> others = new ArrayList<>();
+		if (rank < 0)
+		{
+			for (int r = 1; r < nodes; r++)
+			{
+				others.add(start(args, r));
+			}
+			rank = 0;
+		}
+
+		try
+		{
+			runNode();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			for (Process process : others)
+			{
+				process.destroy();
+			}
+			throw e;
+		}
+
+		int exitCode = 0;
+		for (Process process : others)
+		{
+			try
+			{
+				exitCode = Math.max(exitCode, process.waitFor());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return 1;
+			}
+		}
+		return exitCode;
+	}
+
+	/* start() starts process r in a new JVM with the same class path and
+	 * options as this one. Its output goes to ours. */
+	private static Process start(String[] args, int r) throws IOException
+	{
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DistributedRunner.class.getName());
+		command.addAll(Arrays.asList(args));
+		command.add("--rank");
+		command.add(Integer.toString(r));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/* startBodies() returns the starting bodies, which every process creates the
+	 * same way. */
+	private BodyStore startBodies() throws IOException
+	{
+		if (scenarioFile != null)
+		{
+			return ScenarioFile.read(Paths.get(scenarioFile));
+		}
+		ScenarioGenerator generator = new ScenarioGenerator(seed);
+		generator.setMass(mass);
+		generator.setRadius(radius);
+		return generator.generate(scenario, nBodies);
+	}
+
+	/* runNode() runs this process and, on process 0, writes the summary. */
+	private void runNode() throws IOException
+	{
+		long setupStart = System.nanoTime();
+		BodyStore start = startBodies();
+		nBodies = start.getSize();
+		long runStart;
+		long runEnd;
+		long collisions;
+		BodyStore end;
+		try (DomainNode node = new DomainNode(rank, nodes, start, host, port, halo, summaryCell))
+		{
+			runStart = System.nanoTime();
+			for (long i = 0; i < steps; i++)
+			{
+				node.step();
+			}
+			runEnd = System.nanoTime();
+			collisions = node.gatherCollisions();
+			end = check ? node.gather() : null;
+		}
+		if (rank != 0)
+		{
+			return;
+		}
+
+		double setupSeconds = (runStart - setupStart) / 1e9;
+		double runSeconds = (runEnd - runStart) / 1e9;
+		StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+				"{\"bodies\": %d, \"scenario\": \"%s\", \"steps\": %d, \"nodes\": %d, \"summaryCell\": %s, "
+						+ "\"setupSeconds\": %.6f, \"runSeconds\": %.6f, \"stepsPerSecond\": %.3f, \"collisions\": %d",
+				nBodies, scenarioFile != null ? "file" : scenario, steps, nodes, summaryCell, setupSeconds, runSeconds,
+				runSeconds > 0 ? steps / runSeconds : 0.0, collisions));
+		if (check)
+		{
+			// the same bodies in one Space, as BatchRunner would run them
+			Space single = new Space(startBodies());
+			single.setVerbose(false);
+			single.setStepDelay(0);
+			for (long i = 0; i < steps; i++)
+			{
+				single.moveBodies();
+			}
+			BodyStore expected = single.getBodyStore();
+			double maxDeviation = 0;
+			for (int i = 0; i < nBodies; i++)
+			{
+				maxDeviation = Math.max(maxDeviation, Math.hypot(end.x[i] - expected.x[i], end.y[i] - expected.y[i]));
+			}
+			summary.append(String.format(Locale.ROOT, ", \"singleCollisions\": %d, \"maxDeviation\": %s",
+					single.getNumCollisions(), maxDeviation));
+		}
+		summary.append('}');
+
+		if (output == null)
+		{
+			System.out.println(summary);
+		}
+		else
+		{
+			try (PrintWriter out = new PrintWriter(new FileWriter(output, true)))
+			{
+				out.println(summary);
+			}
+		}
+	}
+}
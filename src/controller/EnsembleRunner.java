@@ -0,0 +1,337 @@
+package controller;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import model.BarnesHutForceCalculator;
+import model.ScenarioGenerator;
+import model.Space;
+
+/* EnsembleRunner runs a sweep of independent simulations in one JVM, as many at
+ * a time as there are cores, each Space single threaded and with its own
+ * gravitational constant, timestep and overlap tolerance. Every combination of
+ * the values given to the list options is run, and a one line JSON summary of
+ * each run is written as soon as it finishes, so the lines come out in the
+ * order the runs finish rather than the order they were started. Run with
+ * --help to see the options. */
+public class EnsembleRunner
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: java controller.EnsembleRunner [options]",
+			"  every combination of the values of the options taking lists A,B,... is run",
+			"  --bodies A,B,...     numbers of bodies (default 1000)",
+			"  --scenarios A,B,...  scenarios, out of " + String.join(",", ScenarioGenerator.SCENARIOS) + " (default uniform)",
+			"  --seeds A,B,...      seeds for the scenarios (default 1)",
+			"  --g A,B,...          gravitational constants (default " + Space.DEFAULT_G + ")",
+			"  --timestep A,B,...   timesteps (default " + Space.DEFAULT_TIMESTEP + ")",
+			"  --overlap A,B,...    how far colliding bodies may overlap before they are rewound (default "
+					+ Space.DEFAULT_OVERLAP_TOLERANCE + ")",
+			"  --mass M             mass of every body, except in the random scenario (default 1000)",
+			"  --radius R           radius of every body, except in the random scenario (default 5)",
+			"  --steps N            number of timesteps of every run (default 1000)",
+			"  --force NAME         allpairs (default) or barneshut",
+			"  --parallel N         number of runs at a time (default the number of cores)",
+			"  --virtual-threads    run every simulation on a virtual thread, still N at a time (Java 21 and later)",
+			"  --output FILE        append the summaries to FILE instead of printing them");
+
+	private int[] bodies = { 1000 };
+	private String[] scenarios = { "uniform" };
+	private long[] seeds = { 1 };
+	private double[] gs = { Space.DEFAULT_G };
+	private double[] timesteps = { Space.DEFAULT_TIMESTEP };
+	private double[] overlaps = { Space.DEFAULT_OVERLAP_TOLERANCE };
+	private double mass = 1000;
+	private double radius = 5;
+	private long steps = 1000;
+	private String force = "allpairs";
+	private int parallel = Runtime.getRuntime().availableProcessors();
+	private boolean virtualThreads = false;
+	private String output;
+
+	public static void main(String[] args)
+	{
+		EnsembleRunner runner = new EnsembleRunner();
+		try
+		{
+			runner.parseArgs(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try
+		{
+			runner.run();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error: " + e);
+			System.exit(1);
+		}
+		catch (InterruptedException e)
+		{
+			System.err.println("Interrupted");
+			System.exit(1);
+		}
+	}
+
+	/* parseArgs() reads the options in args, throwing IllegalArgumentException
+	 * for anything it does not understand. */
+	private void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String option = args[i];
+			if (option.equals("--help"))
+			{
+				System.out.println(USAGE);
+				System.exit(0);
+			}
+			if (option.equals("--virtual-threads"))
+			{
+				virtualThreads = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+			{
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try
+			{
+				switch (option)
+				{
+				case "--bodies":
+					bodies = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+					break;
+				case "--scenarios":
+					scenarios = value.split(",");
+					break;
+				case "--seeds":
+					seeds = Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray();
+					break;
+				case "--g":
+					gs = parseDoubles(value);
+					break;
+				case "--timestep":
+					timesteps = parseDoubles(value);
+					break;
+				case "--overlap":
+					overlaps = parseDoubles(value);
+					break;
+				case "--mass":
+					mass = Double.parseDouble(value);
+					break;
+				case "--radius":
+					radius = Double.parseDouble(value);
+					break;
+				case "--steps":
+					steps = Long.parseLong(value);
+					break;
+				case "--force":
+					force = value;
+					break;
+				case "--parallel":
+					parallel = Integer.parseInt(value);
+					break;
+				case "--output":
+					output = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+			}
+		}
+
+		for (String scenario : scenarios)
+		{
+			if (!Arrays.asList(ScenarioGenerator.SCENARIOS).contains(scenario))
+			{
+				throw new IllegalArgumentException("Unknown scenario " + scenario);
+			}
+		}
+		if (!force.equals("allpairs") && !force.equals("barneshut"))
+		{
+			throw new IllegalArgumentException("Unknown force method " + force);
+		}
+		if (Arrays.stream(bodies).anyMatch(n -> n < 1) || Arrays.stream(timesteps).anyMatch(t -> !(t > 0))
+				|| Arrays.stream(overlaps).anyMatch(o -> !(o >= 0)) || steps < 0 || parallel < 1)
+		{
+			throw new IllegalArgumentException("--bodies, --timestep and --parallel must be positive, "
+					+ "--overlap and --steps must not be negative");
+		}
+		if (virtualThreads && newVirtualThreadExecutor() == null)
+		{
+			throw new IllegalArgumentException("--virtual-threads needs Java 21 or later");
+		}
+	}
+
+	private static double[] parseDoubles(String value)
+	{
+		return Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray();
+	}
+
+	/* newVirtualThreadExecutor() returns an executor that starts a virtual
+	 * thread for every task, or null when this Java has no virtual threads.
+	 * It is looked up by reflection so the project still builds on Java 17. */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return null;
+		}
+	}
+
+	/* run() starts every run of the sweep, at most parallel at a time, and
+	 * writes their summaries as they finish. */
+	private void run() throws IOException, InterruptedException
+	{
+		List<Run> runs = new ArrayList<>();
+		for (String scenario : scenarios)
+		{
+			for (int n : bodies)
+			{
+				for (long seed : seeds)
+				{
+					for (double g : gs)
+					{
+						for (double timestep : timesteps)
+						{
+							for (double overlap : overlaps)
+							{
+								runs.add(new Run(runs.size(), scenario, n, seed, g, timestep, overlap));
+							}
+						}
+					}
+				}
+			}
+		}
+
+		PrintWriter out = output == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(output, true));
+		ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(parallel);
+		// with virtual threads every task gets a thread of its own, so the
+		// permits are what keeps it to parallel runs at a time
+		Semaphore slots = new Semaphore(parallel);
+		long start = System.nanoTime();
+		try
+		{
+			for (Run run : runs)
+			{
+				slots.acquire();
+				executor.execute(() ->
+				{
+					try
+					{
+						String summary = run.call();
+						synchronized (out)
+						{
+							out.println(summary);
+							out.flush();
+						}
+					}
+					finally
+					{
+						slots.release();
+					}
+				});
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			if (output == null)
+			{
+				out.flush();
+			}
+			else
+			{
+				out.close();
+			}
+		}
+		System.err.println(String.format(Locale.ROOT, "%d runs in %.3f s", runs.size(), (System.nanoTime() - start) / 1e9));
+	}
+
+	/* Run is one simulation of the sweep. */
+	private class Run
+	{
+		final int index;
+		final String scenario;
+		final int nBodies;
+		final long seed;
+		final double g;
+		final double timestep;
+		final double overlap;
+
+		Run(int index, String scenario, int nBodies, long seed, double g, double timestep, double overlap)
+		{
+			this.index = index;
+			this.scenario = scenario;
+			this.nBodies = nBodies;
+			this.seed = seed;
+			this.g = g;
+			this.timestep = timestep;
+			this.overlap = overlap;
+		}
+
+		/* call() runs the simulation and returns its summary, which holds the
+		 * error instead if it failed. */
+		String call()
+		{
+			String settings = String.format(Locale.ROOT,
+					"{\"run\": %d, \"scenario\": \"%s\", \"bodies\": %d, \"seed\": %d, \"g\": %s, \"timestep\": %s, "
+							+ "\"overlapTolerance\": %s, \"steps\": %d, \"force\": \"%s\"",
+					index, scenario, nBodies, seed, g, timestep, overlap, steps, force);
+			try
+			{
+				ScenarioGenerator generator = new ScenarioGenerator(seed);
+				generator.setMass(mass);
+				generator.setRadius(radius);
+				generator.setG(g);
+				Space space = new Space(generator.generate(scenario, nBodies));
+				space.setVerbose(false);
+				space.setStepDelay(0);
+				space.setG(g);
+				space.setTimestep(timestep);
+				space.setOverlapTolerance(overlap);
+				if (force.equals("barneshut"))
+				{
+					space.setForceCalculator(new BarnesHutForceCalculator());
+				}
+
+				long runStart = System.nanoTime();
+				for (long i = 0; i < steps; i++)
+				{
+					space.moveBodies();
+				}
+				double seconds = (System.nanoTime() - runStart) / 1e9;
+				return settings + String.format(Locale.ROOT, ", \"runSeconds\": %.6f, \"stepsPerSecond\": %.3f, \"collisions\": %d}",
+						seconds, seconds > 0 ? steps / seconds : 0.0, space.getNumCollisions());
+			}
+			catch (RuntimeException e)
+			{
+				return settings + ", \"error\": \"" + String.valueOf(e).replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+			}
+		}
+	}
+}
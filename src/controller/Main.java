@@ -1,6 +1,7 @@
 package controller;
 
-import java.util.Observer;
+import java.nio.file.Paths;
+import java.util.List;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
@@ -12,12 +13,19 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 import model.Body;
+import model.ScenarioFile;
+import model.SnapshotBuffer;
 import model.Space;
+import model.TrajectoryReader;
+import model.TrajectoryReplay;
 import view.CanvasView;
 
 /* Main is the class that starts the application. This initializes the stage,
  * scene, observers, and model of the program.
  * 
+ * Started with --replay FILE [STEP], it plays back a trajectory file recorded
+ * by BatchRunner instead of running a simulation. Started with --scenario FILE,
+ * it simulates the bodies in the scenario file FILE.
  */
 
 public class Main extends Application
@@ -38,7 +46,9 @@ public class Main extends Application
 
 	private Space space;
 
-	private Observer currentView;
+	private CanvasView currentView;
+
+	private TrajectoryReplay replay; // only set when replaying a trajectory file
 
 	// when false, animation is continuous
 	// when true, animation is controlled by the user
@@ -51,6 +61,13 @@ public class Main extends Application
 		stage.setTitle("n-Body Collisions");
 		window = new BorderPane();
 
+		List<String> args = getParameters().getRaw();
+		if (args.size() >= 2 && args.get(0).equals("--replay"))
+		{
+			startReplay(stage, args);
+			return;
+		}
+
 		/* Initialize Model */
 
 		Body[] array = 
@@ -71,23 +88,35 @@ public class Main extends Application
 				new Body(10, 30, 60, 200, 1, 0),
 				};
 		
-		space = new Space(10);
+		if (args.size() >= 2 && args.get(0).equals("--scenario"))
+		{
+			space = new Space(ScenarioFile.read(Paths.get(args.get(1))));
+		}
+		else
+		{
+			space = new Space(10);
+			space.printBodies();
+		}
 		//space = new Space(array1);
 		
 		long numTimesteps = 2000000L; //higher this is, longer it runs
 
 		space.setNumTimesteps(numTimesteps);
 
-		/* initialize observer */
+		/* initialize view */
+
+		// the simulation publishes a snapshot every step, and the view draws the
+		// latest one every frame
+		SnapshotBuffer snapshots = new SnapshotBuffer();
+		space.setSnapshotBuffer(snapshots);
 
 		// window width and height in CanvasView constructor means the canvas
 		// will always be the full size of the intial window size.
-		currentView = new CanvasView(space, WINDOW_WIDTH, WINDOW_HEIGHT);
-		space.addObserver(currentView);
+		currentView = new CanvasView(snapshots, WINDOW_WIDTH, WINDOW_HEIGHT);
 		window.setCenter((Node) currentView);
 
 		/* finish up the stage */
-		space.setChangedAndNotifyObservers();
+		currentView.start();
 		Scene scene = new Scene(window, WINDOW_WIDTH, WINDOW_HEIGHT);
 		stage.setScene(scene);
 		stage.show();
@@ -134,6 +163,59 @@ public class Main extends Application
 		//-------------------------------------------------------------------------------------------
 	}
 
+	/* startReplay() shows the trajectory file args[1], starting from timestep
+	 * args[2] if it is given. */
+	private void startReplay(Stage stage, List<String> args) throws Exception
+	{
+		TrajectoryReader reader = new TrajectoryReader(Paths.get(args.get(1)));
+		replay = new TrajectoryReplay(reader);
+		if (args.size() >= 3)
+		{
+			replay.seekToStep(Long.parseLong(args.get(2)));
+		}
+
+		currentView = new CanvasView(replay, WINDOW_WIDTH, WINDOW_HEIGHT);
+		window.setCenter((Node) currentView);
+		currentView.start();
+
+		Scene scene = new Scene(window, WINDOW_WIDTH, WINDOW_HEIGHT);
+		scene.setOnKeyPressed(new ReplayKeyListener());
+		stage.setTitle("n-Body Collisions - " + args.get(1));
+		stage.setScene(scene);
+		stage.show();
+	}
+
+	// SPACE pauses and resumes the replay, LEFT and RIGHT move one frame, HOME
+	// goes back to the start
+	private class ReplayKeyListener implements EventHandler<KeyEvent>
+	{
+
+		@Override
+		public void handle(KeyEvent key)
+		{
+			switch (key.getCode())
+			{
+			case SPACE:
+				replay.setPlaying(!replay.isPlaying());
+				break;
+			case LEFT:
+				replay.setPlaying(false);
+				replay.step(-1);
+				break;
+			case RIGHT:
+				replay.setPlaying(false);
+				replay.step(1);
+				break;
+			case HOME:
+				replay.seekToFrame(0);
+				break;
+			default:
+				break;
+			}
+		}
+
+	}
+
 	// When the SPACEbar (hahahahaha) is pressed, move bodies and update
 	private class SpaceKeyListener implements EventHandler<KeyEvent>
 	{
@@ -0,0 +1,249 @@
+package controller;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+import model.FloatForceCalculator;
+import model.ScenarioGenerator;
+import model.Space;
+
+/* PrecisionReport runs every scenario twice, once with the forces in double
+ * and once with FloatForceCalculator, and writes a one line JSON report per
+ * scenario of how far the energy drifted in each run, how far apart the bodies
+ * ended up and how long the steps took. Collisions and close encounters make
+ * the energy of both runs drift, and any difference in the forces sends the
+ * two runs their own way after a while, so the report also has the error of
+ * the float forces on the starting bodies, before anything has moved. Run with
+ * --help to see the options. */
+public class PrecisionReport
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: java controller.PrecisionReport [options]",
+			"  --scenarios A,B,...  scenarios to compare (default " + String.join(",", ScenarioGenerator.SCENARIOS) + ")",
+			"  --bodies N           number of bodies (default 1000)",
+			"  --seed S             seed for the scenarios (default 1)",
+			"  --mass M             mass of every body, except in the random scenario (default 1000)",
+			"  --radius R           radius of every body, except in the random scenario (default 5)",
+			"  --steps N            number of timesteps to run (default 500)",
+			"  --energy-every N     work out the energy every Nth timestep (default 10); each time costs",
+			"                       about as much as a timestep, and is not counted in the step times",
+			"  --threads N          number of worker threads (default 1)",
+			"  --output FILE        append the report to FILE instead of printing it");
+
+	private String[] scenarios = ScenarioGenerator.SCENARIOS;
+	private int nBodies = 1000;
+	private long seed = 1;
+	private double mass = 1000;
+	private double radius = 5;
+	private long steps = 500;
+	private long energyEvery = 10;
+	private int threads = 1;
+	private String output;
+
+	public static void main(String[] args)
+	{
+		PrecisionReport report = new PrecisionReport();
+		try
+		{
+			report.parseArgs(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try
+		{
+			report.run();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error: " + e);
+			System.exit(1);
+		}
+	}
+
+	/* parseArgs() reads the options in args, throwing IllegalArgumentException
+	 * for anything it does not understand. */
+	private void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String option = args[i];
+			if (option.equals("--help"))
+			{
+				System.out.println(USAGE);
+				System.exit(0);
+			}
+			if (i + 1 >= args.length)
+			{
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try
+			{
+				switch (option)
+				{
+				case "--scenarios":
+					scenarios = value.split(",");
+					break;
+				case "--bodies":
+					nBodies = Integer.parseInt(value);
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				case "--mass":
+					mass = Double.parseDouble(value);
+					break;
+				case "--radius":
+					radius = Double.parseDouble(value);
+					break;
+				case "--steps":
+					steps = Long.parseLong(value);
+					break;
+				case "--energy-every":
+					energyEvery = Long.parseLong(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--output":
+					output = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+			}
+		}
+
+		for (String scenario : scenarios)
+		{
+			if (!Arrays.asList(ScenarioGenerator.SCENARIOS).contains(scenario))
+			{
+				throw new IllegalArgumentException("Unknown scenario " + scenario);
+			}
+		}
+		if (nBodies < 1 || steps < 0 || energyEvery < 1 || threads < 1)
+		{
+			throw new IllegalArgumentException("--bodies, --energy-every and --threads must be positive, --steps must not be negative");
+		}
+	}
+
+	/* run() compares the two precisions on every scenario and writes the
+	 * report. */
+	private void run() throws IOException
+	{
+		StringBuilder report = new StringBuilder();
+		for (String scenario : scenarios)
+		{
+			double forceError = forceError(scenario);
+			Run exact = new Run(scenario, false);
+			Run mixed = new Run(scenario, true);
+			double[] x = exact.space.getBodyStore().x, y = exact.space.getBodyStore().y;
+			double[] mixedX = mixed.space.getBodyStore().x, mixedY = mixed.space.getBodyStore().y;
+			double maxDeviation = 0;
+			for (int i = 0; i < nBodies; i++)
+			{
+				maxDeviation = Math.max(maxDeviation, Math.hypot(mixedX[i] - x[i], mixedY[i] - y[i]));
+			}
+			report.append(String.format(Locale.ROOT,
+					"{\"scenario\": \"%s\", \"bodies\": %d, \"steps\": %d, \"threads\": %d, \"forceError\": %.3e, "
+							+ "\"doubleDrift\": %.3e, \"mixedDrift\": %.3e, \"doubleFinalDrift\": %.3e, \"mixedFinalDrift\": %.3e, "
+							+ "\"maxDeviation\": %.6f, \"doubleCollisions\": %d, \"mixedCollisions\": %d, "
+							+ "\"doubleSeconds\": %.6f, \"mixedSeconds\": %.6f}",
+					scenario, nBodies, steps, threads, forceError, exact.maxDrift, mixed.maxDrift, exact.finalDrift, mixed.finalDrift,
+					maxDeviation, exact.space.getNumCollisions(), mixed.space.getNumCollisions(), exact.seconds,
+					mixed.seconds)).append(System.lineSeparator());
+		}
+
+		if (output == null)
+		{
+			System.out.print(report);
+		}
+		else
+		{
+			try (PrintWriter out = new PrintWriter(new FileWriter(output, true)))
+			{
+				out.print(report);
+			}
+		}
+	}
+
+	/* forceError() returns the root mean square of |F - Fd| / |Fd| over the
+	 * starting bodies of scenario, where F is the force on a body from
+	 * FloatForceCalculator and Fd the force in double. */
+	private double forceError(String scenario)
+	{
+		Space space = newSpace(scenario);
+		space.calculateForces();
+		double[] fx = space.getBodyStore().fx.clone();
+		double[] fy = space.getBodyStore().fy.clone();
+		space.setForceCalculator(new FloatForceCalculator());
+		space.calculateForces();
+		double[] mixedFx = space.getBodyStore().fx, mixedFy = space.getBodyStore().fy;
+		double sum = 0;
+		for (int i = 0; i < nBodies; i++)
+		{
+			double error = Math.hypot(mixedFx[i] - fx[i], mixedFy[i] - fy[i]) / Math.hypot(fx[i], fy[i]);
+			sum += error * error;
+		}
+		space.setNumThreads(1);
+		return Math.sqrt(sum / nBodies);
+	}
+
+	private Space newSpace(String scenario)
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(seed);
+		generator.setMass(mass);
+		generator.setRadius(radius);
+		Space space = new Space(generator.generate(scenario, nBodies));
+		space.setVerbose(false);
+		space.setStepDelay(0);
+		space.setNumThreads(threads);
+		return space;
+	}
+
+	/* Run steps one scenario in one precision and keeps track of its energy. */
+	private class Run
+	{
+		final Space space;
+		double maxDrift; // largest |E - E0| / |E0| seen
+		double finalDrift;
+		double seconds; // in moveBodies()
+
+		Run(String scenario, boolean mixed)
+		{
+			space = newSpace(scenario);
+			if (mixed)
+			{
+				space.setForceCalculator(new FloatForceCalculator());
+			}
+
+			double start = space.getEnergy();
+			long nanos = 0;
+			for (long i = 1; i <= steps; i++)
+			{
+				long stepStart = System.nanoTime();
+				space.moveBodies();
+				nanos += System.nanoTime() - stepStart;
+				if (i % energyEvery == 0 || i == steps)
+				{
+					finalDrift = Math.abs(space.getEnergy() - start) / Math.abs(start);
+					maxDrift = Math.max(maxDrift, finalDrift);
+				}
+			}
+			seconds = nanos / 1e9;
+			space.setNumThreads(1); // stops the worker threads
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package controller;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import model.BarnesHutForceCalculator;
+import model.ParticleMeshForceCalculator;
+import model.ScenarioGenerator;
+import model.Space;
+import model.SpaceMetrics;
+
+/* ScalingReport measures how whole simulations scale with the number of
+ * threads, and writes a CSV line per run. Strong scaling keeps the number of
+ * bodies fixed while the threads go up; weak scaling gives every thread the
+ * same number of bodies. Every combination of force method, collision
+ * detection, thread count and body count is run from the same seeded
+ * scenario, stepping the Space as run() does but without the delay.
+ *
+ * The speedup of a run is its steps per second over that of the run with the
+ * fewest threads of its row, and the efficiency is the speedup over the ratio
+ * of their threads. For weak scaling the efficiency is just the ratio of the
+ * steps per second, which only means what it should when the work per step
+ * grows linearly with the bodies: with allpairs it grows with their square.
+ *
+ * Runs with the same number of bodies should find the same collisions whatever
+ * the threads and methods, so the report checks every run against the first
+ * one with its number of bodies. When one is further off than --tolerance,
+ * the report says so on stderr and exits with status 3. Run with --help to see
+ * the options. */
+public class ScalingReport
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: java controller.ScalingReport [options]",
+			"  --threads A,B,...    thread counts (default 1, 2, 4, ... up to the number of cores)",
+			"  --bodies A,B,...     body counts for strong scaling (default 2000)",
+			"  --weak-bodies N      bodies per thread for weak scaling (default 1000), 0 to leave it out",
+			"  --forces A,B,...     force methods out of allpairs, barneshut, pm and p3m (default allpairs)",
+			"  --collisions A,B,... collision detection out of grid and list (default grid)",
+			"  --skin S             skin of the neighbour list for list (default 20)",
+			"  --scenario NAME      scenario, out of " + String.join(",", ScenarioGenerator.SCENARIOS) + " (default uniform)",
+			"  --seed S             seed for the scenario (default 1)",
+			"  --mass M             mass of every body, except in the random scenario (default 1000)",
+			"  --radius R           radius of every body, except in the random scenario (default 5)",
+			"  --steps N            timesteps measured in every run (default 200)",
+			"  --warmup N           timesteps run before measuring, for the JIT (default 20)",
+			"  --tolerance T        how far, relative to the first run with the same bodies, the",
+			"                       collision count of a run may be off (default 0.01)",
+			"  --output FILE        write the CSV to FILE instead of printing it");
+
+	private int[] threads = defaultThreads();
+	private int[] bodies = { 2000 };
+	private int weakBodies = 1000;
+	private String[] forces = { "allpairs" };
+	private String[] collisions = { "grid" };
+	private double skin = 20;
+	private String scenario = "uniform";
+	private long seed = 1;
+	private double mass = 1000;
+	private double radius = 5;
+	private long steps = 200;
+	private long warmup = 20;
+	private double tolerance = 0.01;
+	private String output;
+
+	public static void main(String[] args)
+	{
+		ScalingReport report = new ScalingReport();
+		try
+		{
+			report.parseArgs(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try
+		{
+			if (!report.run())
+			{
+				System.exit(3);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error: " + e);
+			System.exit(1);
+		}
+	}
+
+	/* defaultThreads() returns 1, 2, 4, ... up to the number of cores, and the
+	 * number of cores itself. */
+	private static int[] defaultThreads()
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for (int t = 1; t < cores; t *= 2)
+		{
+			counts.add(t);
+		}
+		counts.add(cores);
+		return counts.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/* parseArgs() reads the options in args, throwing IllegalArgumentException
+	 * for anything it does not understand. */
+	private void parseArgs(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String option = args[i];
+			if (option.equals("--help"))
+			{
+				System.out.println(USAGE);
+				System.exit(0);
+			}
+			if (i + 1 >= args.length)
+			{
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			try
+			{
+				switch (option)
+				{
+				case "--threads":
+					threads = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).sorted().toArray();
+					break;
+				case "--bodies":
+					bodies = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+					break;
+				case "--weak-bodies":
+					weakBodies = Integer.parseInt(value);
+					break;
+				case "--forces":
+					forces = value.split(",");
+					break;
+				case "--collisions":
+					collisions = value.split(",");
+					break;
+				case "--skin":
+					skin = Double.parseDouble(value);
+					break;
+				case "--scenario":
+					scenario = value;
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				case "--mass":
+					mass = Double.parseDouble(value);
+					break;
+				case "--radius":
+					radius = Double.parseDouble(value);
+					break;
+				case "--steps":
+					steps = Long.parseLong(value);
+					break;
+				case "--warmup":
+					warmup = Long.parseLong(value);
+					break;
+				case "--tolerance":
+					tolerance = Double.parseDouble(value);
+					break;
+				case "--output":
+					output = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+			}
+		}
+
+		if (!Arrays.asList(ScenarioGenerator.SCENARIOS).contains(scenario))
+		{
+			throw new IllegalArgumentException("Unknown scenario " + scenario);
+		}
+		for (String force : forces)
+		{
+			if (!Arrays.asList("allpairs", "barneshut", "pm", "p3m").contains(force))
+			{
+				throw new IllegalArgumentException("Unknown force method " + force);
+			}
+		}
+		for (String collision : collisions)
+		{
+			if (!collision.equals("grid") && !collision.equals("list"))
+			{
+				throw new IllegalArgumentException("Unknown collision detection " + collision);
+			}
+		}
+		if (Arrays.stream(threads).anyMatch(t -> t < 1) || Arrays.stream(bodies).anyMatch(n -> n < 1) || weakBodies < 0
+				|| !(skin > 0) || steps < 1 || warmup < 0 || !(tolerance >= 0))
+		{
+			throw new IllegalArgumentException("--threads, --bodies, --skin and --steps must be positive, "
+					+ "--weak-bodies, --warmup and --tolerance must not be negative");
+		}
+	}
+
+	/* run() runs every combination and writes the CSV, returning whether every
+	 * collision count was within tolerance. */
+	private boolean run() throws IOException
+	{
+		PrintWriter out = output == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(output));
+		StringBuilder header = new StringBuilder("scaling,force,collisionDetection,threads,bodies,steps,seconds,"
+				+ "stepsPerSecond,speedup,efficiency,collisions,collisionDeviation,withinTolerance");
+		for (SpaceMetrics.Phase phase : SpaceMetrics.Phase.values())
+		{
+			header.append(',').append(BatchRunner.phaseName(phase)).append("Seconds");
+		}
+		out.println(header);
+		out.flush();
+
+		Map<Integer, Long> referenceCollisions = new HashMap<>(); // by number of bodies
+		boolean allWithin = true;
+		for (String force : forces)
+		{
+			for (String collision : collisions)
+			{
+				for (int n : bodies)
+				{
+					Result base = null;
+					for (int t : threads)
+					{
+						Result result = measure(force, collision, t, n);
+						base = base == null ? result : base;
+						allWithin &= write(out, "strong", result, base, referenceCollisions);
+					}
+				}
+				if (weakBodies > 0)
+				{
+					Result base = null;
+					for (int t : threads)
+					{
+						Result result = measure(force, collision, t, weakBodies * t);
+						base = base == null ? result : base;
+						allWithin &= write(out, "weak", result, base, referenceCollisions);
+					}
+				}
+			}
+		}
+		if (output == null)
+		{
+			out.flush();
+		}
+		else
+		{
+			out.close();
+		}
+		if (!allWithin)
+		{
+			System.err.println("Some runs found a different number of collisions than the first run with as many bodies");
+		}
+		return allWithin;
+	}
+
+	/* write() writes the CSV line of result, comparing it with base, the run
+	 * with the fewest threads of its row, and returns whether its collisions
+	 * are within tolerance of the first run with as many bodies. */
+	private boolean write(PrintWriter out, String scaling, Result result, Result base, Map<Integer, Long> referenceCollisions)
+	{
+		long reference = referenceCollisions.computeIfAbsent(result.bodies, n -> result.collisions);
+		double deviation = Math.abs(result.collisions - reference) / (double) Math.max(1, reference);
+		boolean within = deviation <= tolerance;
+		double speedup = result.stepsPerSecond / base.stepsPerSecond;
+		double efficiency = scaling.equals("strong") ? speedup / ((double) result.threads / base.threads) : speedup;
+
+		StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.6f,%.3f,%.3f,%.3f,%d,%.6f,%b",
+				scaling, result.force, result.collision, result.threads, result.bodies, steps, result.seconds,
+				result.stepsPerSecond, speedup, efficiency, result.collisions, deviation, within));
+		for (long nanos : result.phaseNanos)
+		{
+			line.append(String.format(Locale.ROOT, ",%.6f", nanos / 1e9));
+		}
+		out.println(line);
+		out.flush();
+		return within;
+	}
+
+	/* measure() runs one configuration: warmup timesteps, then steps timed
+	 * ones. The collisions are counted over both. */
+	private Result measure(String force, String collision, int nThreads, int n)
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(seed);
+		generator.setMass(mass);
+		generator.setRadius(radius);
+		Space space = new Space(generator.generate(scenario, n));
+		space.setVerbose(false);
+		space.setStepDelay(0);
+		space.setNumThreads(nThreads);
+		if (force.equals("barneshut"))
+		{
+			space.setForceCalculator(new BarnesHutForceCalculator());
+		}
+		else if (force.equals("pm") || force.equals("p3m"))
+		{
+			space.setForceCalculator(new ParticleMeshForceCalculator(ParticleMeshForceCalculator.DEFAULT_MESH_SIZE,
+					force.equals("p3m")));
+		}
+		if (collision.equals("list"))
+		{
+			space.setNeighbourSkin(skin);
+		}
+
+		for (long i = 0; i < warmup; i++)
+		{
+			space.moveBodies();
+		}
+		SpaceMetrics metrics = space.getMetrics();
+		metrics.setTimingEnabled(true);
+		metrics.resetTimings();
+		long start = System.nanoTime();
+		for (long i = 0; i < steps; i++)
+		{
+			space.moveBodies();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		space.setNumThreads(1); // stops the worker threads
+
+		Result result = new Result(force, collision, nThreads, n, seconds, space.getNumCollisions());
+		for (SpaceMetrics.Phase phase : SpaceMetrics.Phase.values())
+		{
+			result.phaseNanos[phase.ordinal()] = metrics.getPhaseNanos(phase);
+		}
+		return result;
+	}
+
+	/* Result is what one run measured. */
+	private class Result
+	{
+		final String force;
+		final String collision;
+		final int threads;
+		final int bodies;
+		final double seconds;
+		final double stepsPerSecond;
+		final long collisions;
+		final long[] phaseNanos = new long[SpaceMetrics.Phase.values().length];
+
+		Result(String force, String collision, int threads, int bodies, double seconds, long collisions)
+		{
+			this.force = force;
+			this.collision = collision;
+			this.threads = threads;
+			this.bodies = bodies;
+			this.seconds = seconds;
+			this.stepsPerSecond = seconds > 0 ? steps / seconds : 0;
+			this.collisions = collisions;
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* BarnesHutForceCalculator approximates the gravitational forces with a
+ * quadtree. Every timestep the bodies are sorted into a quadtree whose nodes
+ * store their total mass and center of mass. A node that looks small from a
+ * body, i.e. (node width / distance) < theta, is treated as a single body at its
+ * center of mass instead of visiting every body inside it. This brings the cost
+ * of a timestep down from O(n^2) to O(n log n). A theta of 0 gives the same
+ * result as the all-pairs loop. */
+public class BarnesHutForceCalculator implements ForceCalculator
+{
+	public static final double DEFAULT_THETA = 0.5;
+
+	private static final int LEAF_SIZE = 8; // bodies in a node before it is split
+	private static final int MAX_DEPTH = 48; // stops splitting bodies at the same position
+	private static final int SUBTREES_PER_THREAD = 4; // subtrees handed to each worker during the build
+
+	private final double theta;
+
+	// the body state of the current timestep
+	private double[] xs;
+	private double[] ys;
+	private double[] masses;
+	private int[] order; // order[k] is the index of the k-th body in tree order
+
+	public BarnesHutForceCalculator()
+	{
+		this(DEFAULT_THETA);
+	}
+
+	/* Creates a calculator with the given opening angle. Larger values are faster
+	 * and less accurate. */
+	public BarnesHutForceCalculator(double theta)
+	{
+		if (theta < 0)
+		{
+			throw new IllegalArgumentException("theta must not be negative, was " + theta);
+		}
+		this.theta = theta;
+	}
+
+	public double getTheta()
+	{
+		return theta;
+	}
+
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool)
+	{
+		int n = store.getSize();
+		if (n == 0)
+		{
+			return;
+		}
+		Node root = newTree(store, pool);
+
+		// the bodies are independent once the tree is built
+		if (pool == null)
+		{
+			addForces(root, order, 0, n, store, g);
+		}
+		else
+		{
+			pool.parallelRange(n, (start, end) -> addForces(root, order, start, end, store, g));
+		}
+	}
+
+	/* calculateForces() for a list of bodies still builds the whole tree, but
+	 * only walks it for the bodies in the list. */
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool, int[] active, int nActive)
+	{
+		if (nActive == 0)
+		{
+			return;
+		}
+		Node root = newTree(store, pool);
+		if (pool == null)
+		{
+			addForces(root, active, 0, nActive, store, g);
+		}
+		else
+		{
+			pool.parallelRange(nActive, (start, end) -> addForces(root, active, start, end, store, g));
+		}
+	}
+
+	@Override
+	public boolean calculatesOnlyActive()
+	{
+		return true;
+	}
+
+	/* newTree() sorts every body of the store into a new quadtree and returns
+	 * its root. */
+	private Node newTree(BodyStore store, WorkerPool pool)
+	{
+		int n = store.getSize();
+		if (order == null || order.length != n)
+		{
+			order = new int[n];
+		}
+		xs = store.x;
+		ys = store.y;
+		masses = store.mass;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			order[i] = i;
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		double half = Math.max(Math.max(maxX - minX, maxY - minY) / 2, Double.MIN_NORMAL);
+		Node root = new Node((minX + maxX) / 2, (minY + maxY) / 2, half, 0, n);
+
+		buildTree(root, pool);
+		return root;
+	}
+
+	/* buildTree() sorts the bodies into the quadtree below root. The top levels
+	 * are split on the calling thread until there are enough subtrees to keep
+	 * every worker busy, and those subtrees are then built in parallel. */
+	private void buildTree(Node root, WorkerPool pool)
+	{
+		if (pool == null)
+		{
+			build(root, 0);
+			return;
+		}
+
+		List<Node> subtrees = new ArrayList<>();
+		List<Node> top = new ArrayList<>();
+		subtrees.add(root);
+		int wanted = pool.getNumThreads() * SUBTREES_PER_THREAD;
+		int depth = 0;
+		while (subtrees.size() < wanted && depth < MAX_DEPTH)
+		{
+			List<Node> next = new ArrayList<>();
+			for (Node node : subtrees)
+			{
+				if (node.end - node.start <= LEAF_SIZE)
+				{
+					next.add(node);
+				}
+				else
+				{
+					split(node);
+					top.add(node);
+					for (Node child : node.children)
+					{
+						if (child != null)
+						{
+							next.add(child);
+						}
+					}
+				}
+			}
+			if (next.size() == subtrees.size())
+			{
+				break; // nothing left to split
+			}
+			subtrees = next;
+			depth++;
+		}
+
+		final List<Node> work = subtrees;
+		final int subtreeDepth = depth;
+		pool.parallelFor(work.size(), t -> build(work.get(t), subtreeDepth));
+
+		// the top levels were split before their children were built, so their
+		// mass summaries are filled in from the bottom up afterwards
+		for (int i = top.size() - 1; i >= 0; i--)
+		{
+			top.get(i).summarizeChildren();
+		}
+	}
+
+	/* build() recursively splits node until every leaf holds at most LEAF_SIZE
+	 * bodies, and computes the mass and center of mass of every node. */
+	private void build(Node node, int depth)
+	{
+		if (node.end - node.start <= LEAF_SIZE || depth >= MAX_DEPTH)
+		{
+			node.summarizeBodies();
+			return;
+		}
+		split(node);
+		for (Node child : node.children)
+		{
+			if (child != null)
+			{
+				build(child, depth + 1);
+			}
+		}
+		node.summarizeChildren();
+	}
+
+	/* split() reorders node's bodies into its four quadrants and creates a child
+	 * for every quadrant that is not empty. */
+	private void split(Node node)
+	{
+		int midY = partition(node.start, node.end, node.cy, false);
+		int midXLow = partition(node.start, midY, node.cx, true);
+		int midXHigh = partition(midY, node.end, node.cx, true);
+		double q = node.half / 2;
+
+		node.children = new Node[4];
+		node.children[0] = child(node.cx - q, node.cy - q, q, node.start, midXLow);
+		node.children[1] = child(node.cx + q, node.cy - q, q, midXLow, midY);
+		node.children[2] = child(node.cx - q, node.cy + q, q, midY, midXHigh);
+		node.children[3] = child(node.cx + q, node.cy + q, q, midXHigh, node.end);
+	}
+
+	private Node child(double cx, double cy, double half, int start, int end)
+	{
+		return start == end ? null : new Node(cx, cy, half, start, end);
+	}
+
+	/* partition() moves the bodies in [start, end) whose coordinate is below
+	 * pivot to the front, and returns the index of the first one that is not. */
+	private int partition(int start, int end, double pivot, boolean byX)
+	{
+		double[] coords = byX ? xs : ys;
+		int lo = start;
+		int hi = end - 1;
+		while (lo <= hi)
+		{
+			if (coords[order[lo]] < pivot)
+			{
+				lo++;
+			}
+			else
+			{
+				int tmp = order[lo];
+				order[lo] = order[hi];
+				order[hi] = tmp;
+				hi--;
+			}
+		}
+		return lo;
+	}
+
+	/* addForces() walks the tree for the bodies bodies[start..end) and stores the
+	 * force acting on each one in the store. */
+	private void addForces(Node root, int[] bodies, int start, int end, BodyStore store, double g)
+	{
+		Node[] stack = new Node[MAX_DEPTH * 4 + 4];
+		double thetaSq = theta * theta;
+
+		for (int k = start; k < end; k++)
+		{
+			int i = bodies[k];
+			double xi = xs[i];
+			double yi = ys[i];
+			double fx = 0;
+			double fy = 0;
+
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0)
+			{
+				Node node = stack[--top];
+				double dx = node.comX - xi;
+				double dy = node.comY - yi;
+				double distSq = dx * dx + dy * dy;
+				double width = node.half * 2;
+
+				if (node.children == null)
+				{
+					// leaves are summed body by body
+					for (int m = node.start; m < node.end; m++)
+					{
+						int j = order[m];
+						if (j == i)
+						{
+							continue;
+						}
+						double bx = xs[j] - xi;
+						double by = ys[j] - yi;
+						double bDistSq = bx * bx + by * by;
+						double scale = masses[j] / (bDistSq * Math.sqrt(bDistSq));
+						fx += scale * bx;
+						fy += scale * by;
+					}
+				}
+				else if (width * width < thetaSq * distSq)
+				{
+					// far enough away to be treated as one body
+					double scale = node.mass / (distSq * Math.sqrt(distSq));
+					fx += scale * dx;
+					fy += scale * dy;
+				}
+				else
+				{
+					for (Node child : node.children)
+					{
+						if (child != null)
+						{
+							stack[top++] = child;
+						}
+					}
+				}
+			}
+
+			double gm = g * masses[i];
+			store.fx[i] = gm * fx;
+			store.fy[i] = gm * fy;
+		}
+	}
+
+	/* Node is a square cell of the quadtree, covering the bodies order[start..end). */
+	private class Node
+	{
+		final double cx, cy, half; // center and half of the width of the cell
+		final int start, end;
+		Node[] children; // null for leaves
+		double mass, comX, comY;
+
+		Node(double cx, double cy, double half, int start, int end)
+		{
+			this.cx = cx;
+			this.cy = cy;
+			this.half = half;
+			this.start = start;
+			this.end = end;
+		}
+
+		/* summarizeBodies() sets the mass and center of mass of a leaf. */
+		void summarizeBodies()
+		{
+			double m = 0, x = 0, y = 0;
+			for (int k = start; k < end; k++)
+			{
+				int i = order[k];
+				m += masses[i];
+				x += masses[i] * xs[i];
+				y += masses[i] * ys[i];
+			}
+			setSummary(m, x, y);
+		}
+
+		/* summarizeChildren() sets the mass and center of mass from the children. */
+		void summarizeChildren()
+		{
+			double m = 0, x = 0, y = 0;
+			for (Node child : children)
+			{
+				if (child != null)
+				{
+					m += child.mass;
+					x += child.mass * child.comX;
+					y += child.mass * child.comY;
+				}
+			}
+			setSummary(m, x, y);
+		}
+
+		private void setSummary(double m, double x, double y)
+		{
+			mass = m;
+			// massless cells use their center, so they never divide by zero
+			comX = m > 0 ? x / m : cx;
+			comY = m > 0 ? y / m : cy;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package model;
+
+/* BlockTimesteps gives every body its own timestep, a power of two fraction of
+ * the base timestep of the Space: body i moves in steps of
+ * timestep / 2^level[i], with level[i] between 0 and maxLevel. A timestep of
+ * the Space is split into 2^maxLevel substeps. At every substep the bodies
+ * whose own step starts there are active: they get new forces, a new level and
+ * a kick of their velocity, and the other bodies keep the velocity of their last
+ * kick. Every body moves and is checked for collisions on every substep, so
+ * only the force evaluations of the bodies that are not active are saved.
+ *
+ * A body's step is chosen so that its acceleration moves it at most accuracy
+ * times its radius away from a straight line in one step (a dt^2 <= accuracy r),
+ * so bodies in close encounters get short steps and the rest keep the base
+ * timestep. Its velocity does not matter: every body moves by the shortest
+ * step, so fast bodies cannot pass through each other anyway. All bodies are
+ * active at the first substep, so the levels are chosen afresh every
+ * timestep. A body's step only gets longer at a substep where the longer step
+ * starts, which keeps every body in step with the ones at its level. */
+public class BlockTimesteps
+{
+	public static final double DEFAULT_ACCURACY = 1;
+
+	private final int maxLevel;
+	private final double accuracy;
+	private final int[] level;
+	private final int[] active;
+	private long activeUpdates; // kicks so far, over all bodies
+
+	/* Creates the timesteps for nBodies bodies, with at most 2^maxLevel steps per
+	 * timestep of the Space. */
+	public BlockTimesteps(int nBodies, int maxLevel, double accuracy)
+	{
+		if (maxLevel < 0 || maxLevel > 20)
+		{
+			throw new IllegalArgumentException("maxLevel must be between 0 and 20, was " + maxLevel);
+		}
+		if (!(accuracy > 0))
+		{
+			throw new IllegalArgumentException("accuracy must be positive, was " + accuracy);
+		}
+		this.maxLevel = maxLevel;
+		this.accuracy = accuracy;
+		this.level = new int[nBodies];
+		this.active = new int[nBodies];
+	}
+
+	public int getMaxLevel()
+	{
+		return maxLevel;
+	}
+
+	public double getAccuracy()
+	{
+		return accuracy;
+	}
+
+	/* getSubsteps() returns the number of substeps in a timestep of the Space. */
+	public int getSubsteps()
+	{
+		return 1 << maxLevel;
+	}
+
+	/* getLevel() returns the level of body i: it moves in steps of
+	 * timestep / 2^level. */
+	public int getLevel(int i)
+	{
+		return level[i];
+	}
+
+	/* getActiveUpdates() returns how many times a body has been given a new force
+	 * and kick. Without block timesteps this would be the number of bodies times
+	 * the number of timesteps. */
+	public long getActiveUpdates()
+	{
+		return activeUpdates;
+	}
+
+	/* findActive() lists the bodies whose step starts at substep s in
+	 * getActive() and returns how many there are. */
+	int findActive(int s)
+	{
+		int nActive = 0;
+		for (int i = 0; i < level.length; i++)
+		{
+			if (startsAt(level[i], s))
+			{
+				active[nActive++] = i;
+			}
+		}
+		activeUpdates += nActive;
+		return nActive;
+	}
+
+	int[] getActive()
+	{
+		return active;
+	}
+
+	/* chooseLevels() picks the level of the first nActive bodies of getActive()
+	 * from their current force, at substep s. */
+	void chooseLevels(BodyStore store, int s, int nActive, double timestep)
+	{
+		for (int k = 0; k < nActive; k++)
+		{
+			int i = active[k];
+			double r = store.radius[i];
+			double acceleration = Math.sqrt(store.fx[i] * store.fx[i] + store.fy[i] * store.fy[i]) / store.mass[i];
+			double dt = Math.sqrt(accuracy * r / acceleration); // infinite without any force
+
+			int wanted = 0;
+			while (wanted < maxLevel && timestep / (1 << wanted) > dt)
+			{
+				wanted++;
+			}
+			// a longer step has to start at this substep
+			while (wanted < level[i] && !startsAt(wanted, s))
+			{
+				wanted++;
+			}
+			level[i] = wanted;
+		}
+	}
+
+	/* getStepLength() returns how long body i's step is. */
+	double getStepLength(int i, double timestep)
+	{
+		return timestep / (1 << level[i]);
+	}
+
+	/* startsAt() returns whether a step at the given level starts at substep s. */
+	private boolean startsAt(int level, int s)
+	{
+		return (s & ((1 << (maxLevel - level)) - 1)) == 0;
+	}
+}
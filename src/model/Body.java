@@ -1,23 +1,17 @@
 package model;
 
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 
 /* Body is the objects that inhabit Space and orbit around each other. They have
- * mass, radius, position, velocity
+ * mass, radius, position, velocity. The numbers themselves live in a
+ * BodyStore; a Body is a view onto one slot of it. A Body created on its own
+ * gets a store of its own, and is moved into the shared store of a Space when
+ * the Space is created.
  */
 public class Body
 {
-	private double mass;
-	private double radius;
-	private Point2D.Double position;
-	private Point2D.Double oldPosition;
-	private Point2D.Double velocity;
-	private Point2D.Double oldVelocity;
-	private Point2D.Double oldForce;
-	private Point2D.Double newForce;
-	private ArrayList<Body> currCollisions;
-	private ArrayList<Body> prevCollisions;
+	private BodyStore store;
+	private int index;
 	private boolean prevXWallCollision;
 	private boolean prevYWallCollision;
 	private boolean currXWallCollision;
@@ -27,32 +21,37 @@ public class Body
 	/* Creates a new body with the given properties. */
 	public Body(double mass, double radius, double x, double y, double vx, double vy)
 	{
-		this.mass = mass;
-		this.radius = radius;
-		position = new Point2D.Double(x, y);
-		velocity = new Point2D.Double(vx, vy);
-		oldForce = new Point2D.Double();
-		newForce = new Point2D.Double();
-		currCollisions = new ArrayList<Body>();
-		prevCollisions = new ArrayList<Body>();
-		oldPosition = new Point2D.Double(position.getX(), position.getY());
-		oldVelocity = new Point2D.Double(velocity.getX(), velocity.getY());
+		this(new BodyStore(1), 0);
+		store.set(0, mass, radius, x, y, vx, vy);
+	}
+
+	/* Creates a view onto body index of store. */
+	Body(BodyStore store, int index)
+	{
+		this.store = store;
+		this.index = index;
 		prevXWallCollision = false;
 		prevYWallCollision = false;
-		
 	}
-	
-	public void addCollision(Body b) {
-		currCollisions.add(b);
+
+	/* moveTo() copies this body's state into slot index of store, and makes this
+	 * body a view onto that slot. */
+	void moveTo(BodyStore store, int index)
+	{
+		store.copy(this.store, this.index, index);
+		this.store = store;
+		this.index = index;
 	}
-	
-	public ArrayList<Body> getPrevCollisions() {
-		return prevCollisions;
+
+	/* getIndex() returns the index of this body in its BodyStore. */
+	public int getIndex()
+	{
+		return index;
 	}
 	
+	/* resetCollisions() makes this timestep's wall collisions the previous ones.
+	 * Collisions between bodies are kept by Space. */
 	public void resetCollisions() {
-		prevCollisions = currCollisions;
-		currCollisions = new ArrayList<>();
 		prevXWallCollision = currXWallCollision;
 		prevYWallCollision = currYWallCollision;
 	}
@@ -61,42 +60,58 @@ public class Body
 	 * needed to be changed, it should be done before this method is called. */
 	public void move(double timestep)
 	{
-		oldPosition.setLocation(position.getX(), position.getY());
-		oldVelocity.setLocation(velocity.getX(), velocity.getY());
-		position.x += velocity.getX() * timestep;
-		position.y += velocity.getY() * timestep;
+		int i = index;
+		store.oldX[i] = store.x[i];
+		store.oldY[i] = store.y[i];
+		store.oldVX[i] = store.vx[i];
+		store.oldVY[i] = store.vy[i];
+		store.x[i] += store.vx[i] * timestep;
+		store.y[i] += store.vy[i] * timestep;
 	}
 	
 	/*Similar to move, but uses oldPosition and oldVelocity. When this is
 	 *called, the timestep will be a fraction of what it is originally to
 	 *move the bodies in a smaller amount. */
 	public void moveRewind(double timestep) {
-		position.x = oldPosition.x + oldVelocity.getX() * timestep;
-		position.y = oldPosition.y + oldVelocity.getY() * timestep;
+		store.x[index] = store.oldX[index] + store.oldVX[index] * timestep;
+		store.y[index] = store.oldY[index] + store.oldVY[index] * timestep;
 	}
 	
 
 	/* setPosition() this body's position to the given position. */
 	public void setPosition(Point2D.Double newPos)
 	{
-		oldPosition = position;
-		position = newPos;
+		store.oldX[index] = store.x[index];
+		store.oldY[index] = store.y[index];
+		store.x[index] = newPos.getX();
+		store.y[index] = newPos.getY();
 	}
 	
 	public void setOldForce(Point2D.Double f) {
-		oldForce = newForce;
-		newForce = f;
+		store.fx[index] = f.getX();
+		store.fy[index] = f.getY();
 	}
 	
+	/* getOldForce() returns a copy of the net force on this body from the last
+	 * timestep. */
 	public Point2D.Double getOldForce() {
-		return oldForce;
+		return new Point2D.Double(store.fx[index], store.fy[index]);
 	}
 
 	/* setPosition() this body's position to the given position. */
 	public void setVelocity(Point2D.Double newVelocity)
 	{
-		oldVelocity = velocity;
-		velocity = newVelocity;
+		setVelocity(newVelocity.getX(), newVelocity.getY());
+	}
+
+	/* setVelocity() sets this body's velocity to <vx, vy>. The current velocity
+	 * becomes the old velocity. */
+	public void setVelocity(double vx, double vy)
+	{
+		store.oldVX[index] = store.vx[index];
+		store.oldVY[index] = store.vy[index];
+		store.vx[index] = vx;
+		store.vy[index] = vy;
 	}
 	
 
@@ -105,75 +120,85 @@ public class Body
 	 * timestep to the current velocity vector. */
 	public void changeVelocityBy(Point2D.Double deltaVelocity, double timestep)
 	{
-		double newVX = velocity.getX() + (deltaVelocity.getX() * timestep);
-		double newVY = velocity.getY() + (deltaVelocity.getY() * timestep);
-		oldVelocity.setLocation(velocity.getX(), velocity.getY());;
-		velocity.setLocation(newVX, newVY);
+		double newVX = store.vx[index] + (deltaVelocity.getX() * timestep);
+		double newVY = store.vy[index] + (deltaVelocity.getY() * timestep);
+		setVelocity(newVX, newVY);
 	}
 	
 	/* Similar to changeVelocityBy , but uses old value. When this method is called,
 	 * timestep will be a fraction of what it normally is to change the velocity in
 	 * a smaller amount. */
 	public void changeOldVelocityBy(Point2D.Double deltaVelocity, double timestep) {
-		double newVX = oldVelocity.getX() + (deltaVelocity.getX() * timestep);
-		double newVY = oldVelocity.getY() + (deltaVelocity.getY() * timestep);
-		velocity.setLocation(newVX, newVY);
+		store.vx[index] = store.oldVX[index] + (deltaVelocity.getX() * timestep);
+		store.vy[index] = store.oldVY[index] + (deltaVelocity.getY() * timestep);
 	}
 	
-	/* getPosition() returns the Point2D.Double that stores this body's position. */
+	/* getOldPosition() returns a copy of this body's position before the last move. */
 	public Point2D.Double getOldPosition()
 	{
-		return oldPosition;
+		return new Point2D.Double(store.oldX[index], store.oldY[index]);
 	}
 
-	/* getVelocity() returns the Point2D.Double that stores this body's velocity. */
+	/* getOldVelocity() returns a copy of this body's previous velocity. */
 	public Point2D.Double getOldVelocity()
 	{
-		return oldVelocity;
+		return new Point2D.Double(store.oldVX[index], store.oldVY[index]);
 	}
 
-	/* getPosition() returns the Point2D.Double that stores this body's position. */
+	/* getPosition() returns a copy of this body's position. */
 	public Point2D.Double getPosition()
 	{
-		return position;
+		return new Point2D.Double(store.x[index], store.y[index]);
 	}
 
-	/* getVelocity() returns the Point2D.Double that stores this body's velocity. */
+	/* getVelocity() returns a copy of this body's velocity. */
 	public Point2D.Double getVelocity()
 	{
-		return velocity;
+		return new Point2D.Double(store.vx[index], store.vy[index]);
 	}
 
 	/* getMass() returns this body's mass. */
 	public double getMass()
 	{
-		return mass;
+		return store.mass[index];
 	}
 
 	/* getRadius returns this body's radius. */
 	public double getRadius()
 	{
-		return radius;
+		return store.radius[index];
 	}
 
 	/* returns the X coordinate of this body's position. */
 	public double getXPos()
 	{
-		return position.getX();
+		return store.x[index];
 	}
 
 	/* returns the Y coordinate of this body's position. */
 	public double getYPos()
 	{
-		return position.getY();
+		return store.y[index];
 	}
 	
 	public double getOldXPos() {
-		return oldPosition.getX();
+		return store.oldX[index];
 	}
 	
 	public double getOldYPos() {
-		return oldPosition.getY();
+		return store.oldY[index];
+	}
+
+	/* returns the X component of this body's velocity. */
+	public double getXVel()
+	{
+		return store.vx[index];
+	}
+
+	/* returns the Y component of this body's velocity. */
+	public double getYVel()
+	{
+		return store.vy[index];
 	}
 
 	public boolean getPrevXWallCollision() {
@@ -193,10 +218,25 @@ public class Body
 		this.prevXWallCollision = collision;
 	}
 
+	/* getWallCollisionFlags() returns the four wall collision flags as the bits
+	 * prevX, prevY, currX, currY, from lowest to highest. */
+	int getWallCollisionFlags() {
+		return (prevXWallCollision ? 1 : 0) | (prevYWallCollision ? 2 : 0)
+				| (currXWallCollision ? 4 : 0) | (currYWallCollision ? 8 : 0);
+	}
+
+	/* setWallCollisionFlags() sets the flags from getWallCollisionFlags(). */
+	void setWallCollisionFlags(int flags) {
+		prevXWallCollision = (flags & 1) != 0;
+		prevYWallCollision = (flags & 2) != 0;
+		currXWallCollision = (flags & 4) != 0;
+		currYWallCollision = (flags & 8) != 0;
+	}
+
 	/* toString() returns a String representation of this Body, as Body[xPos,
 	 * yPos] */
 	public String toString()
 	{
-		return "Body[" + position.getX() + ", " + position.getY() + "]";
+		return "Body[" + getXPos() + ", " + getYPos() + "]";
 	}
 }
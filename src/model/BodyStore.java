@@ -0,0 +1,112 @@
+package model;
+
+/* BodyStore holds the state of every body in a Space as parallel arrays of
+ * primitives, indexed by body id: x[i], y[i], vx[i] and so on all belong to body
+ * i. The simulation loops read and write these arrays directly, which keeps
+ * each quantity packed together in memory. Body objects are views onto one
+ * slot of a BodyStore. */
+public class BodyStore
+{
+	private int size; // bodies in use, at most capacity()
+
+	public final double[] x;
+	public final double[] y;
+	public final double[] vx;
+	public final double[] vy;
+	public final double[] mass;
+	public final double[] radius;
+	public final double[] fx; // net force from the last call to calculateForces()
+	public final double[] fy;
+
+	// state from before the last move, used to rewind overlapping bodies
+	public final double[] oldX;
+	public final double[] oldY;
+	public final double[] oldVX;
+	public final double[] oldVY;
+
+	/* Creates a store for size bodies, all at rest at the origin with no mass. */
+	public BodyStore(int size)
+	{
+		this.size = size;
+		x = new double[size];
+		y = new double[size];
+		vx = new double[size];
+		vy = new double[size];
+		mass = new double[size];
+		radius = new double[size];
+		fx = new double[size];
+		fy = new double[size];
+		oldX = new double[size];
+		oldY = new double[size];
+		oldVX = new double[size];
+		oldVY = new double[size];
+	}
+
+	/* Creates a store holding the current state of the given bodies, and makes
+	 * every one of them a view onto its slot in this store from now on. */
+	public BodyStore(Body[] bodies)
+	{
+		this(bodies.length);
+		for (int i = 0; i < size; i++)
+		{
+			bodies[i].moveTo(this, i);
+		}
+	}
+
+	/* set() sets the mass, radius, position and velocity of body i. The old
+	 * position and velocity are set to the same values. */
+	public void set(int i, double mass, double radius, double x, double y, double vx, double vy)
+	{
+		this.mass[i] = mass;
+		this.radius[i] = radius;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		oldX[i] = x;
+		oldY[i] = y;
+		oldVX[i] = vx;
+		oldVY[i] = vy;
+	}
+
+	/* getSize() returns how many bodies of the store are in use. */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/* capacity() returns how many bodies the arrays have room for. */
+	public int capacity()
+	{
+		return x.length;
+	}
+
+	/* setSize() changes how many bodies of the store are in use, up to
+	 * capacity(). The slots past size keep whatever they held. */
+	void setSize(int size)
+	{
+		if (size < 0 || size > capacity())
+		{
+			throw new IllegalArgumentException("size must be between 0 and " + capacity() + ", was " + size);
+		}
+		this.size = size;
+	}
+
+	/* copy() copies everything about body i of the store src into body j of
+	 * this store. */
+	void copy(BodyStore src, int i, int j)
+	{
+		x[j] = src.x[i];
+		y[j] = src.y[i];
+		vx[j] = src.vx[i];
+		vy[j] = src.vy[i];
+		mass[j] = src.mass[i];
+		radius[j] = src.radius[i];
+		fx[j] = src.fx[i];
+		fy[j] = src.fy[i];
+		oldX[j] = src.oldX[i];
+		oldY[j] = src.oldY[i];
+		oldVX[j] = src.oldVX[i];
+		oldVY[j] = src.oldVY[i];
+	}
+}
@@ -0,0 +1,86 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Checkpointer saves checkpoints of a Space in the background. checkpoint()
+ * copies the state of the Space on the calling thread, which is all the
+ * simulation has to wait for, and a separate thread writes the copy to disk.
+ * Only one checkpoint is written at a time: if the last one is still being
+ * written when the next is due, the simulation waits for it to finish, so
+ * copies never pile up in memory. */
+public class Checkpointer
+{
+	private final Path file;
+	private final ExecutorService writer;
+	private Future<?> pending;
+
+	/* Creates a checkpointer that writes to file, replacing it every time. */
+	public Checkpointer(Path file)
+	{
+		this.file = file;
+		this.writer = Executors.newSingleThreadExecutor(r ->
+		{
+			Thread thread = new Thread(r, "checkpoint writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/* checkpoint() copies the state of space and starts writing it. It must be
+	 * called between timesteps, from the thread running the simulation. Throws
+	 * IOException if writing the previous checkpoint failed. */
+	public void checkpoint(Space space) throws IOException
+	{
+		waitForPending();
+		SpaceCheckpoint checkpoint = SpaceCheckpoint.capture(space);
+		pending = writer.submit(() ->
+		{
+			checkpoint.writeTo(file);
+			return null;
+		});
+	}
+
+	/* close() waits for the last checkpoint to be written and stops the writer
+	 * thread. */
+	public void close() throws IOException
+	{
+		try
+		{
+			waitForPending();
+		}
+		finally
+		{
+			writer.shutdown();
+		}
+	}
+
+	private void waitForPending() throws IOException
+	{
+		if (pending == null)
+		{
+			return;
+		}
+		try
+		{
+			pending.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing a checkpoint", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Could not write checkpoint to " + file, e.getCause());
+		}
+		finally
+		{
+			pending = null;
+		}
+	}
+}
@@ -0,0 +1,547 @@
+package model;
+
+import java.util.Arrays;
+
+/* CollisionEvents moves the bodies of a Space through a timestep by predicting
+ * their collisions instead of looking for overlaps afterwards. Over a timestep
+ * every body moves in a straight line at its velocity after the gravity kick,
+ * so the time at which two bodies touch, or a body reaches a wall, can be
+ * solved for exactly. The predicted events are kept in a priority queue by
+ * time. The bodies are advanced to the earliest event, it is resolved, and new
+ * events are predicted for the bodies that changed velocity. Bodies do not
+ * overlap, whatever the timestep, so nothing has to be rewound; bodies that
+ * start out overlapping are pushed apart before their forces are worked out.
+ * The exception is a body that runs out of collisions in a timestep (see
+ * advance()): the collisions it misses are counted in the SpaceMetrics of the
+ * Space, and it may overlap or pass through the bodies it missed.
+ *
+ * Predictions are invalidated lazily: every body counts its collisions, and an
+ * event remembers the counts of its bodies when it was predicted. An event
+ * whose bodies have collided since is stale and is dropped when it comes out
+ * of the queue, instead of being searched for and removed.
+ *
+ * Only pairs that can reach each other in the timestep are predicted. They are
+ * found with a CollisionGrid whose box around each body is grown by its reach,
+ * how far that body could go in the rest of the timestep at REACH_HEADROOM
+ * times its speed, so a few fast bodies do not make every body look far
+ * afield. A collision that speeds a body up past that lets it escape: it gets
+ * a new reach from its new speed, and its neighbours are looked up in the grid
+ * again. The bodies an escaped body could reach are kept apart from the
+ * others, and every body is also checked against every escaped body. Once
+ * the escaped bodies have cost as many checks as building the grid again
+ * would, it is built again for the rest of the timestep. */
+class CollisionEvents
+{
+	private static final int X_WALL = -1; // second body of an event with a vertical wall
+	private static final int Y_WALL = -2; // second body of an event with a horizontal wall
+	private static final int MAX_COLLISIONS_PER_BODY = 64; // per timestep, see advance()
+	private static final double REACH_HEADROOM = 2; // how much faster a body may get before it escapes
+	private static final int MAX_SEPARATION_PASSES = 16; // see separateOverlaps()
+	private static final double SEPARATION_TOLERANCE = 1e-9; // bodies overlapping less than this are left alone
+	private static final double MAX_REACH = Space.BORDER_WIDTH + Space.BORDER_HEIGHT; // reaches every body in the space
+
+	private final Space space;
+	private final BodyStore store;
+	private final CollisionGrid grid = new CollisionGrid(Space.BORDER_WIDTH, Space.BORDER_HEIGHT);
+	private final int n;
+
+	private final double[] time; // the time of the timestep up to which body i has moved
+	private final int[] count; // collisions of body i so far, walls included
+	private final int[] collisions; // collisions of body i with other bodies in this timestep
+	private double now; // time of the timestep of the event being resolved
+	private double end; // length of the timestep
+
+	private final double[] reach; // how far past its radius body i was looked for
+	private final double[] reachSpeedSq; // fastest body i may go before it escapes
+
+	// the escaped bodies, and the bodies escapedBodies[e] could reach,
+	// escapedNeighbours[escapedStart[e]..escapedEnd[e]), escaped bodies left out
+	private final int[] escapeSlot; // e of body i, or -1 if it has not escaped
+	private final int[] escapedBodies;
+	private final int[] escapedStart;
+	private final int[] escapedEnd;
+	private int[] escapedNeighbours = new int[0];
+	private int numEscaped;
+	private int numEscapedNeighbours;
+	private long escapeChecks; // checks the escaped bodies have cost since the grid was built
+
+	// the bodies body i could reach, neighbours[neighbourStart[i]..neighbourStart[i + 1])
+	private final int[] neighbourStart;
+	private int[] neighbours = new int[0];
+	private final int[] candidates;
+	private int[] pairs = new int[0]; // candidate pairs found by the grid, two ints each
+	private int numPairs;
+
+	// the queue, a binary heap ordered by eventTime
+	private int events;
+	private double[] eventTime = new double[16];
+	private int[] eventFirst = new int[16];
+	private int[] eventSecond = new int[16];
+	private int[] eventFirstCount = new int[16];
+	private int[] eventSecondCount = new int[16];
+
+	CollisionEvents(Space space)
+	{
+		this.space = space;
+		this.store = space.getBodyStore();
+		this.n = store.getSize();
+		this.time = new double[n];
+		this.count = new int[n];
+		this.collisions = new int[n];
+		this.reach = new double[n];
+		this.reachSpeedSq = new double[n];
+		this.escapeSlot = new int[n];
+		this.escapedBodies = new int[n];
+		this.escapedStart = new int[n];
+		this.escapedEnd = new int[n];
+		this.neighbourStart = new int[n + 1];
+		this.candidates = new int[n];
+	}
+
+	/* advance() moves every body by dt at its current velocity, resolving their
+	 * collisions with each other and the walls on the way in the order they
+	 * happen. A group of bodies squeezed together can bounce between each other
+	 * endlessly at the same instant, so a body that has collided with other
+	 * bodies MAX_COLLISIONS_PER_BODY times in the timestep collides with no
+	 * more of them until the next one; the collisions it misses are counted as
+	 * dropped. Walls are always bounced off, so no body leaves the space. */
+	void advance(double dt)
+	{
+		double[] oldX = store.oldX, oldY = store.oldY, oldVX = store.oldVX, oldVY = store.oldVY;
+		for (int i = 0; i < n; i++)
+		{
+			oldX[i] = store.x[i];
+			oldY[i] = store.y[i];
+			oldVX[i] = store.vx[i];
+			oldVY[i] = store.vy[i];
+		}
+		Arrays.fill(time, 0);
+		Arrays.fill(collisions, 0);
+		now = 0;
+		end = dt;
+		findNeighbours();
+		predictAll();
+
+		long dropped = 0;
+		while (events > 0)
+		{
+			double t = eventTime[0];
+			int i = eventFirst[0];
+			int j = eventSecond[0];
+			boolean valid = count[i] == eventFirstCount[0] && (j < 0 || count[j] == eventSecondCount[0]);
+			pop();
+			if (!valid)
+			{
+				continue;
+			}
+			if (j >= 0 && (collisions[i] == MAX_COLLISIONS_PER_BODY || collisions[j] == MAX_COLLISIONS_PER_BODY))
+			{
+				dropped++;
+				continue;
+			}
+			now = t;
+			moveTo(i, t);
+			if (j == X_WALL)
+			{
+				store.vx[i] = -store.vx[i];
+			}
+			else if (j == Y_WALL)
+			{
+				store.vy[i] = -store.vy[i];
+			}
+			else
+			{
+				moveTo(j, t);
+				space.collide(i, j);
+				count[j]++;
+				collisions[i]++;
+				collisions[j]++;
+			}
+			count[i]++;
+
+			escapeIfTooFast(i);
+			if (j >= 0)
+			{
+				escapeIfTooFast(j);
+			}
+			if (escapeChecks > n + numPairs)
+			{
+				findNeighbours();
+				predictAll();
+			}
+			else
+			{
+				predict(i, j);
+				if (j >= 0)
+				{
+					predict(j, i);
+				}
+			}
+		}
+		if (dropped > 0)
+		{
+			space.getMetrics().addDroppedEvents(dropped);
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			moveTo(i, dt);
+		}
+	}
+
+	/* findNeighbours() moves every body up to now and finds the bodies each one
+	 * could reach before the end of the timestep. */
+	private void findNeighbours()
+	{
+		for (int i = 0; i < n; i++)
+		{
+			moveTo(i, now);
+			setReach(i);
+			escapeSlot[i] = -1;
+		}
+		numEscaped = 0;
+		numEscapedNeighbours = 0;
+		escapeChecks = 0;
+		grid.build(store, reach);
+
+		// the grid gives each pair once; every body needs both directions
+		Arrays.fill(neighbourStart, 0);
+		int numPairs = 0;
+		for (int i = 0; i < n - 1; i++)
+		{
+			int numCandidates = grid.findCandidatesInAnyOrder(i, candidates);
+			if (pairs.length < 2 * (numPairs + numCandidates))
+			{
+				pairs = Arrays.copyOf(pairs, Math.max(2 * pairs.length, 2 * (numPairs + numCandidates)));
+			}
+			for (int k = 0; k < numCandidates; k++)
+			{
+				int j = candidates[k];
+				if (!canReach(i, j))
+				{
+					continue;
+				}
+				pairs[2 * numPairs] = i;
+				pairs[2 * numPairs + 1] = j;
+				numPairs++;
+				neighbourStart[i + 1]++;
+				neighbourStart[j + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++)
+		{
+			neighbourStart[i + 1] += neighbourStart[i];
+		}
+		if (neighbours.length < 2 * numPairs)
+		{
+			neighbours = new int[2 * numPairs];
+		}
+		int[] next = Arrays.copyOf(neighbourStart, n);
+		for (int p = 0; p < numPairs; p++)
+		{
+			int i = pairs[2 * p];
+			int j = pairs[2 * p + 1];
+			neighbours[next[i]++] = j;
+			neighbours[next[j]++] = i;
+		}
+		this.numPairs = numPairs;
+	}
+
+	/* setReach() sets how far body i could go in the rest of the timestep at
+	 * REACH_HEADROOM times its speed. */
+	private void setReach(int i)
+	{
+		double speed = REACH_HEADROOM * Math.hypot(store.vx[i], store.vy[i]);
+		reach[i] = Math.min(speed * (end - now), MAX_REACH);
+		reachSpeedSq[i] = speed * speed;
+	}
+
+	/* canReach() returns whether bodies i and j are close enough to touch if
+	 * neither goes further than its reach; two bodies close in on each other
+	 * at no more than the sum of their speeds. Bodies that share a cell of the
+	 * grid are often much further apart, as the cells are sized for the
+	 * average reach. */
+	private boolean canReach(int i, int j)
+	{
+		double dx = store.x[j] - store.x[i];
+		double dy = store.y[j] - store.y[i];
+		double r = store.radius[i] + store.radius[j] + reach[i] + reach[j];
+		return dx * dx + dy * dy <= r * r;
+	}
+
+	/* separateOverlaps() pushes bodies that overlap apart along the line between
+	 * them until they just touch, keeping their center of mass where it was.
+	 * Bodies only overlap when they were placed that way, or missed a
+	 * collision that was dropped. Space calls it before working out the forces
+	 * of a timestep: left alone, gravity would pull them through each other's
+	 * centers and fling them off at enormous speeds. Pushing a pair apart can
+	 * push them into other bodies, so a crowd takes a few passes; after
+	 * MAX_SEPARATION_PASSES the rest are left overlapping. */
+	void separateOverlaps()
+	{
+		double[] x = store.x, y = store.y, mass = store.mass;
+		boolean overlapping = true;
+		for (int pass = 0; pass < MAX_SEPARATION_PASSES && overlapping; pass++)
+		{
+			overlapping = false;
+			grid.build(store);
+			for (int i = 0; i < n - 1; i++)
+			{
+				int numCandidates = grid.findCandidatesInAnyOrder(i, candidates);
+				for (int k = 0; k < numCandidates; k++)
+				{
+					int j = candidates[k];
+					double dx = x[j] - x[i];
+					double dy = y[j] - y[i];
+					double dist = Math.sqrt(dx * dx + dy * dy);
+					double overlap = store.radius[i] + store.radius[j] - dist;
+					if (overlap > SEPARATION_TOLERANCE && dist > 0)
+					{
+						double push = overlap / dist / (mass[i] + mass[j]);
+						x[i] -= dx * push * mass[j];
+						y[i] -= dy * push * mass[j];
+						x[j] += dx * push * mass[i];
+						y[j] += dy * push * mass[i];
+						overlapping = true;
+					}
+				}
+			}
+		}
+	}
+
+	/* predictAll() predicts every event again, for the pairs findNeighbours()
+	 * found. */
+	private void predictAll()
+	{
+		events = 0;
+		for (int i = 0; i < n; i++)
+		{
+			predictWalls(i);
+		}
+		for (int p = 0; p < numPairs; p++)
+		{
+			predictPair(pairs[2 * p], pairs[2 * p + 1]);
+		}
+	}
+
+	/* predict() queues the next collision of body i with each body it could
+	 * reach and with the walls, except with body partner, which it has just
+	 * bounced off. Two bodies that have bounced off each other are moving
+	 * apart, but when they barely were moving together rounding can leave them
+	 * closing in by a hair, and they would bounce back and forth forever. */
+	private void predict(int i, int partner)
+	{
+		predictWalls(i);
+		int e = escapeSlot[i];
+		int[] list = e < 0 ? neighbours : escapedNeighbours;
+		int from = e < 0 ? neighbourStart[i] : escapedStart[e];
+		int to = e < 0 ? neighbourStart[i + 1] : escapedEnd[e];
+		for (int k = from; k < to; k++)
+		{
+			int j = list[k];
+			// escaped bodies are checked below, wherever they went
+			if (j != partner && escapeSlot[j] < 0)
+			{
+				predictPair(i, j);
+			}
+		}
+		for (int k = 0; k < numEscaped; k++)
+		{
+			int j = escapedBodies[k];
+			if (j != partner && j != i)
+			{
+				predictPair(i, j);
+			}
+		}
+		escapeChecks += numEscaped;
+	}
+
+	/* predictPair() queues the time bodies i and j touch, if they are closing
+	 * in on each other and do so before the end of the timestep. Bodies that
+	 * already overlap and are still closing in collide right away. */
+	private void predictPair(int i, int j)
+	{
+		double dx = position(store.x, store.vx, j) - position(store.x, store.vx, i);
+		double dy = position(store.y, store.vy, j) - position(store.y, store.vy, i);
+		double dvx = store.vx[j] - store.vx[i];
+		double dvy = store.vy[j] - store.vy[i];
+		double approach = dx * dvx + dy * dvy;
+		double distSq = dx * dx + dy * dy;
+		if (approach >= 0 || distSq == 0)
+		{
+			return;
+		}
+		double r = store.radius[i] + store.radius[j];
+		double dvSq = dvx * dvx + dvy * dvy;
+		double wait;
+		if (distSq <= r * r)
+		{
+			wait = 0;
+		}
+		else
+		{
+			// |d + dv t| = r, the first of the two roots
+			double discriminant = approach * approach - dvSq * (distSq - r * r);
+			if (discriminant < 0)
+			{
+				return;
+			}
+			wait = (distSq - r * r) / (-approach + Math.sqrt(discriminant));
+		}
+		if (now + wait <= end)
+		{
+			push(now + wait, i, j);
+		}
+	}
+
+	/* predictWalls() queues the time body i reaches the wall it is moving
+	 * towards, in x and in y. */
+	private void predictWalls(int i)
+	{
+		double r = store.radius[i];
+		double wait = wallTime(position(store.x, store.vx, i), store.vx[i], r, Space.BORDER_WIDTH - r);
+		if (now + wait <= end)
+		{
+			push(now + wait, i, X_WALL);
+		}
+		wait = wallTime(position(store.y, store.vy, i), store.vy[i], r, Space.BORDER_HEIGHT - r);
+		if (now + wait <= end)
+		{
+			push(now + wait, i, Y_WALL);
+		}
+	}
+
+	/* wallTime() returns how long a body at x moving at v takes to reach min or
+	 * max, whichever it is moving towards; 0 if it is already past it. */
+	private static double wallTime(double x, double v, double min, double max)
+	{
+		if (v > 0)
+		{
+			return Math.max(0, (max - x) / v);
+		}
+		if (v < 0)
+		{
+			return Math.max(0, (min - x) / v);
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/* position() returns where body i is at the current time along one axis,
+	 * without moving it there. */
+	private double position(double[] x, double[] v, int i)
+	{
+		return x[i] + v[i] * (now - time[i]);
+	}
+
+	/* moveTo() moves body i up to time t of the timestep. */
+	private void moveTo(int i, double t)
+	{
+		double dt = t - time[i];
+		store.x[i] += store.vx[i] * dt;
+		store.y[i] += store.vy[i] * dt;
+		time[i] = t;
+	}
+
+	/* escapeIfTooFast() lets body i escape if it goes faster than its reach
+	 * allows for. It gets a new reach, and the bodies that have not escaped
+	 * that it could now reach are looked up in the grid, whose boxes still
+	 * hold them. */
+	private void escapeIfTooFast(int i)
+	{
+		if (store.vx[i] * store.vx[i] + store.vy[i] * store.vy[i] <= reachSpeedSq[i])
+		{
+			return;
+		}
+		int e = escapeSlot[i];
+		if (e < 0)
+		{
+			e = numEscaped++;
+			escapeSlot[i] = e;
+			escapedBodies[e] = i;
+		}
+		setReach(i);
+		int numCandidates = grid.findCandidates(store.x[i], store.y[i], store.radius[i] + reach[i], candidates);
+		escapeChecks += numCandidates;
+		if (escapedNeighbours.length < numEscapedNeighbours + numCandidates)
+		{
+			escapedNeighbours = Arrays.copyOf(escapedNeighbours,
+					Math.max(2 * escapedNeighbours.length, numEscapedNeighbours + numCandidates));
+		}
+		// a body that escapes again leaves its old neighbours behind
+		escapedStart[e] = numEscapedNeighbours;
+		for (int k = 0; k < numCandidates; k++)
+		{
+			int j = candidates[k];
+			if (j != i && escapeSlot[j] < 0 && canReach(i, j))
+			{
+				escapedNeighbours[numEscapedNeighbours++] = j;
+			}
+		}
+		escapedEnd[e] = numEscapedNeighbours;
+	}
+
+	private void push(double t, int i, int j)
+	{
+		if (events == eventTime.length)
+		{
+			int capacity = 2 * events;
+			eventTime = Arrays.copyOf(eventTime, capacity);
+			eventFirst = Arrays.copyOf(eventFirst, capacity);
+			eventSecond = Arrays.copyOf(eventSecond, capacity);
+			eventFirstCount = Arrays.copyOf(eventFirstCount, capacity);
+			eventSecondCount = Arrays.copyOf(eventSecondCount, capacity);
+		}
+		int k = events++;
+		while (k > 0)
+		{
+			int parent = (k - 1) / 2;
+			if (eventTime[parent] <= t)
+			{
+				break;
+			}
+			copy(parent, k);
+			k = parent;
+		}
+		eventTime[k] = t;
+		eventFirst[k] = i;
+		eventSecond[k] = j;
+		eventFirstCount[k] = count[i];
+		eventSecondCount[k] = j >= 0 ? count[j] : 0;
+	}
+
+	/* pop() removes the earliest event from the queue. */
+	private void pop()
+	{
+		int last = --events;
+		int k = 0;
+		while (true)
+		{
+			int child = 2 * k + 1;
+			if (child >= last)
+			{
+				break;
+			}
+			if (child + 1 < last && eventTime[child + 1] < eventTime[child])
+			{
+				child++;
+			}
+			if (eventTime[last] <= eventTime[child])
+			{
+				break;
+			}
+			copy(child, k);
+			k = child;
+		}
+		copy(last, k);
+	}
+
+	/* copy() copies event from to slot to of the heap. */
+	private void copy(int from, int to)
+	{
+		eventTime[to] = eventTime[from];
+		eventFirst[to] = eventFirst[from];
+		eventSecond[to] = eventSecond[from];
+		eventFirstCount[to] = eventFirstCount[from];
+		eventSecondCount[to] = eventSecondCount[from];
+	}
+}
@@ -0,0 +1,299 @@
+package model;
+
+import java.util.Arrays;
+
+/* CollisionGrid is the broad phase of collision detection. It divides the space
+ * into a uniform grid of square cells, at least as wide as the largest body,
+ * and puts every body into each cell that its bounding box touches. Two bodies
+ * that touch must have overlapping bounding boxes, and so share a cell; only
+ * bodies that share a cell need to be checked against each other. Bodies
+ * outside of the space are put in the nearest cells at the edge of the grid. */
+public class CollisionGrid
+{
+	private static final int MAX_CELLS_PER_SIDE = 1024;
+	private static final int INSERTION_SORT_SIZE = 32; // fewer candidates than this are insertion sorted
+
+	private final double width;
+	private final double height;
+	private double cellSize;
+	private int cols;
+	private int rows;
+	private int[] cellStart; // bodies of cell c are cellBodies[cellStart[c]..cellStart[c + 1])
+	private int[] cellBodies = new int[0];
+	private int[] next = new int[0]; // scratch space for build(), where the next body of each cell goes
+	private int[] boxes = new int[0]; // first col, last col, first row, last row of each body
+
+	/* Creates a grid covering a space of the given width and height. */
+	public CollisionGrid(double width, double height)
+	{
+		this.width = width;
+		this.height = height;
+	}
+
+	/* build() bins every body in store by the bounding box of its current
+	 * position. Bodies are kept in order of index within each cell. */
+	public void build(BodyStore store)
+	{
+		build(store, false);
+	}
+
+	/* build() bins every body in store. When swept is true, the bounding box of a
+	 * body covers its whole path from its old position to its current one, so
+	 * bodies that could have touched anywhere along that path share a cell. */
+	public void build(BodyStore store, boolean swept)
+	{
+		build(store, swept, 0);
+	}
+
+	/* build() bins every body in store by the bounding box of its current
+	 * position, grown by margin on every side. Bodies that could touch after
+	 * each of them has moved up to margin in any direction share a cell. */
+	public void build(BodyStore store, double margin)
+	{
+		build(store, false, margin);
+	}
+
+	/* build() bins every body in store by the bounding box of its path when
+	 * swept is true, or of its current position otherwise, grown by margin on
+	 * every side. */
+	public void build(BodyStore store, boolean swept, double margin)
+	{
+		build(store, swept, margin, null);
+	}
+
+	/* build() bins every body i in store by the bounding box of its current
+	 * position, grown by margins[i] on every side. Bodies i and j that could
+	 * touch after each has moved up to its own margin share a cell. The cells
+	 * are sized for the average margin, so a few bodies with large margins
+	 * cover many cells instead of making every cell large. */
+	public void build(BodyStore store, double[] margins)
+	{
+		build(store, false, 0, margins);
+	}
+
+	private void build(BodyStore store, boolean swept, double margin, double[] margins)
+	{
+		int n = store.getSize();
+		double maxRadius = 0;
+		for (int i = 0; i < n; i++)
+		{
+			maxRadius = Math.max(maxRadius, store.radius[i]);
+		}
+		if (margins != null && n > 0)
+		{
+			double sum = 0;
+			for (int i = 0; i < n; i++)
+			{
+				sum += margins[i];
+			}
+			margin = sum / n;
+		}
+		cellSize = Math.max(2 * (maxRadius + margin), Math.max(width, height) / MAX_CELLS_PER_SIDE);
+		cols = Math.max(1, (int) Math.ceil(width / cellSize));
+		rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+		int numCells = cols * rows;
+		if (cellStart == null || cellStart.length != numCells + 1)
+		{
+			cellStart = new int[numCells + 1];
+		}
+		else
+		{
+			Arrays.fill(cellStart, 0);
+		}
+		if (boxes.length < 4 * n)
+		{
+			boxes = new int[4 * n];
+		}
+
+		// counting sort of the bodies by cell
+		int entries = 0;
+		for (int i = 0; i < n; i++)
+		{
+			double r = store.radius[i] + (margins != null ? margins[i] : margin);
+			double minX = store.x[i], maxX = store.x[i];
+			double minY = store.y[i], maxY = store.y[i];
+			if (swept)
+			{
+				minX = Math.min(minX, store.oldX[i]);
+				maxX = Math.max(maxX, store.oldX[i]);
+				minY = Math.min(minY, store.oldY[i]);
+				maxY = Math.max(maxY, store.oldY[i]);
+			}
+			int b = 4 * i;
+			boxes[b] = col(minX - r);
+			boxes[b + 1] = col(maxX + r);
+			boxes[b + 2] = row(minY - r);
+			boxes[b + 3] = row(maxY + r);
+			for (int row = boxes[b + 2]; row <= boxes[b + 3]; row++)
+			{
+				for (int col = boxes[b]; col <= boxes[b + 1]; col++)
+				{
+					cellStart[row * cols + col + 1]++;
+					entries++;
+				}
+			}
+		}
+		for (int c = 0; c < numCells; c++)
+		{
+			cellStart[c + 1] += cellStart[c];
+		}
+		if (cellBodies.length < entries)
+		{
+			// with room to spare, as the count changes a little every timestep
+			cellBodies = new int[entries + entries / 4];
+		}
+		if (next.length < numCells)
+		{
+			next = new int[numCells];
+		}
+		System.arraycopy(cellStart, 0, next, 0, numCells);
+		for (int i = 0; i < n; i++)
+		{
+			int b = 4 * i;
+			for (int row = boxes[b + 2]; row <= boxes[b + 3]; row++)
+			{
+				for (int col = boxes[b]; col <= boxes[b + 1]; col++)
+				{
+					cellBodies[next[row * cols + col]++] = i;
+				}
+			}
+		}
+	}
+
+	/* findCandidates() stores the index of every body after i that shares a cell
+	 * with body i in candidates, in increasing order, and returns how many there
+	 * are. candidates must be able to hold every body. */
+	public int findCandidates(int i, int[] candidates)
+	{
+		int count = findCandidatesInAnyOrder(i, candidates);
+		// the same order as checking every pair, so collisions resolve identically
+		sort(candidates, count);
+		return count;
+	}
+
+	/* findCandidatesInAnyOrder() is findCandidates() without the sorting, for
+	 * callers that do not depend on the order of the candidates. */
+	public int findCandidatesInAnyOrder(int i, int[] candidates)
+	{
+		int b = 4 * i;
+		int count = 0;
+
+		for (int row = boxes[b + 2]; row <= boxes[b + 3]; row++)
+		{
+			for (int col = boxes[b]; col <= boxes[b + 1]; col++)
+			{
+				int cell = row * cols + col;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++)
+				{
+					int j = cellBodies[k];
+					// bodies that share several cells are only taken from the first one
+					if (j > i && row == Math.max(boxes[b + 2], boxes[4 * j + 2])
+							&& col == Math.max(boxes[b], boxes[4 * j]))
+					{
+						candidates[count++] = j;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/* findCandidates() stores the index of every body that shares a cell with
+	 * the square of half-width r around (x, y) in candidates, and returns how
+	 * many there are. candidates must be able to hold every body. */
+	public int findCandidates(double x, double y, double r, int[] candidates)
+	{
+		int firstCol = col(x - r);
+		int lastCol = col(x + r);
+		int firstRow = row(y - r);
+		int lastRow = row(y + r);
+		int count = 0;
+
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int col = firstCol; col <= lastCol; col++)
+			{
+				int cell = row * cols + col;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++)
+				{
+					int j = cellBodies[k];
+					if (row == Math.max(firstRow, boxes[4 * j + 2]) && col == Math.max(firstCol, boxes[4 * j]))
+					{
+						candidates[count++] = j;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/* sort() sorts a[0..n) in place, without allocating anything. Arrays.sort()
+	 * sees the candidates as a few sorted runs, one per cell, and allocates a
+	 * buffer to merge them on every call, which made most of the garbage of a
+	 * timestep. */
+	private static void sort(int[] a, int n)
+	{
+		if (n < INSERTION_SORT_SIZE)
+		{
+			for (int k = 1; k < n; k++)
+			{
+				int value = a[k];
+				int m = k - 1;
+				while (m >= 0 && a[m] > value)
+				{
+					a[m + 1] = a[m];
+					m--;
+				}
+				a[m + 1] = value;
+			}
+			return;
+		}
+
+		// heapsort
+		for (int k = n / 2 - 1; k >= 0; k--)
+		{
+			siftDown(a, k, n);
+		}
+		for (int end = n - 1; end > 0; end--)
+		{
+			int largest = a[0];
+			a[0] = a[end];
+			a[end] = largest;
+			siftDown(a, 0, end);
+		}
+	}
+
+	/* siftDown() moves a[k] down the heap a[0..n) to where it belongs. */
+	private static void siftDown(int[] a, int k, int n)
+	{
+		int value = a[k];
+		while (2 * k + 1 < n)
+		{
+			int child = 2 * k + 1;
+			if (child + 1 < n && a[child + 1] > a[child])
+			{
+				child++;
+			}
+			if (a[child] <= value)
+			{
+				break;
+			}
+			a[k] = a[child];
+			k = child;
+		}
+		a[k] = value;
+	}
+
+	/* col() returns the column of cells containing x. */
+	private int col(double x)
+	{
+		return Math.min(cols - 1, Math.max(0, (int) Math.floor(x / cellSize)));
+	}
+
+	/* row() returns the row of cells containing y. */
+	private int row(double y)
+	{
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor(y / cellSize)));
+	}
+}
@@ -0,0 +1,138 @@
+package model;
+
+import java.util.Arrays;
+
+/* ContactList is a growable list of pairs of colliding bodies, stored as two
+ * int arrays of body indices. */
+public class ContactList
+{
+	private int[] first = new int[16];
+	private int[] second = new int[16];
+	private int size;
+	// scratch space for partitionIntoBatches(), grown as needed and kept, so
+	// partitioning every timestep allocates nothing
+	private int[] nextBatch = new int[0];
+	private int[] batch = new int[0];
+	private int[] batchStart = new int[1];
+	private int[] nextSlot = new int[0];
+	private int[] sortedFirst = new int[0];
+	private int[] sortedSecond = new int[0];
+	private int numBatches;
+
+	/* add() appends the contact between bodies i and j. */
+	public void add(int i, int j)
+	{
+		if (size == first.length)
+		{
+			first = Arrays.copyOf(first, size * 2);
+			second = Arrays.copyOf(second, size * 2);
+		}
+		first[size] = i;
+		second[size] = j;
+		size++;
+	}
+
+	/* addAll() appends every contact of other, in order. */
+	public void addAll(ContactList other)
+	{
+		for (int k = 0; k < other.size; k++)
+		{
+			add(other.first[k], other.second[k]);
+		}
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int getFirst(int k)
+	{
+		return first[k];
+	}
+
+	public int getSecond(int k)
+	{
+		return second[k];
+	}
+
+	/* partitionIntoBatches() reorders the contacts into batches in which no body
+	 * appears more than once, so the contacts of a batch can be resolved at the
+	 * same time. Every contact goes into the first batch after the last one that
+	 * already holds one of its bodies, which keeps the contacts of each body in
+	 * their original order. Returns the number of batches. */
+	public int partitionIntoBatches(int nBodies)
+	{
+		if (nextBatch.length < nBodies)
+		{
+			nextBatch = new int[nBodies];
+		}
+		else
+		{
+			Arrays.fill(nextBatch, 0, nBodies, 0);
+		}
+		if (batch.length < size)
+		{
+			batch = new int[first.length];
+		}
+
+		numBatches = 0;
+		for (int k = 0; k < size; k++)
+		{
+			int b = Math.max(nextBatch[first[k]], nextBatch[second[k]]);
+			batch[k] = b;
+			nextBatch[first[k]] = b + 1;
+			nextBatch[second[k]] = b + 1;
+			numBatches = Math.max(numBatches, b + 1);
+		}
+
+		// counting sort by batch, keeping the original order within a batch
+		if (batchStart.length < numBatches + 1)
+		{
+			batchStart = new int[2 * numBatches + 1];
+			nextSlot = new int[2 * numBatches];
+		}
+		Arrays.fill(batchStart, 0, numBatches + 1, 0);
+		for (int k = 0; k < size; k++)
+		{
+			batchStart[batch[k] + 1]++;
+		}
+		for (int b = 0; b < numBatches; b++)
+		{
+			batchStart[b + 1] += batchStart[b];
+		}
+		System.arraycopy(batchStart, 0, nextSlot, 0, numBatches);
+		if (sortedFirst.length < first.length)
+		{
+			sortedFirst = new int[first.length];
+			sortedSecond = new int[second.length];
+		}
+		for (int k = 0; k < size; k++)
+		{
+			int slot = nextSlot[batch[k]]++;
+			sortedFirst[slot] = first[k];
+			sortedSecond[slot] = second[k];
+		}
+		// the old arrays become the scratch space for the next call
+		int[] swap = first;
+		first = sortedFirst;
+		sortedFirst = swap;
+		swap = second;
+		second = sortedSecond;
+		sortedSecond = swap;
+
+		return numBatches;
+	}
+
+	/* getBatchStart() returns where batch b of the last partitionIntoBatches()
+	 * starts; getBatchStart(numBatches) is size(). */
+	public int getBatchStart(int b)
+	{
+		return batchStart[b];
+	}
+}
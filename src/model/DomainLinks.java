@@ -0,0 +1,214 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* DomainLinks connects the processes of a distributed simulation to each
+ * other, one TCP connection per pair of processes. Process r listens on
+ * ports[r], connects to every process before it and accepts a connection from
+ * every process after it, so they can be started in any order.
+ *
+ * Every exchange sends one message to each other process and receives one from
+ * each. The messages are written on a thread per connection while the calling
+ * thread reads, so two processes sending each other large messages at the
+ * same time do not wait on each other forever. */
+class DomainLinks implements AutoCloseable
+{
+	private static final long CONNECT_TIMEOUT_MILLIS = 60_000; // waiting for the other processes to start
+
+	private final int rank;
+	private final Socket[] sockets;
+	private final DataInputStream[] in;
+	private final DataOutputStream[] out;
+	private final ExecutorService writers;
+
+	/* Connects process rank to the other ports.length - 1 processes on host.
+	 * server is where this process accepts connections; when it is null, a
+	 * server is opened on ports[rank]. Either way it is closed once every
+	 * process is connected. */
+	DomainLinks(int rank, ServerSocket server, String host, int[] ports) throws IOException
+	{
+		int nodes = ports.length;
+		this.rank = rank;
+		this.sockets = new Socket[nodes];
+		this.in = new DataInputStream[nodes];
+		this.out = new DataOutputStream[nodes];
+
+		try (ServerSocket listening = server != null ? server : listen(host, ports[rank]))
+		{
+			for (int peer = 0; peer < rank; peer++)
+			{
+				open(peer, connect(host, ports[peer]));
+				out[peer].writeInt(rank);
+				out[peer].flush();
+			}
+			for (int accepted = rank + 1; accepted < nodes; accepted++)
+			{
+				Socket socket = listening.accept();
+				int peer = new DataInputStream(socket.getInputStream()).readInt();
+				if (peer <= rank || peer >= nodes || sockets[peer] != null)
+				{
+					socket.close();
+					throw new IOException("Unexpected connection from process " + peer);
+				}
+				open(peer, socket);
+			}
+		}
+		catch (IOException e)
+		{
+			closeSockets();
+			throw e;
+		}
+		writers = Executors.newFixedThreadPool(Math.max(1, nodes - 1), r ->
+		{
+			Thread thread = new Thread(r, "domain-link-" + rank);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/* listen() opens a server on a port of host. */
+	private static ServerSocket listen(String host, int port) throws IOException
+	{
+		ServerSocket server = new ServerSocket();
+		try
+		{
+			server.setReuseAddress(true);
+			server.bind(new InetSocketAddress(host, port));
+			return server;
+		}
+		catch (IOException e)
+		{
+			server.close();
+			throw e;
+		}
+	}
+
+	/* connect() connects to a port on host, trying again until the process
+	 * listening there has started. */
+	private static Socket connect(String host, int port) throws IOException
+	{
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+		while (true)
+		{
+			try
+			{
+				return new Socket(host, port);
+			}
+			catch (ConnectException e)
+			{
+				if (System.currentTimeMillis() > deadline)
+				{
+					throw e;
+				}
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch (InterruptedException interrupted)
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while connecting to port " + port);
+				}
+			}
+		}
+	}
+
+	private void open(int peer, Socket socket) throws IOException
+	{
+		socket.setTcpNoDelay(true);
+		sockets[peer] = socket;
+		in[peer] = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		out[peer] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+	}
+
+	/* exchange() sends outgoing[peer] to every other process and returns what
+	 * each of them sent back, indexed the same way. outgoing[rank] is not sent
+	 * and the result has null there. */
+	byte[][] exchange(byte[][] outgoing) throws IOException
+	{
+		int nodes = sockets.length;
+		List<Future<?>> writes = new ArrayList<>();
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer == rank)
+			{
+				continue;
+			}
+			DataOutputStream stream = out[peer];
+			byte[] message = outgoing[peer];
+			writes.add(writers.submit(() ->
+			{
+				stream.writeInt(message.length);
+				stream.write(message);
+				stream.flush();
+				return null;
+			}));
+		}
+
+		byte[][] incoming = new byte[nodes][];
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer != rank)
+			{
+				incoming[peer] = new byte[in[peer].readInt()];
+				in[peer].readFully(incoming[peer]);
+			}
+		}
+		for (Future<?> write : writes)
+		{
+			try
+			{
+				write.get();
+			}
+			catch (ExecutionException e)
+			{
+				throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending");
+			}
+		}
+		return incoming;
+	}
+
+	@Override
+	public void close()
+	{
+		writers.shutdownNow();
+		closeSockets();
+	}
+
+	private void closeSockets()
+	{
+		for (Socket socket : sockets)
+		{
+			if (socket != null)
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (IOException e)
+				{
+					// closing anyway
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,776 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+/* DomainNode is one process of a simulation spread over several processes.
+ * The space is cut into nodes vertical strips of equal width, and node r owns
+ * the bodies in strip r. Every timestep the nodes talk to each other in three
+ * rounds over DomainLinks:
+ *
+ * 1. Forces. Every node sends the position and mass of its bodies to the
+ *    nodes next to it. Nodes further away only get a summary: the total mass
+ *    and center of mass of its bodies in each square cell of summaryCell
+ *    units. With a summaryCell of 0 every node gets every body, and the
+ *    forces are the same as in a single Space, to the last bit.
+ * 2. Collisions. After moving its bodies, every node tells the others how
+ *    far its bodies went, and sends them the whole state of its bodies that
+ *    passed within halo of theirs; for most bodies that is nobody, and for the
+ *    rest the node on the other side of the nearest edge. Each
+ *    node then checks the collisions of its own bodies and these halo bodies
+ *    in a Space of their own, in the same order as one Space would, and keeps
+ *    the outcome for its own bodies. A collision is counted by the owner of
+ *    the body with the lower id.
+ * 3. Migration. Bodies that have left their node's strip are sent to the node
+ *    whose strip they are in now.
+ *
+ * With every body in the force exchange, the bodies move exactly as in a
+ * single Space as long as no chain of touching bodies reaches further than
+ * the halo. Every node has to be given the same bodies to start with, in the
+ * same order; a body's index there is its id. */
+public class DomainNode implements AutoCloseable
+{
+	public static final double DEFAULT_HALO = 100;
+	public static final double DEFAULT_SUMMARY_CELL = 100;
+
+	private final int rank;
+	private final int nodes;
+	private final int totalBodies;
+	private final double halo;
+	private final double summaryCell;
+	private final double stripWidth;
+	private final DomainLinks links;
+	private double g = Space.DEFAULT_G;
+	private double timestep = Space.DEFAULT_TIMESTEP;
+
+	// the bodies this node owns, in no particular order
+	private BodyStore owned;
+	private int[] ids;
+	private int[] wallFlags; // Body.getWallCollisionFlags() of each body
+
+	private PairSet contacts = new PairSet(); // by id, the collisions of the last timestep
+	private PairSet nextContacts = new PairSet();
+	private long collisions; // counted by this node
+	private long step;
+
+	// the bodies that exert forces in this timestep, by id
+	private final double[] forceX;
+	private final double[] forceY;
+	private final double[] forceMass;
+	private final long[] forceStamp;
+	private final int[] localIndex; // index of a body in the collision Space
+
+	// the Space collisions are checked in, with room for more bodies than it
+	// holds, and the id and the slot it comes from of each of its bodies
+	private Space collisionSpace;
+	private long[] localOrder = new long[0];
+	private int[] localIds = new int[0];
+	private int[] slots = new int[0];
+	private int numLocal;
+
+	/* Creates node rank of nodes and connects it to the others, which listen on
+	 * host from basePort on. It keeps the bodies of start that are in its
+	 * strip. */
+	public DomainNode(int rank, int nodes, BodyStore start, String host, int basePort, double halo, double summaryCell)
+			throws IOException
+	{
+		this(rank, start, null, host, consecutivePorts(basePort, nodes), halo, summaryCell);
+	}
+
+	/* Creates node rank of ports.length, where node r listens on ports[r] of
+	 * host. server, if not null, is already listening on ports[rank] and is
+	 * used instead of opening one, so that the ports can be picked by the
+	 * system by binding to port 0 first. */
+	public DomainNode(int rank, BodyStore start, ServerSocket server, String host, int[] ports, double halo,
+			double summaryCell) throws IOException
+	{
+		int nodes = ports.length;
+		if (nodes < 1 || rank < 0 || rank >= nodes)
+		{
+			throw new IllegalArgumentException("rank must be between 0 and " + (nodes - 1) + ", was " + rank);
+		}
+		this.rank = rank;
+		this.nodes = nodes;
+		this.totalBodies = start.getSize();
+		this.halo = halo;
+		this.summaryCell = summaryCell;
+		this.stripWidth = Space.BORDER_WIDTH / (double) nodes;
+		if (halo < 0 || (nodes > 1 && halo >= stripWidth))
+		{
+			throw new IllegalArgumentException("halo must be between 0 and the strip width " + stripWidth + ", was " + halo);
+		}
+		this.forceX = new double[totalBodies];
+		this.forceY = new double[totalBodies];
+		this.forceMass = new double[totalBodies];
+		this.forceStamp = new long[totalBodies];
+		this.localIndex = new int[totalBodies];
+
+		int count = 0;
+		for (int i = 0; i < totalBodies; i++)
+		{
+			if (domainOf(start.x[i]) == rank)
+			{
+				count++;
+			}
+		}
+		owned = new BodyStore(count);
+		ids = new int[count];
+		wallFlags = new int[count];
+		count = 0;
+		for (int i = 0; i < totalBodies; i++)
+		{
+			if (domainOf(start.x[i]) == rank)
+			{
+				owned.copy(start, i, count);
+				ids[count++] = i;
+			}
+		}
+
+		this.links = new DomainLinks(rank, server, host, ports);
+	}
+
+	/* consecutivePorts() returns the ports of nodes nodes listening from
+	 * basePort on. */
+	private static int[] consecutivePorts(int basePort, int nodes)
+	{
+		int[] ports = new int[Math.max(nodes, 0)];
+		for (int r = 0; r < ports.length; r++)
+		{
+			ports[r] = basePort + r;
+		}
+		return ports;
+	}
+
+	public int getRank()
+	{
+		return rank;
+	}
+
+	/* getNumOwned() returns how many bodies this node owns right now. */
+	public int getNumOwned()
+	{
+		return owned.getSize();
+	}
+
+	public long getStep()
+	{
+		return step;
+	}
+
+	/* setG() sets the gravitational constant. Every node has to be given the
+	 * same one before the first step. */
+	public void setG(double g)
+	{
+		this.g = g;
+	}
+
+	public double getG()
+	{
+		return g;
+	}
+
+	/* setTimestep() sets how far in time every step moves the bodies. Every node
+	 * has to be given the same one before the first step. */
+	public void setTimestep(double timestep)
+	{
+		if (!(timestep > 0))
+		{
+			throw new IllegalArgumentException("timestep must be positive, was " + timestep);
+		}
+		this.timestep = timestep;
+		if (collisionSpace != null)
+		{
+			collisionSpace.setTimestep(timestep);
+		}
+	}
+
+	public double getTimestep()
+	{
+		return timestep;
+	}
+
+	/* step() runs one timestep. Every node has to call it at the same time. */
+	public void step() throws IOException
+	{
+		calculateForces(links.exchange(forceMessages()));
+
+		// the same updates as Space.updateVelocitiesByForce() and moving the bodies
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			owned.oldVX[a] = owned.vx[a];
+			owned.oldVY[a] = owned.vy[a];
+			owned.vx[a] += owned.fx[a] / owned.mass[a] * timestep;
+			owned.vy[a] += owned.fy[a] / owned.mass[a] * timestep;
+			owned.oldX[a] = owned.x[a];
+			owned.oldY[a] = owned.y[a];
+			owned.oldVX[a] = owned.vx[a];
+			owned.oldVY[a] = owned.vy[a];
+			owned.x[a] += owned.vx[a] * timestep;
+			owned.y[a] += owned.vy[a] * timestep;
+		}
+
+		checkCollisions(links.exchange(haloMessages(links.exchange(extentMessages()))));
+		migrate(links.exchange(migrationMessages()));
+		step++;
+	}
+
+	/* forceMessages() returns what every other node needs to work out the
+	 * forces of this timestep: the position and mass of each body for the nodes
+	 * next to this one, or every node when summaryCell is 0, and the mass in
+	 * each cell for the rest. */
+	private byte[][] forceMessages() throws IOException
+	{
+		byte[][] messages = new byte[nodes][];
+		byte[] bodies = null;
+		byte[] cells = null;
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer == rank)
+			{
+				continue;
+			}
+			if (isNear(peer))
+			{
+				if (bodies == null)
+				{
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + owned.getSize() * 28);
+					DataOutputStream out = new DataOutputStream(bytes);
+					out.writeInt(owned.getSize());
+					for (int a = 0; a < owned.getSize(); a++)
+					{
+						out.writeInt(ids[a]);
+						out.writeDouble(owned.x[a]);
+						out.writeDouble(owned.y[a]);
+						out.writeDouble(owned.mass[a]);
+					}
+					bodies = bytes.toByteArray();
+				}
+				messages[peer] = bodies;
+			}
+			else
+			{
+				if (cells == null)
+				{
+					cells = summaryMessage();
+				}
+				messages[peer] = cells;
+			}
+		}
+		return messages;
+	}
+
+	/* summaryMessage() returns the total mass and center of mass of the bodies
+	 * of this node in each cell that has any. */
+	private byte[] summaryMessage() throws IOException
+	{
+		int cols = (int) Math.ceil(Space.BORDER_WIDTH / summaryCell);
+		int rows = (int) Math.ceil(Space.BORDER_HEIGHT / summaryCell);
+		double[] mass = new double[cols * rows];
+		double[] sumX = new double[cols * rows];
+		double[] sumY = new double[cols * rows];
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			int col = Math.min(cols - 1, Math.max(0, (int) (owned.x[a] / summaryCell)));
+			int row = Math.min(rows - 1, Math.max(0, (int) (owned.y[a] / summaryCell)));
+			int c = row * cols + col;
+			mass[c] += owned.mass[a];
+			sumX[c] += owned.mass[a] * owned.x[a];
+			sumY[c] += owned.mass[a] * owned.y[a];
+		}
+		int used = 0;
+		for (double m : mass)
+		{
+			if (m > 0)
+			{
+				used++;
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + used * 24);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(used);
+		for (int c = 0; c < mass.length; c++)
+		{
+			if (mass[c] > 0)
+			{
+				out.writeDouble(mass[c]);
+				out.writeDouble(sumX[c] / mass[c]);
+				out.writeDouble(sumY[c] / mass[c]);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/* calculateForces() sets the force on every body of this node from the
+	 * bodies and cells the other nodes sent. The bodies are visited in order of
+	 * id, and each pair is worked out the way Space.calculateForces() does it,
+	 * so the sums come out the same. */
+	private void calculateForces(byte[][] incoming) throws IOException
+	{
+		long stamp = step + 1;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			addForceBody(ids[a], owned.x[a], owned.y[a], owned.mass[a], stamp);
+		}
+		int numCells = 0;
+		double[] cells = new double[0]; // mass, x, y of each cell
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer == rank)
+			{
+				continue;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(incoming[peer]));
+			int count = in.readInt();
+			if (isNear(peer))
+			{
+				for (int k = 0; k < count; k++)
+				{
+					addForceBody(in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), stamp);
+				}
+			}
+			else
+			{
+				cells = Arrays.copyOf(cells, 3 * (numCells + count));
+				for (int k = 0; k < 3 * count; k++)
+				{
+					cells[3 * numCells + k] = in.readDouble();
+				}
+				numCells += count;
+			}
+		}
+		int numBodies = 0;
+		int[] order = new int[totalBodies];
+		for (int id = 0; id < totalBodies; id++)
+		{
+			if (forceStamp[id] == stamp)
+			{
+				order[numBodies++] = id;
+			}
+		}
+
+		double[] x = forceX, y = forceY, mass = forceMass;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			int i = ids[a];
+			double fx = 0;
+			double fy = 0;
+			for (int k = 0; k < numBodies; k++)
+			{
+				int j = order[k];
+				if (j < i)
+				{
+					// Space works this pair out from body j's side
+					double dx = x[i] - x[j];
+					double dy = y[i] - y[j];
+					double distSq = dx * dx + dy * dy;
+					double distance = Math.sqrt(distSq);
+					double magnitude = (g * mass[j] * mass[i]) / distSq;
+					fx -= magnitude * dx / distance;
+					fy -= magnitude * dy / distance;
+				}
+				else if (j > i)
+				{
+					double dx = x[j] - x[i];
+					double dy = y[j] - y[i];
+					double distSq = dx * dx + dy * dy;
+					double distance = Math.sqrt(distSq);
+					double magnitude = (g * mass[i] * mass[j]) / distSq;
+					fx += magnitude * dx / distance;
+					fy += magnitude * dy / distance;
+				}
+			}
+			for (int c = 0; c < numCells; c++)
+			{
+				double dx = cells[3 * c + 1] - x[i];
+				double dy = cells[3 * c + 2] - y[i];
+				double distSq = dx * dx + dy * dy;
+				double distance = Math.sqrt(distSq);
+				double magnitude = (g * mass[i] * cells[3 * c]) / distSq;
+				fx += magnitude * dx / distance;
+				fy += magnitude * dy / distance;
+			}
+			owned.fx[a] = fx;
+			owned.fy[a] = fy;
+		}
+	}
+
+	private void addForceBody(int id, double x, double y, double mass, long stamp)
+	{
+		forceX[id] = x;
+		forceY[id] = y;
+		forceMass[id] = mass;
+		forceStamp[id] = stamp;
+	}
+
+	/* extentMessages() returns how far left and right the paths of the bodies
+	 * of this node reached in this timestep, for every other node. */
+	private byte[][] extentMessages() throws IOException
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			min = Math.min(min, Math.min(owned.oldX[a], owned.x[a]));
+			max = Math.max(max, Math.max(owned.oldX[a], owned.x[a]));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		byte[][] messages = new byte[nodes][];
+		Arrays.fill(messages, bytes.toByteArray());
+		return messages;
+	}
+
+	/* haloMessages() returns, for every other node, the bodies whose path over
+	 * this timestep came within halo of the paths of its bodies, given by the
+	 * extents it sent. These are nearly always the bodies near the edge it
+	 * shares with this strip, but a fast body can reach further strips. A
+	 * rewind can put a body anywhere on its path. */
+	private byte[][] haloMessages(byte[][] extents) throws IOException
+	{
+		byte[][] messages = new byte[nodes][];
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer == rank)
+			{
+				continue;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(extents[peer]));
+			double min = in.readDouble() - halo;
+			double max = in.readDouble() + halo;
+			messages[peer] = bodiesMessage(a -> Math.max(owned.oldX[a], owned.x[a]) >= min
+					&& Math.min(owned.oldX[a], owned.x[a]) <= max);
+		}
+		return messages;
+	}
+
+	/* checkCollisions() resolves the collisions of this node's bodies in a Space
+	 * holding them and the halo bodies from the nodes next to it, ordered by
+	 * id. The Space is kept from step to step, and only made again when it has
+	 * no room for the bodies. */
+	private void checkCollisions(byte[][] incoming) throws IOException
+	{
+		Bodies haloBodies = readBodies(incoming);
+		int size = owned.getSize() + haloBodies.store.getSize();
+		if (localOrder.length < size)
+		{
+			localOrder = new long[size + size / 4];
+			localIds = new int[localOrder.length];
+			slots = new int[localOrder.length];
+		}
+		long[] order = localOrder; // id, then the slot it comes from
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			order[a] = (long) ids[a] << 32 | a;
+		}
+		for (int h = 0; h < haloBodies.store.getSize(); h++)
+		{
+			order[owned.getSize() + h] = (long) haloBodies.ids[h] << 32 | (owned.getSize() + h);
+		}
+		Arrays.sort(order, 0, size);
+
+		if (collisionSpace == null || collisionSpace.getBodyStore().capacity() < size)
+		{
+			collisionSpace = new Space(new BodyStore(localOrder.length));
+			collisionSpace.setVerbose(false);
+			collisionSpace.setTimestep(timestep);
+		}
+		Space space = collisionSpace;
+		space.setNumBodies(size);
+		BodyStore local = space.getBodyStore();
+		numLocal = size;
+		for (int k = 0; k < size; k++)
+		{
+			int slot = (int) order[k];
+			localIds[k] = (int) (order[k] >>> 32);
+			slots[k] = slot;
+			localIndex[localIds[k]] = k;
+			if (slot < owned.getSize())
+			{
+				local.copy(owned, slot, k);
+			}
+			else
+			{
+				local.copy(haloBodies.store, slot - owned.getSize(), k);
+			}
+		}
+
+		Body[] bodies = space.getBodies();
+		for (int k = 0; k < size; k++)
+		{
+			int slot = slots[k];
+			bodies[k].setWallCollisionFlags(slot < owned.getSize() ? wallFlags[slot] : haloBodies.wallFlags[slot - owned.getSize()]);
+		}
+		// the pairs of the last timestep that are both here now
+		PairSet prev = space.getPrevContacts();
+		for (int p = 0; p < contacts.size(); p++)
+		{
+			int i = contacts.getFirst(p);
+			int j = contacts.getSecond(p);
+			if (isLocal(i) && isLocal(j))
+			{
+				prev.add(localIndex[i], localIndex[j]);
+			}
+		}
+
+		space.checkCollisions();
+
+		PairSet found = space.getPrevContacts();
+		PairSet next = nextContacts;
+		next.clear();
+		for (int p = 0; p < found.size(); p++)
+		{
+			int first = found.getFirst(p);
+			next.add(localIds[first], localIds[found.getSecond(p)]);
+			// the lower id is first, and counts it if it is this node's
+			if (slots[first] < owned.getSize())
+			{
+				collisions++;
+			}
+		}
+		nextContacts = contacts;
+		contacts = next;
+
+		for (int k = 0; k < size; k++)
+		{
+			int slot = slots[k];
+			if (slot < owned.getSize())
+			{
+				owned.copy(local, k, slot);
+				wallFlags[slot] = bodies[k].getWallCollisionFlags();
+			}
+		}
+	}
+
+	/* isLocal() returns whether the body with the given id is in the collision
+	 * Space this step. */
+	private boolean isLocal(int id)
+	{
+		int k = localIndex[id];
+		return k < numLocal && localIds[k] == id;
+	}
+
+	/* migrationMessages() returns the bodies that have moved into the strip of
+	 * each other node. */
+	private byte[][] migrationMessages() throws IOException
+	{
+		byte[][] messages = new byte[nodes][];
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			int target = peer;
+			if (peer != rank)
+			{
+				messages[peer] = bodiesMessage(a -> domainOf(owned.x[a]) == target);
+			}
+		}
+		return messages;
+	}
+
+	/* migrate() drops the bodies that have left this node and adds the ones
+	 * that have arrived. */
+	private void migrate(byte[][] incoming) throws IOException
+	{
+		Bodies arrived = readBodies(incoming);
+		int staying = 0;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			if (domainOf(owned.x[a]) == rank)
+			{
+				staying++;
+			}
+		}
+		if (staying == owned.getSize() && arrived.store.getSize() == 0)
+		{
+			return;
+		}
+		BodyStore store = new BodyStore(staying + arrived.store.getSize());
+		int[] newIds = new int[store.getSize()];
+		int[] newFlags = new int[store.getSize()];
+		int k = 0;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			if (domainOf(owned.x[a]) == rank)
+			{
+				store.copy(owned, a, k);
+				newIds[k] = ids[a];
+				newFlags[k++] = wallFlags[a];
+			}
+		}
+		for (int h = 0; h < arrived.store.getSize(); h++)
+		{
+			store.copy(arrived.store, h, k);
+			newIds[k] = arrived.ids[h];
+			newFlags[k++] = arrived.wallFlags[h];
+		}
+		owned = store;
+		ids = newIds;
+		wallFlags = newFlags;
+	}
+
+	/* gatherCollisions() adds up the collisions every node has counted. Every
+	 * node has to call it; node 0 gets the total and the others their own
+	 * count. */
+	public long gatherCollisions() throws IOException
+	{
+		byte[][] messages = new byte[nodes][];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+		new DataOutputStream(bytes).writeLong(collisions);
+		Arrays.fill(messages, bytes.toByteArray());
+		byte[][] incoming = links.exchange(messages);
+		if (rank != 0)
+		{
+			return collisions;
+		}
+		long total = collisions;
+		for (int peer = 1; peer < nodes; peer++)
+		{
+			total += new DataInputStream(new ByteArrayInputStream(incoming[peer])).readLong();
+		}
+		return total;
+	}
+
+	/* gather() collects every body on node 0, in order of id, as they would be
+	 * in a single Space. Every node has to call it; the others get null. */
+	public BodyStore gather() throws IOException
+	{
+		byte[][] messages = new byte[nodes][];
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer != rank)
+			{
+				messages[peer] = bodiesMessage(a -> rank != 0);
+			}
+		}
+		Bodies others = readBodies(links.exchange(messages));
+		if (rank != 0)
+		{
+			return null;
+		}
+		BodyStore all = new BodyStore(totalBodies);
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			all.copy(owned, a, ids[a]);
+		}
+		for (int h = 0; h < others.store.getSize(); h++)
+		{
+			all.copy(others.store, h, others.ids[h]);
+		}
+		return all;
+	}
+
+	/* Picks bodies of this node by their index in owned. */
+	private interface BodyFilter
+	{
+		boolean accept(int a);
+	}
+
+	/* bodiesMessage() writes the whole state of the bodies of this node that
+	 * filter accepts. */
+	private byte[] bodiesMessage(BodyFilter filter) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int count = 0;
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			if (filter.accept(a))
+			{
+				count++;
+			}
+		}
+		out.writeInt(count);
+		for (int a = 0; a < owned.getSize(); a++)
+		{
+			if (filter.accept(a))
+			{
+				out.writeInt(ids[a]);
+				out.writeInt(wallFlags[a]);
+				for (double[] field : fields(owned))
+				{
+					out.writeDouble(field[a]);
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/* Bodies is the bodies read from the messages of an exchange. */
+	private static class Bodies
+	{
+		BodyStore store;
+		int[] ids;
+		int[] wallFlags;
+	}
+
+	/* readBodies() reads the bodies of every bodiesMessage() in incoming into
+	 * one store. */
+	private Bodies readBodies(byte[][] incoming) throws IOException
+	{
+		int total = 0;
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer != rank)
+			{
+				total += new DataInputStream(new ByteArrayInputStream(incoming[peer])).readInt();
+			}
+		}
+		Bodies bodies = new Bodies();
+		bodies.store = new BodyStore(total);
+		bodies.ids = new int[total];
+		bodies.wallFlags = new int[total];
+		double[][] fields = fields(bodies.store);
+		int k = 0;
+		for (int peer = 0; peer < nodes; peer++)
+		{
+			if (peer == rank)
+			{
+				continue;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(incoming[peer]));
+			int count = in.readInt();
+			for (int m = 0; m < count; m++, k++)
+			{
+				bodies.ids[k] = in.readInt();
+				bodies.wallFlags[k] = in.readInt();
+				for (double[] field : fields)
+				{
+					field[k] = in.readDouble();
+				}
+			}
+		}
+		return bodies;
+	}
+
+	/* fields() returns every array of store that is sent with a body. */
+	private static double[][] fields(BodyStore store)
+	{
+		return new double[][] { store.x, store.y, store.vx, store.vy, store.mass, store.radius, store.fx, store.fy,
+				store.oldX, store.oldY, store.oldVX, store.oldVY };
+	}
+
+	/* isNear() returns whether peer gets every body in the force exchange,
+	 * rather than a summary. */
+	private boolean isNear(int peer)
+	{
+		return summaryCell == 0 || Math.abs(peer - rank) <= 1;
+	}
+
+	/* domainOf() returns the node whose strip holds x. Bodies outside of the
+	 * space belong to the strip at that edge. */
+	private int domainOf(double x)
+	{
+		return Math.min(nodes - 1, Math.max(0, (int) Math.floor(x / stripWidth)));
+	}
+
+	@Override
+	public void close()
+	{
+		links.close();
+	}
+}
@@ -0,0 +1,128 @@
+package model;
+
+/* Fft is the fast Fourier transform of a square grid of complex numbers, size
+ * by size with size a power of two, kept row by row in one array of real parts
+ * and one of imaginary parts. It transforms the rows and then the columns with
+ * the iterative radix-2 algorithm, in place. With a WorkerPool the rows, and
+ * then the columns, are shared out among the workers. */
+class Fft
+{
+	private final int size;
+	private final double[] cos; // cos and sin of 2 pi k / size, for k < size / 2
+	private final double[] sin;
+	private final int[] reverse; // the bits of each index in reverse order
+
+	Fft(int size)
+	{
+		if (size < 1 || Integer.bitCount(size) != 1)
+		{
+			throw new IllegalArgumentException("size must be a power of two, was " + size);
+		}
+		this.size = size;
+		cos = new double[size / 2];
+		sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++)
+		{
+			cos[k] = Math.cos(2 * Math.PI * k / size);
+			sin[k] = Math.sin(2 * Math.PI * k / size);
+		}
+		reverse = new int[size];
+		int bits = Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < size; i++)
+		{
+			reverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	int getSize()
+	{
+		return size;
+	}
+
+	/* transform() replaces re and im by their transform, or by their inverse
+	 * transform, scaled by 1 / size^2 so it undoes the forward one. */
+	void transform(double[] re, double[] im, boolean inverse, WorkerPool pool)
+	{
+		run(pool, (start, end) ->
+		{
+			for (int row = start; row < end; row++)
+			{
+				transform(re, im, row * size, inverse);
+			}
+		});
+		run(pool, (start, end) ->
+		{
+			// a column at a time is copied out, so the butterflies work on
+			// neighbouring elements
+			double[] columnRe = new double[size];
+			double[] columnIm = new double[size];
+			for (int col = start; col < end; col++)
+			{
+				for (int row = 0; row < size; row++)
+				{
+					columnRe[row] = re[row * size + col];
+					columnIm[row] = im[row * size + col];
+				}
+				transform(columnRe, columnIm, 0, inverse);
+				double scale = inverse ? 1.0 / ((double) size * size) : 1;
+				for (int row = 0; row < size; row++)
+				{
+					re[row * size + col] = columnRe[row] * scale;
+					im[row * size + col] = columnIm[row] * scale;
+				}
+			}
+		});
+	}
+
+	/* transform() transforms the size elements from offset on. */
+	private void transform(double[] re, double[] im, int offset, boolean inverse)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			int j = reverse[i];
+			if (j > i)
+			{
+				double t = re[offset + i];
+				re[offset + i] = re[offset + j];
+				re[offset + j] = t;
+				t = im[offset + i];
+				im[offset + i] = im[offset + j];
+				im[offset + j] = t;
+			}
+		}
+		double sign = inverse ? 1 : -1;
+		for (int length = 2; length <= size; length *= 2)
+		{
+			int half = length / 2;
+			int step = size / length;
+			for (int start = offset; start < offset + size; start += length)
+			{
+				for (int k = 0; k < half; k++)
+				{
+					double wRe = cos[k * step];
+					double wIm = sign * sin[k * step];
+					int a = start + k;
+					int b = a + half;
+					double tRe = re[b] * wRe - im[b] * wIm;
+					double tIm = re[b] * wIm + im[b] * wRe;
+					re[b] = re[a] - tRe;
+					im[b] = im[a] - tIm;
+					re[a] += tRe;
+					im[a] += tIm;
+				}
+			}
+		}
+	}
+
+	private void run(WorkerPool pool, WorkerPool.RangeTask task)
+	{
+		if (pool == null)
+		{
+			task.accept(0, size);
+		}
+		else
+		{
+			pool.parallelRange(size, task);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package model;
+
+import java.util.Arrays;
+
+/* FloatForceCalculator computes the all-pairs gravitational forces with each
+ * pair worked out in float instead of double: the distance between the two
+ * bodies, the square root and the size of the force. The forces on each body
+ * are still added up in double, so the rounding errors of the pairs do not pile
+ * up over thousands of terms. The positions and masses are copied into float
+ * arrays at the start of every call, which halves the memory the inner loop
+ * reads.
+ *
+ * A pair is accurate to about 1e-7 of its size, against 1e-16 in double, which
+ * is plenty for bodies far apart but shows in close encounters. Space.getEnergy()
+ * shows how much it matters for a scenario: controller.PrecisionReport runs the
+ * standard scenarios both ways and compares how far the energy drifts. With a
+ * WorkerPool the rows are dealt out to the workers as in
+ * ParallelForceCalculator. */
+public class FloatForceCalculator implements ForceCalculator
+{
+	private float[] x = new float[0];
+	private float[] y = new float[0];
+	private float[] gm = new float[0]; // g * mass
+	private float[] mass = new float[0];
+	private double[][] accX; // per-worker x force accumulators
+	private double[][] accY; // per-worker y force accumulators
+
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool)
+	{
+		int n = store.getSize();
+		copy(store, g);
+		if (pool == null)
+		{
+			Arrays.fill(store.fx, 0, n, 0);
+			Arrays.fill(store.fy, 0, n, 0);
+			rows(n, 0, 1, store.fx, store.fy);
+			return;
+		}
+
+		int workers = pool.getNumThreads();
+		if (accX == null || accX.length != workers || accX[0].length != n)
+		{
+			accX = new double[workers][n];
+			accY = new double[workers][n];
+		}
+		pool.parallelFor(workers, t -> rows(n, t, workers, accX[t], accY[t]));
+
+		// merge the accumulators, clearing them for the next step as we go
+		pool.parallelRange(n, (start, end) ->
+		{
+			for (int i = start; i < end; i++)
+			{
+				double sumX = 0;
+				double sumY = 0;
+				for (int t = 0; t < workers; t++)
+				{
+					sumX += accX[t][i];
+					sumY += accY[t][i];
+					accX[t][i] = 0;
+					accY[t][i] = 0;
+				}
+				store.fx[i] = sumX;
+				store.fy[i] = sumY;
+			}
+		});
+	}
+
+	/* calculateForces() for block timesteps sums the force on each active body
+	 * against every other body. */
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool, int[] active, int nActive)
+	{
+		copy(store, g);
+		if (pool == null)
+		{
+			activeRows(store, active, 0, nActive);
+		}
+		else
+		{
+			pool.parallelRange(nActive, (start, end) -> activeRows(store, active, start, end));
+		}
+	}
+
+	@Override
+	public boolean calculatesOnlyActive()
+	{
+		return true;
+	}
+
+	/* copy() fills the float arrays from store. */
+	private void copy(BodyStore store, double g)
+	{
+		int n = store.getSize();
+		if (x.length != n)
+		{
+			x = new float[n];
+			y = new float[n];
+			gm = new float[n];
+			mass = new float[n];
+		}
+		for (int i = 0; i < n; i++)
+		{
+			x[i] = (float) store.x[i];
+			y[i] = (float) store.y[i];
+			gm[i] = (float) (g * store.mass[i]);
+			mass[i] = (float) store.mass[i];
+		}
+	}
+
+	/* rows() adds the forces between body i and every body after it into fx
+	 * and fy, for i = first, first + stride, ... */
+	private void rows(int n, int first, int stride, double[] fx, double[] fy)
+	{
+		for (int i = first; i < n - 1; i += stride)
+		{
+			float xi = x[i];
+			float yi = y[i];
+			float gmi = gm[i];
+			double fxi = 0;
+			double fyi = 0;
+			for (int j = i + 1; j < n; j++)
+			{
+				float dx = x[j] - xi;
+				float dy = y[j] - yi;
+				float distSq = dx * dx + dy * dy;
+				float scale = gmi * mass[j] / (distSq * (float) Math.sqrt(distSq));
+				float forceX = scale * dx;
+				float forceY = scale * dy;
+				fxi += forceX;
+				fyi += forceY;
+				fx[j] -= forceX; // j is opposite direction
+				fy[j] -= forceY;
+			}
+			fx[i] += fxi;
+			fy[i] += fyi;
+		}
+	}
+
+	/* activeRows() sets the force on bodies active[start..end). */
+	private void activeRows(BodyStore store, int[] active, int start, int end)
+	{
+		int n = store.getSize();
+		for (int k = start; k < end; k++)
+		{
+			int i = active[k];
+			float xi = x[i];
+			float yi = y[i];
+			float gmi = gm[i];
+			double fxi = 0;
+			double fyi = 0;
+			for (int j = 0; j < n; j++)
+			{
+				if (j == i)
+				{
+					continue;
+				}
+				float dx = x[j] - xi;
+				float dy = y[j] - yi;
+				float distSq = dx * dx + dy * dy;
+				float scale = gmi * mass[j] / (distSq * (float) Math.sqrt(distSq));
+				fxi += scale * dx;
+				fyi += scale * dy;
+			}
+			store.fx[i] = fxi;
+			store.fy[i] = fyi;
+		}
+	}
+}
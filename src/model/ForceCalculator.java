@@ -0,0 +1,31 @@
+package model;
+
+/* ForceCalculator is a method of calculating the net gravitational force on
+ * every body in Space. Implementations store the net force on body i in
+ * store.fx[i] and store.fy[i], overwriting whatever was there from the last
+ * timestep. */
+public interface ForceCalculator
+{
+	/* calculateForces() uses g as the gravitational constant. pool holds the
+	 * worker threads to use, and is null when the work should be done on the
+	 * calling thread. */
+	void calculateForces(BodyStore store, double g, WorkerPool pool);
+
+	/* calculateForces() with a list of bodies is used for block timesteps, and
+	 * only has to store the forces on the bodies active[0..nActive); the forces
+	 * on the others may be left as they are. By default every force is
+	 * calculated. */
+	default void calculateForces(BodyStore store, double g, WorkerPool pool, int[] active, int nActive)
+	{
+		calculateForces(store, g, pool);
+	}
+
+	/* calculatesOnlyActive() returns whether calculateForces() with a list of
+	 * bodies costs less the fewer bodies are on it. Space refuses block
+	 * timesteps with a calculator that does not, as they would compute every
+	 * force on every substep. */
+	default boolean calculatesOnlyActive()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,215 @@
+package model;
+
+import java.util.Arrays;
+
+/* NeighbourList is a broad phase of collision detection that lasts for many
+ * timesteps. When it is built, every body gets a reference point in the middle
+ * of its last path, and the list keeps every pair of bodies whose reference
+ * points are closer than the sum of their radii plus skin. As long as no body
+ * has gone further than skin / 2 from its reference point, two bodies that
+ * touch must be in the list, and it does not have to be built again. Bodies
+ * that move a few units per timestep get many timesteps out of a list with a
+ * skin of a few body radii; every timestep update() only checks how far each
+ * body has gone.
+ *
+ * A body that moved further than skin in the timestep before a build, like one
+ * thrown out of a close encounter, is loose: it is left out of the list and
+ * checked against every other body each timestep instead, until the next
+ * build. When more than 1 in LOOSE_FRACTION bodies would be loose, the list is
+ * not worth keeping; update() says so, and the caller has to fall back on a
+ * CollisionGrid for a few timesteps. */
+public class NeighbourList
+{
+	private static final int LOOSE_FRACTION = 16;
+	private static final int RETRY_STEPS = 8; // timesteps to wait after a list was not worth building
+
+	private final double skin;
+	private final CollisionGrid grid;
+	private double[] refX = new double[0];
+	private double[] refY = new double[0];
+	private boolean built;
+	private int retryIn; // timesteps before trying to build again
+	private int[] start = new int[1]; // the neighbours of body i are neighbours[start[i]..start[i + 1])
+	private int[] neighbours = new int[0];
+	private boolean[] loose = new boolean[0];
+	private int[] looseBodies = new int[0]; // the loose bodies, in increasing order
+	private int numLoose;
+	private int[] candidates = new int[0]; // scratch space for building
+	private long builds;
+
+	/* Creates a list for a space of the given width and height, keeping the
+	 * pairs within skin of touching. */
+	public NeighbourList(double width, double height, double skin)
+	{
+		if (!(skin > 0))
+		{
+			throw new IllegalArgumentException("skin must be positive, was " + skin);
+		}
+		this.skin = skin;
+		this.grid = new CollisionGrid(width, height);
+	}
+
+	public double getSkin()
+	{
+		return skin;
+	}
+
+	/* getBuilds() returns how many times the list has been built. */
+	public long getBuilds()
+	{
+		return builds;
+	}
+
+	/* getNumLoose() returns how many bodies are checked against every other
+	 * body, rather than through the list. */
+	public int getNumLoose()
+	{
+		return built ? numLoose : 0;
+	}
+
+	/* size() returns how many pairs of neighbours the list holds. */
+	public int size()
+	{
+		return built ? start[refX.length] : 0;
+	}
+
+	/* update() builds the list again if any body that is not loose has gone too
+	 * far from its reference point, counting both ends of its last path, and
+	 * returns whether the list can give every pair of bodies that could have
+	 * touched anywhere on those paths. It has to be called once every timestep,
+	 * after the bodies have moved. */
+	public boolean update(BodyStore store)
+	{
+		if (!built || refX.length != store.getSize() || hasMovedTooFar(store))
+		{
+			if (retryIn > 0)
+			{
+				retryIn--;
+				return false;
+			}
+			build(store);
+			if (!built)
+			{
+				retryIn = RETRY_STEPS;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* hasMovedTooFar() returns whether either end of the last path of any body
+	 * in the list is more than skin / 2 from its reference point. */
+	private boolean hasMovedTooFar(BodyStore store)
+	{
+		double limit = skin * skin / 4;
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			if (!loose[i] && (distanceSq(store.x[i], store.y[i], i) > limit
+					|| distanceSq(store.oldX[i], store.oldY[i], i) > limit))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private double distanceSq(double x, double y, int i)
+	{
+		double dx = x - refX[i];
+		double dy = y - refY[i];
+		return dx * dx + dy * dy;
+	}
+
+	/* build() puts the reference point of every body in the middle of its last
+	 * path and finds the pairs within skin of touching, using the grid. Bodies
+	 * whose path was longer than skin are loose. */
+	private void build(BodyStore store)
+	{
+		int n = store.getSize();
+		builds++;
+		if (refX.length != n)
+		{
+			refX = new double[n];
+			refY = new double[n];
+			start = new int[n + 1];
+			loose = new boolean[n];
+			looseBodies = new int[n];
+			candidates = new int[n];
+		}
+		numLoose = 0;
+		for (int i = 0; i < n; i++)
+		{
+			refX[i] = (store.oldX[i] + store.x[i]) / 2;
+			refY[i] = (store.oldY[i] + store.y[i]) / 2;
+			loose[i] = distanceSq(store.x[i], store.y[i], i) > skin * skin / 4;
+			if (loose[i])
+			{
+				looseBodies[numLoose++] = i;
+			}
+		}
+		built = numLoose * LOOSE_FRACTION <= n;
+		if (!built)
+		{
+			return;
+		}
+
+		// a reference point is on the path of its body, so bodies within skin of
+		// touching have swept boxes, grown by skin / 2, that share a cell
+		grid.build(store, true, skin / 2);
+		int count = 0;
+		for (int i = 0; i < n; i++)
+		{
+			start[i] = count;
+			if (loose[i])
+			{
+				continue;
+			}
+			int numCandidates = grid.findCandidates(i, candidates);
+			for (int k = 0; k < numCandidates; k++)
+			{
+				int j = candidates[k];
+				double reach = store.radius[i] + store.radius[j] + skin;
+				if (!loose[j] && distanceSq(refX[j], refY[j], i) < reach * reach)
+				{
+					if (count == neighbours.length)
+					{
+						neighbours = Arrays.copyOf(neighbours, Math.max(16, 2 * count));
+					}
+					neighbours[count++] = j;
+				}
+			}
+		}
+		start[n] = count;
+	}
+
+	/* findCandidates() stores the index of every neighbour of body i after it,
+	 * and of every loose body after it, in candidates, in increasing order, and
+	 * returns how many there are. If body i is loose, that is every body after
+	 * it. As with CollisionGrid.findCandidates(), every body that could have
+	 * touched body i in the last timestep is among them; most of them do not touch
+	 * it, so the caller has to check which ones do. update() has to
+	 * have returned true for this timestep. */
+	public int findCandidates(int i, int[] candidates)
+	{
+		int count = 0;
+		if (loose[i])
+		{
+			for (int j = i + 1; j < refX.length; j++)
+			{
+				candidates[count++] = j;
+			}
+			return count;
+		}
+
+		// merge the neighbours with the loose bodies after i, both in order
+		int k = start[i];
+		int end = start[i + 1];
+		int l = -Arrays.binarySearch(looseBodies, 0, numLoose, i) - 1; // i is not loose
+		while (k < end || l < numLoose)
+		{
+			candidates[count++] = l == numLoose || (k < end && neighbours[k] < looseBodies[l]) ? neighbours[k++]
+					: looseBodies[l++];
+		}
+		return count;
+	}
+}
@@ -0,0 +1,133 @@
+package model;
+
+import java.util.Arrays;
+
+/* PairSet is a set of pairs of body indices (i, j) with i < j, each stored as
+ * the long i << 32 | j in an open addressing hash table with linear probing.
+ * Adding, looking up and clearing never allocate once the table is big enough:
+ * clear() only empties the slots that were used, so a set can be cleared and
+ * refilled every timestep at the cost of the pairs in it.
+ *
+ * It is not thread safe for writing, but any number of threads can call
+ * contains() while nobody is adding. */
+public class PairSet
+{
+	private static final long EMPTY = -1; // pair ids are never negative
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] table = newTable(MIN_CAPACITY);
+	private int mask = MIN_CAPACITY - 1;
+	private int[] used = new int[MIN_CAPACITY / 2]; // slots holding a pair, in the order they were added
+	private int size;
+
+	/* add() adds the pair of bodies i and j, in either order. Returns false if
+	 * it was already there. */
+	public boolean add(int i, int j)
+	{
+		long key = key(i, j);
+		int slot = hash(key) & mask;
+		while (table[slot] != EMPTY)
+		{
+			if (table[slot] == key)
+			{
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = key;
+		if (size == used.length)
+		{
+			used = Arrays.copyOf(used, size * 2);
+		}
+		used[size++] = slot;
+		if (size * 2 > table.length)
+		{
+			grow();
+		}
+		return true;
+	}
+
+	/* contains() returns whether the pair of bodies i and j, in either order, is
+	 * in the set. */
+	public boolean contains(int i, int j)
+	{
+		long key = key(i, j);
+		int slot = hash(key) & mask;
+		long k;
+		while ((k = table[slot]) != EMPTY)
+		{
+			if (k == key)
+			{
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/* clear() removes every pair, keeping the table for the next pairs. */
+	public void clear()
+	{
+		for (int k = 0; k < size; k++)
+		{
+			table[used[k]] = EMPTY;
+		}
+		size = 0;
+	}
+
+	/* getFirst() and getSecond() return the smaller and larger body index of
+	 * the kth pair added since the last clear(). */
+	public int getFirst(int k)
+	{
+		return (int) (table[used[k]] >>> 32);
+	}
+
+	public int getSecond(int k)
+	{
+		return (int) table[used[k]];
+	}
+
+	private static long key(int i, int j)
+	{
+		return i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+	}
+
+	/* hash() spreads the bits of key, so pairs of nearby bodies do not end up
+	 * in neighbouring slots. */
+	private static int hash(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/* grow() doubles the table and adds the pairs back in their old order. */
+	private void grow()
+	{
+		long[] old = table;
+		table = newTable(old.length * 2);
+		mask = table.length - 1;
+		for (int k = 0; k < size; k++)
+		{
+			long key = old[used[k]];
+			int slot = hash(key) & mask;
+			while (table[slot] != EMPTY)
+			{
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = key;
+			used[k] = slot;
+		}
+	}
+
+	private static long[] newTable(int capacity)
+	{
+		long[] table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+}
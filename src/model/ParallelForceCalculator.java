@@ -0,0 +1,85 @@
+package model;
+
+/* ParallelForceCalculator computes the same all-pairs gravitational forces as
+ * Space.calculateForces(), but splits the pair loop across the workers of a
+ * WorkerPool. Every worker adds its forces into its own accumulator arrays, so
+ * no two threads ever write the same slot; the accumulators are summed into the
+ * store at the end. This calculator needs a WorkerPool to run. */
+public class ParallelForceCalculator implements ForceCalculator
+{
+	private double[][] accX; // per-worker x force accumulators
+	private double[][] accY; // per-worker y force accumulators
+
+	/* calculateForces() stores the net gravitational force on every body in the
+	 * store, using g as the gravitational constant. */
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool)
+	{
+		int n = store.getSize();
+		double[] x = store.x, y = store.y, mass = store.mass;
+		int workers = pool.getNumThreads();
+		ensureCapacity(workers, n);
+
+		// rows are dealt out round robin, so every worker gets a similar share of
+		// the triangular pair loop
+		pool.parallelFor(workers, t ->
+		{
+			double[] fx = accX[t];
+			double[] fy = accY[t];
+			for (int i = t; i < n - 1; i += workers)
+			{
+				double xi = x[i];
+				double yi = y[i];
+				double gmi = g * mass[i];
+				double fxi = 0;
+				double fyi = 0;
+				for (int j = i + 1; j < n; j++)
+				{
+					double dx = x[j] - xi;
+					double dy = y[j] - yi;
+					double distSq = dx * dx + dy * dy;
+					double distance = Math.sqrt(distSq);
+
+					// Force = (G * m1 * m2) / (distance^2), split into components
+					double scale = gmi * mass[j] / (distSq * distance);
+					fxi += scale * dx;
+					fyi += scale * dy;
+					fx[j] -= scale * dx; // j is opposite direction
+					fy[j] -= scale * dy;
+				}
+				fx[i] += fxi;
+				fy[i] += fyi;
+			}
+		});
+
+		// merge the accumulators, clearing them for the next step as we go
+		pool.parallelRange(n, (start, end) ->
+		{
+			for (int i = start; i < end; i++)
+			{
+				double sumX = 0;
+				double sumY = 0;
+				for (int t = 0; t < workers; t++)
+				{
+					sumX += accX[t][i];
+					sumY += accY[t][i];
+					accX[t][i] = 0;
+					accY[t][i] = 0;
+				}
+				store.fx[i] = sumX;
+				store.fy[i] = sumY;
+			}
+		});
+	}
+
+	/* ensureCapacity() (re)allocates the accumulators when the number of workers
+	 * or bodies has changed. */
+	private void ensureCapacity(int workers, int n)
+	{
+		if (accX == null || accX.length != workers || accX[0].length != n)
+		{
+			accX = new double[workers][n];
+			accY = new double[workers][n];
+		}
+	}
+}
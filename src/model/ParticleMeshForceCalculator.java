@@ -0,0 +1,474 @@
+package model;
+
+import java.util.Arrays;
+
+/* ParticleMeshForceCalculator approximates the gravitational forces on a mesh
+ * of meshSize by meshSize points covering the space, with a margin of an
+ * eighth of it on every side. Every timestep:
+ *
+ * 1. The mass of every body is shared out among the four mesh points around
+ *    it, in proportion to how close it is to each (cloud in cell).
+ * 2. The force every point of the mesh feels from every other one is a
+ *    convolution of the masses with the force law, which is worked out with
+ *    the Fft as a product. The mesh is padded to twice its size with empty
+ *    points, so the mass at one edge does not pull on the other edge as if the
+ *    space wrapped around.
+ * 3. The force on every body is read back from the four points around it, with
+ *    the same weights.
+ *
+ * A timestep costs O(n + M log M) for M mesh points, against O(n log n) for
+ * Barnes-Hut, so the mesh wins for very many bodies. It cannot see anything
+ * smaller than a mesh cell, though: bodies closer than a few cells pull on each
+ * other too weakly. With shortRange the force is split in two as in P3M
+ * (particle-particle particle-mesh): the mesh only carries the part of the
+ * force that fades in over a few cells, and the rest is added up directly over
+ * the pairs of bodies within SHORT_RANGE_CELLS cells of each other, which
+ * makes the force between close bodies exact.
+ *
+ * Bodies outside of the mesh are not put on it. Their forces with every other
+ * body are added up directly, which is fine for the few bodies that get thrown
+ * out of the space but slow if there are many. The force law here is the
+ * inverse square of Space, not the 1 / r of Poisson's equation in two
+ * dimensions, so the mesh is convolved with that law rather than solving
+ * Poisson's equation. */
+public class ParticleMeshForceCalculator implements ForceCalculator
+{
+	public static final int DEFAULT_MESH_SIZE = 256;
+
+	private static final double MARGIN = 0.125; // of the width of the space, on every side
+	private static final double SPLIT_CELLS = 1.25; // the scale, in cells, over which the mesh force fades in
+	private static final double SHORT_RANGE_CELLS = 4.5 * SPLIT_CELLS; // beyond this the mesh force is the whole force
+	private static final int TABLE_SIZE = 4096; // entries in the table of shortRangeFraction()
+
+	private final int meshSize;
+	private final boolean shortRange;
+	private final double originX; // the corner of the mesh
+	private final double originY;
+	private final double cellSize;
+	private final int padded; // the size of the padded mesh
+	private final Fft fft;
+
+	private double kernelG = Double.NaN; // the g the kernel was worked out for
+	private double[] kernelRe; // transform of the force law, x in the real and y in the imaginary parts
+	private double[] kernelIm;
+	private double[] meshRe;
+	private double[] meshIm;
+	private double[][] workerMasses; // one mesh of masses per worker
+
+	// the bodies on the mesh, and the rest
+	private int[] inside = new int[0];
+	private int numInside;
+	private int[] outside = new int[0];
+	private int numOutside;
+
+	// bodies on the mesh, binned into cells of SHORT_RANGE_CELLS mesh cells
+	private int shortCols;
+	private double shortCellSize;
+	private int[] shortStart;
+	private int[] shortBodies = new int[0];
+	private double[] shortTable; // shortRangeFraction() at even steps of the squared distance
+
+	public ParticleMeshForceCalculator()
+	{
+		this(DEFAULT_MESH_SIZE, false);
+	}
+
+	/* Creates a calculator with a mesh of meshSize by meshSize points, a power
+	 * of two, that adds up the force between close bodies directly when
+	 * shortRange is true. */
+	public ParticleMeshForceCalculator(int meshSize, boolean shortRange)
+	{
+		if (meshSize < 2 || Integer.bitCount(meshSize) != 1)
+		{
+			throw new IllegalArgumentException("meshSize must be a power of two of at least 2, was " + meshSize);
+		}
+		this.meshSize = meshSize;
+		this.shortRange = shortRange;
+		double side = Math.max(Space.BORDER_WIDTH, Space.BORDER_HEIGHT) * (1 + 2 * MARGIN);
+		this.originX = (Space.BORDER_WIDTH - side) / 2;
+		this.originY = (Space.BORDER_HEIGHT - side) / 2;
+		this.cellSize = side / meshSize;
+		this.padded = 2 * meshSize;
+		this.fft = new Fft(padded);
+		if (shortRange)
+		{
+			// looking the fraction up is several times faster than erfc() and exp()
+			shortTable = new double[TABLE_SIZE + 2];
+			double cutoff = SHORT_RANGE_CELLS * cellSize;
+			for (int k = 0; k < shortTable.length; k++)
+			{
+				shortTable[k] = shortRangeFraction(cutoff * Math.sqrt((double) k / TABLE_SIZE));
+			}
+		}
+	}
+
+	public int getMeshSize()
+	{
+		return meshSize;
+	}
+
+	public boolean isShortRange()
+	{
+		return shortRange;
+	}
+
+	/* getCellSize() returns the distance between neighbouring mesh points. */
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool)
+	{
+		int n = store.getSize();
+		if (g != kernelG)
+		{
+			makeKernel(g, pool);
+		}
+		sortBodies(store);
+
+		deposit(store, pool);
+		fft.transform(meshRe, meshIm, false, pool);
+		run(pool, padded, (start, end) ->
+		{
+			for (int k = start * padded; k < end * padded; k++)
+			{
+				double re = meshRe[k] * kernelRe[k] - meshIm[k] * kernelIm[k];
+				double im = meshRe[k] * kernelIm[k] + meshIm[k] * kernelRe[k];
+				meshRe[k] = re;
+				meshIm[k] = im;
+			}
+		});
+		fft.transform(meshRe, meshIm, true, pool);
+
+		Arrays.fill(store.fx, 0, n, 0);
+		Arrays.fill(store.fy, 0, n, 0);
+		run(pool, numInside, (start, end) -> interpolate(store, start, end));
+		if (shortRange)
+		{
+			binShortRange(store);
+			run(pool, numInside, (start, end) -> addShortRange(store, g, start, end));
+		}
+		if (numOutside > 0)
+		{
+			run(pool, numOutside, (start, end) -> addOutsideOnOutside(store, g, start, end));
+			run(pool, numInside, (start, end) -> addOutsideOnInside(store, g, start, end));
+		}
+	}
+
+	/* makeKernel() works out the transform of the force on a unit mass from a
+	 * unit mass at every offset between mesh points. */
+	private void makeKernel(double g, WorkerPool pool)
+	{
+		kernelRe = new double[padded * padded];
+		kernelIm = new double[padded * padded];
+		meshRe = new double[padded * padded];
+		meshIm = new double[padded * padded];
+		for (int row = 0; row < padded; row++)
+		{
+			// offsets past meshSize wrap around to negative ones
+			double dy = (row < meshSize ? row : row - padded) * cellSize;
+			for (int col = 0; col < padded; col++)
+			{
+				double dx = (col < meshSize ? col : col - padded) * cellSize;
+				double distance = Math.hypot(dx, dy);
+				if (distance == 0)
+				{
+					continue;
+				}
+				double force = g / (distance * distance);
+				if (shortRange)
+				{
+					force *= 1 - shortRangeFraction(distance);
+				}
+				// the point at the offset is pulled back towards the mass
+				kernelRe[row * padded + col] = -force * dx / distance;
+				kernelIm[row * padded + col] = -force * dy / distance;
+			}
+		}
+		fft.transform(kernelRe, kernelIm, false, pool);
+		kernelG = g;
+	}
+
+	/* shortRangeFraction() returns how much of the force at distance is left to
+	 * the direct sum, which falls from 1 for touching bodies to nothing at
+	 * SHORT_RANGE_CELLS. This is the split of the Ewald sum, where the mesh
+	 * force is that of masses smeared out into Gaussians of width
+	 * SPLIT_CELLS. */
+	private double shortRangeFraction(double distance)
+	{
+		double u = distance / (2 * SPLIT_CELLS * cellSize);
+		return erfc(u) + 2 * u / Math.sqrt(Math.PI) * Math.exp(-u * u);
+	}
+
+	/* erfc() is the complementary error function, to a relative error of about
+	 * 1e-7 (Numerical Recipes' erfcc). */
+	private static double erfc(double x)
+	{
+		double z = Math.abs(x);
+		double t = 1 / (1 + 0.5 * z);
+		double result = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+						+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? result : 2 - result;
+	}
+
+	/* sortBodies() splits the bodies into the ones on the mesh, with all four
+	 * of their mesh points inside it, and the rest. */
+	private void sortBodies(BodyStore store)
+	{
+		int n = store.getSize();
+		if (inside.length != n)
+		{
+			inside = new int[n];
+			outside = new int[n];
+		}
+		numInside = 0;
+		numOutside = 0;
+		for (int i = 0; i < n; i++)
+		{
+			double col = (store.x[i] - originX) / cellSize - 0.5;
+			double row = (store.y[i] - originY) / cellSize - 0.5;
+			if (col >= 0 && col < meshSize - 1 && row >= 0 && row < meshSize - 1)
+			{
+				inside[numInside++] = i;
+			}
+			else
+			{
+				outside[numOutside++] = i;
+			}
+		}
+	}
+
+	/* deposit() clears the mesh and shares out the mass of every body on it
+	 * among its four mesh points. */
+	private void deposit(BodyStore store, WorkerPool pool)
+	{
+		Arrays.fill(meshRe, 0);
+		Arrays.fill(meshIm, 0);
+		if (pool == null)
+		{
+			deposit(store, meshRe, 0, numInside);
+			return;
+		}
+
+		int workers = pool.getNumThreads();
+		if (workerMasses == null || workerMasses.length != workers)
+		{
+			workerMasses = new double[workers][padded * padded];
+		}
+		pool.parallelFor(workers, t ->
+		{
+			Arrays.fill(workerMasses[t], 0);
+			deposit(store, workerMasses[t], (int) ((long) numInside * t / workers),
+					(int) ((long) numInside * (t + 1) / workers));
+		});
+		// only the unpadded corner of the mesh has any mass
+		pool.parallelRange(meshSize, (start, end) ->
+		{
+			for (int row = start; row < end; row++)
+			{
+				for (int k = row * padded; k < row * padded + meshSize; k++)
+				{
+					double sum = 0;
+					for (double[] masses : workerMasses)
+					{
+						sum += masses[k];
+					}
+					meshRe[k] = sum;
+				}
+			}
+		});
+	}
+
+	private void deposit(BodyStore store, double[] mesh, int start, int end)
+	{
+		for (int k = start; k < end; k++)
+		{
+			int i = inside[k];
+			double col = (store.x[i] - originX) / cellSize - 0.5;
+			double row = (store.y[i] - originY) / cellSize - 0.5;
+			int c = (int) col;
+			int r = (int) row;
+			double wx = col - c;
+			double wy = row - r;
+			double m = store.mass[i];
+			int p = r * padded + c;
+			mesh[p] += m * (1 - wx) * (1 - wy);
+			mesh[p + 1] += m * wx * (1 - wy);
+			mesh[p + padded] += m * (1 - wx) * wy;
+			mesh[p + padded + 1] += m * wx * wy;
+		}
+	}
+
+	/* interpolate() sets the force on the bodies inside[start..end) from the
+	 * forces at their four mesh points. */
+	private void interpolate(BodyStore store, int start, int end)
+	{
+		for (int k = start; k < end; k++)
+		{
+			int i = inside[k];
+			double col = (store.x[i] - originX) / cellSize - 0.5;
+			double row = (store.y[i] - originY) / cellSize - 0.5;
+			int c = (int) col;
+			int r = (int) row;
+			double wx = col - c;
+			double wy = row - r;
+			int p = r * padded + c;
+			double w00 = (1 - wx) * (1 - wy), w01 = wx * (1 - wy), w10 = (1 - wx) * wy, w11 = wx * wy;
+			double m = store.mass[i];
+			store.fx[i] = m * (w00 * meshRe[p] + w01 * meshRe[p + 1] + w10 * meshRe[p + padded] + w11 * meshRe[p + padded + 1]);
+			store.fy[i] = m * (w00 * meshIm[p] + w01 * meshIm[p + 1] + w10 * meshIm[p + padded] + w11 * meshIm[p + padded + 1]);
+		}
+	}
+
+	/* binShortRange() sorts the bodies on the mesh into square cells at least
+	 * SHORT_RANGE_CELLS mesh cells wide, so the bodies within that distance of
+	 * a body are in its own cell or the eight around it. */
+	private void binShortRange(BodyStore store)
+	{
+		double side = cellSize * meshSize;
+		shortCols = Math.max(1, (int) (side / (SHORT_RANGE_CELLS * cellSize)));
+		shortCellSize = side / shortCols;
+		if (shortStart == null || shortStart.length != shortCols * shortCols + 1)
+		{
+			shortStart = new int[shortCols * shortCols + 1];
+		}
+		else
+		{
+			Arrays.fill(shortStart, 0);
+		}
+		if (shortBodies.length < numInside)
+		{
+			shortBodies = new int[inside.length];
+		}
+		for (int k = 0; k < numInside; k++)
+		{
+			shortStart[shortCell(store, inside[k]) + 1]++;
+		}
+		for (int c = 0; c < shortCols * shortCols; c++)
+		{
+			shortStart[c + 1] += shortStart[c];
+		}
+		int[] next = Arrays.copyOf(shortStart, shortCols * shortCols);
+		for (int k = 0; k < numInside; k++)
+		{
+			int i = inside[k];
+			shortBodies[next[shortCell(store, i)]++] = i;
+		}
+	}
+
+	private int shortCell(BodyStore store, int i)
+	{
+		int col = Math.min(shortCols - 1, (int) ((store.x[i] - originX) / shortCellSize));
+		int row = Math.min(shortCols - 1, (int) ((store.y[i] - originY) / shortCellSize));
+		return row * shortCols + col;
+	}
+
+	/* addShortRange() adds the part of the force that the mesh leaves out to the
+	 * bodies inside[start..end), from every body on the mesh close to them. */
+	private void addShortRange(BodyStore store, double g, int start, int end)
+	{
+		double cutoffSq = SHORT_RANGE_CELLS * cellSize * SHORT_RANGE_CELLS * cellSize;
+		double toTable = TABLE_SIZE / cutoffSq;
+		double[] x = store.x, y = store.y, mass = store.mass;
+		for (int k = start; k < end; k++)
+		{
+			int i = inside[k];
+			int cell = shortCell(store, i);
+			int col = cell % shortCols;
+			int row = cell / shortCols;
+			double fx = 0;
+			double fy = 0;
+			for (int r = Math.max(0, row - 1); r <= Math.min(shortCols - 1, row + 1); r++)
+			{
+				for (int c = Math.max(0, col - 1); c <= Math.min(shortCols - 1, col + 1); c++)
+				{
+					int neighbour = r * shortCols + c;
+					for (int b = shortStart[neighbour]; b < shortStart[neighbour + 1]; b++)
+					{
+						int j = shortBodies[b];
+						double dx = x[j] - x[i];
+						double dy = y[j] - y[i];
+						double distSq = dx * dx + dy * dy;
+						if (j == i || distSq >= cutoffSq)
+						{
+							continue;
+						}
+						double t = distSq * toTable;
+						int entry = (int) t;
+						double fraction = shortTable[entry] + (t - entry) * (shortTable[entry + 1] - shortTable[entry]);
+						double scale = g * mass[i] * mass[j] / (distSq * Math.sqrt(distSq)) * fraction;
+						fx += scale * dx;
+						fy += scale * dy;
+					}
+				}
+			}
+			store.fx[i] += fx;
+			store.fy[i] += fy;
+		}
+	}
+
+	/* addOutsideOnOutside() sets the force on the bodies outside[start..end)
+	 * from every other body, directly. */
+	private void addOutsideOnOutside(BodyStore store, double g, int start, int end)
+	{
+		for (int k = start; k < end; k++)
+		{
+			int i = outside[k];
+			double fx = 0;
+			double fy = 0;
+			for (int j = 0; j < store.getSize(); j++)
+			{
+				if (j != i)
+				{
+					double dx = store.x[j] - store.x[i];
+					double dy = store.y[j] - store.y[i];
+					double distSq = dx * dx + dy * dy;
+					double scale = g * store.mass[i] * store.mass[j] / (distSq * Math.sqrt(distSq));
+					fx += scale * dx;
+					fy += scale * dy;
+				}
+			}
+			store.fx[i] = fx;
+			store.fy[i] = fy;
+		}
+	}
+
+	/* addOutsideOnInside() adds the force from every body outside of the mesh to
+	 * the bodies inside[start..end). */
+	private void addOutsideOnInside(BodyStore store, double g, int start, int end)
+	{
+		for (int k = start; k < end; k++)
+		{
+			int i = inside[k];
+			double fx = 0;
+			double fy = 0;
+			for (int o = 0; o < numOutside; o++)
+			{
+				int j = outside[o];
+				double dx = store.x[j] - store.x[i];
+				double dy = store.y[j] - store.y[i];
+				double distSq = dx * dx + dy * dy;
+				double scale = g * store.mass[i] * store.mass[j] / (distSq * Math.sqrt(distSq));
+				fx += scale * dx;
+				fy += scale * dy;
+			}
+			store.fx[i] += fx;
+			store.fy[i] += fy;
+		}
+	}
+
+	private static void run(WorkerPool pool, int n, WorkerPool.RangeTask task)
+	{
+		if (pool == null)
+		{
+			task.accept(0, n);
+		}
+		else
+		{
+			pool.parallelRange(n, task);
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/* ScenarioFile reads and writes scenario files: plain text with one body per
+ * line,
+ *
+ *   mass radius x y vx vy
+ *
+ * separated by spaces, tabs or commas. Blank lines and anything after a # are
+ * ignored. A line "bodies N" before the first body says how many bodies follow,
+ * so the arrays can be allocated once; without it they grow as the file is read.
+ *
+ * The file is read a block of bytes at a time and the numbers are parsed
+ * straight from the bytes into the arrays of a BodyStore, without creating a
+ * String or any other object per line, so a file with a million bodies loads in
+ * about a second. */
+public class ScenarioFile
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int FIELDS = 6;
+	// exact powers of ten, for the numbers that can be parsed without rounding
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private int line = 1;
+	private final byte[] token = new byte[64]; // numbers that need Double.parseDouble()
+	private double[][] columns = new double[FIELDS][]; // mass, radius, x, y, vx, vy
+	private int nBodies;
+
+	private ScenarioFile(InputStream in)
+	{
+		this.in = in;
+	}
+
+	/* read() loads the bodies in file. Throws IOException if the file cannot be
+	 * read or is not a valid scenario file, naming the line that is wrong. */
+	public static BodyStore read(Path file) throws IOException
+	{
+		try (InputStream in = Files.newInputStream(file))
+		{
+			return new ScenarioFile(in).readBodies(file);
+		}
+	}
+
+	/* write() saves the bodies in store to file, in a form read() turns back
+	 * into exactly the same values. */
+	public static void write(Path file, BodyStore store) throws IOException
+	{
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII))
+		{
+			out.write("# mass radius x y vx vy");
+			out.newLine();
+			out.write("bodies " + store.getSize());
+			out.newLine();
+			StringBuilder line = new StringBuilder(160);
+			for (int i = 0; i < store.getSize(); i++)
+			{
+				line.setLength(0);
+				line.append(store.mass[i]).append(' ').append(store.radius[i]).append(' ')
+						.append(store.x[i]).append(' ').append(store.y[i]).append(' ')
+						.append(store.vx[i]).append(' ').append(store.vy[i]);
+				out.append(line);
+				out.newLine();
+			}
+		}
+	}
+
+	private BodyStore readBodies(Path file) throws IOException
+	{
+		try
+		{
+			allocate(1024);
+			int c;
+			while ((c = skipSpaces()) != -1)
+			{
+				if (c == '\n')
+				{
+					position++;
+					line++;
+				}
+				else if (c == 'b')
+				{
+					readCountHint();
+				}
+				else
+				{
+					readBody();
+				}
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(file + " line " + line + ": " + e.getMessage());
+		}
+
+		BodyStore store = new BodyStore(nBodies);
+		for (int i = 0; i < nBodies; i++)
+		{
+			store.set(i, columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i], columns[5][i]);
+		}
+		return store;
+	}
+
+	/* readCountHint() reads a "bodies N" line. */
+	private void readCountHint() throws IOException
+	{
+		for (char expected : "bodies".toCharArray())
+		{
+			if (peek() != expected)
+			{
+				throw new IllegalArgumentException("expected \"bodies N\" or six numbers");
+			}
+			position++;
+		}
+		skipSpaces();
+		double count = readNumber();
+		if (count < 0 || count > Integer.MAX_VALUE - 8 || count != Math.rint(count))
+		{
+			throw new IllegalArgumentException("invalid number of bodies " + count);
+		}
+		if (count > columns[0].length)
+		{
+			allocate((int) count);
+		}
+		endLine();
+	}
+
+	/* readBody() reads the six numbers of a body into the next row. */
+	private void readBody() throws IOException
+	{
+		if (nBodies == columns[0].length)
+		{
+			allocate((int) Math.min(Integer.MAX_VALUE - 8, 2L * nBodies));
+		}
+		for (int f = 0; f < FIELDS; f++)
+		{
+			int c = skipSpaces();
+			if (f > 0 && c == ',')
+			{
+				position++;
+				c = skipSpaces();
+			}
+			if (c == -1 || c == '\n')
+			{
+				throw new IllegalArgumentException("expected six numbers: mass radius x y vx vy");
+			}
+			columns[f][nBodies] = readNumber();
+		}
+		nBodies++;
+		endLine();
+	}
+
+	/* endLine() checks that nothing but spaces or a comment is left on the line. */
+	private void endLine() throws IOException
+	{
+		int c = skipSpaces();
+		if (c != -1 && c != '\n')
+		{
+			throw new IllegalArgumentException("unexpected '" + (char) c + "' at the end of the line");
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		for (int f = 0; f < FIELDS; f++)
+		{
+			columns[f] = columns[f] == null ? new double[capacity] : Arrays.copyOf(columns[f], capacity);
+		}
+	}
+
+	/* readNumber() parses the number at the current position. Numbers with up to
+	 * 15 significant digits and a small exponent are converted exactly with one
+	 * multiplication or division; anything else is handed to
+	 * Double.parseDouble(), which is exact but needs a String. */
+	private double readNumber() throws IOException
+	{
+		int length = 0;
+		boolean negative = false;
+		long digits = 0;
+		int nDigits = 0;
+		int exponent = 0;
+		boolean simple = true;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		int c = peek();
+		if (c == '-' || c == '+')
+		{
+			negative = c == '-';
+			length = addToToken(length, c);
+			c = peek();
+		}
+		while (c != -1 && !isSeparator(c))
+		{
+			if (c >= '0' && c <= '9')
+			{
+				seenDigit = true;
+				if (digits == 0 && c == '0')
+				{
+					// leading zeros are not significant
+					if (seenPoint)
+					{
+						exponent--;
+					}
+				}
+				else if (nDigits < 15)
+				{
+					digits = digits * 10 + (c - '0');
+					nDigits++;
+					if (seenPoint)
+					{
+						exponent--;
+					}
+				}
+				else
+				{
+					simple = false;
+				}
+			}
+			else if (c == '.' && !seenPoint)
+			{
+				seenPoint = true;
+			}
+			else if (c == 'e' || c == 'E' || c == 'N' || c == 'I')
+			{
+				// exponents, NaN and Infinity are left to Double.parseDouble()
+				simple = false;
+			}
+			else if (simple)
+			{
+				throw new IllegalArgumentException("invalid number");
+			}
+			length = addToToken(length, c);
+			c = peek();
+		}
+
+		if (simple && seenDigit && exponent >= -22)
+		{
+			double value = exponent < 0 ? digits / POWERS_OF_TEN[-exponent] : digits;
+			return negative ? -value : value;
+		}
+		try
+		{
+			return Double.parseDouble(new String(token, 0, length, StandardCharsets.US_ASCII));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("invalid number " + new String(token, 0, length, StandardCharsets.US_ASCII));
+		}
+	}
+
+	/* addToToken() moves past c, keeping it in token in case the number has to
+	 * go to Double.parseDouble(). */
+	private int addToToken(int length, int c)
+	{
+		if (length == token.length)
+		{
+			throw new IllegalArgumentException("number too long");
+		}
+		token[length] = (byte) c;
+		position++;
+		return length + 1;
+	}
+
+	private static boolean isSeparator(int c)
+	{
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ',' || c == '#';
+	}
+
+	/* skipSpaces() moves past spaces, tabs, carriage returns and comments, and
+	 * returns the next character without moving past it, or -1 at the end of
+	 * the file. */
+	private int skipSpaces() throws IOException
+	{
+		int c = peek();
+		while (c == ' ' || c == '\t' || c == '\r' || c == '#')
+		{
+			if (c == '#')
+			{
+				while (c != -1 && c != '\n')
+				{
+					position++;
+					c = peek();
+				}
+				return c;
+			}
+			position++;
+			c = peek();
+		}
+		return c;
+	}
+
+	/* peek() returns the next byte without moving past it, refilling the buffer
+	 * when it is used up, or -1 at the end of the file. */
+	private int peek() throws IOException
+	{
+		if (position == limit)
+		{
+			limit = in.read(buffer);
+			position = 0;
+			if (limit <= 0)
+			{
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position] & 0xFF;
+	}
+}
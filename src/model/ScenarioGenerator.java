@@ -0,0 +1,235 @@
+package model;
+
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+
+/* ScenarioGenerator creates the starting bodies of standard scenarios straight
+ * into a BodyStore:
+ *
+ *   uniform   bodies of the same mass and radius spread evenly over the space
+ *   random    like uniform, but with a random radius and mass = radius^3, as
+ *             new Space(n) makes
+ *   plummer   a Plummer sphere seen from the side: a cluster that is dense in
+ *             the middle and thins out, with velocities close to equilibrium
+ *   disk      a heavy body in the middle with a disk of bodies orbiting it
+ *   clusters  two Plummer clusters falling towards each other
+ *
+ * The same seed always gives the same bodies. The bodies are generated in
+ * fixed size blocks, each with its own random generator split off from the
+ * seed, so the blocks can be filled in parallel and the result does not
+ * depend on the number of threads. */
+public class ScenarioGenerator
+{
+	public static final String[] SCENARIOS = { "uniform", "random", "plummer", "disk", "clusters" };
+
+	private static final int BLOCK_SIZE = 8192; // bodies generated by one task
+	private static final double WIDTH = Space.BORDER_WIDTH;
+	private static final double HEIGHT = Space.BORDER_HEIGHT;
+
+	private final long seed;
+	private double mass = 1000;
+	private double radius = 5;
+	private double g = Space.DEFAULT_G; // for the speeds of orbits and clusters
+	private WorkerPool pool; // null generates on the calling thread
+
+	/* Creates a generator whose scenarios all come from seed. */
+	public ScenarioGenerator(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/* setMass() sets the mass of every body, except in the random scenario and
+	 * the middle of the disk. */
+	public void setMass(double mass)
+	{
+		this.mass = mass;
+	}
+
+	/* setRadius() sets the radius of every body, except in the random scenario
+	 * and the middle of the disk. */
+	public void setRadius(double radius)
+	{
+		this.radius = radius;
+	}
+
+	/* setG() sets the gravitational constant the velocities of the plummer, disk
+	 * and clusters scenarios are worked out for, which should be that of the
+	 * Space they go into. */
+	public void setG(double g)
+	{
+		this.g = g;
+	}
+
+	/* setWorkerPool() makes the generator fill blocks of bodies on the workers
+	 * of pool. */
+	public void setWorkerPool(WorkerPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/* generate() creates nBodies bodies of the named scenario, one of
+	 * SCENARIOS. */
+	public BodyStore generate(String scenario, int nBodies)
+	{
+		switch (scenario)
+		{
+		case "uniform":
+			return uniform(nBodies);
+		case "random":
+			return random(nBodies);
+		case "plummer":
+			return plummer(nBodies);
+		case "disk":
+			return disk(nBodies);
+		case "clusters":
+			return clusters(nBodies);
+		default:
+			throw new IllegalArgumentException("Unknown scenario " + scenario);
+		}
+	}
+
+	public BodyStore uniform(int nBodies)
+	{
+		BodyStore store = new BodyStore(nBodies);
+		fill(0, nBodies, (i, random) ->
+		{
+			double x = random.nextDouble(radius, WIDTH - radius);
+			double y = random.nextDouble(radius, HEIGHT - radius);
+			store.set(i, mass, radius, x, y, random.nextDouble(-8, 8), random.nextDouble(-8, 8));
+		});
+		return store;
+	}
+
+	public BodyStore random(int nBodies)
+	{
+		BodyStore store = new BodyStore(nBodies);
+		fill(0, nBodies, (i, random) ->
+		{
+			double r = random.nextDouble(2, 50);
+			double x = random.nextDouble(r, WIDTH - r);
+			double y = random.nextDouble(r, HEIGHT - r);
+			store.set(i, r * r * r, r, x, y, random.nextDouble(-15, 15), random.nextDouble(-15, 15));
+		});
+		return store;
+	}
+
+	public BodyStore plummer(int nBodies)
+	{
+		BodyStore store = new BodyStore(nBodies);
+		addPlummer(store, 0, nBodies, WIDTH / 2, HEIGHT / 2, WIDTH / 20, 0, 0);
+		return store;
+	}
+
+	public BodyStore disk(int nBodies)
+	{
+		BodyStore store = new BodyStore(nBodies);
+		double centerX = WIDTH / 2;
+		double centerY = HEIGHT / 2;
+		double outer = 0.4 * Math.min(WIDTH, HEIGHT);
+		double inner = 0.1 * outer;
+		double diskMass = (nBodies - 1) * mass;
+		double centralMass = Math.max(diskMass, mass);
+		store.set(0, centralMass, 4 * radius, centerX, centerY, 0, 0);
+
+		fill(1, nBodies, (i, random) ->
+		{
+			// uniform in area between the inner and outer edge
+			double rSq = inner * inner + random.nextDouble() * (outer * outer - inner * inner);
+			double r = Math.sqrt(rSq);
+			double angle = random.nextDouble(2 * Math.PI);
+			// circular speed around the central body and the disk inside r
+			double enclosed = centralMass + diskMass * (rSq - inner * inner) / (outer * outer - inner * inner);
+			double speed = Math.sqrt(g * enclosed / r);
+			double cos = Math.cos(angle);
+			double sin = Math.sin(angle);
+			store.set(i, mass, radius, clampX(centerX + r * cos), clampY(centerY + r * sin), -speed * sin, speed * cos);
+		});
+		return store;
+	}
+
+	public BodyStore clusters(int nBodies)
+	{
+		BodyStore store = new BodyStore(nBodies);
+		int half = nBodies / 2;
+		double scale = WIDTH / 40;
+		double separation = 0.4 * WIDTH;
+		// each cluster starts at the speed it would reach falling from twice as
+		// far away, and they are offset vertically so they hit off center
+		double approach = Math.sqrt(g * half * mass / (2 * separation));
+		addPlummer(store, 0, half, (WIDTH - separation) / 2, HEIGHT / 2 - scale, scale, approach, 0);
+		addPlummer(store, half, nBodies, (WIDTH + separation) / 2, HEIGHT / 2 + scale, scale, -approach, 0);
+		return store;
+	}
+
+	/* addPlummer() fills [start, end) of store with a Plummer sphere of scale
+	 * radius a around (centerX, centerY), moving at (vx, vy). Seen from the
+	 * side, a fraction u of the bodies lies within a * sqrt(u / (1 - u)) of the
+	 * center, and the speeds are drawn from the sphere's velocity dispersion
+	 * G * M / (6 * sqrt(r^2 + a^2)) at each body's distance. */
+	private void addPlummer(BodyStore store, int start, int end, double centerX, double centerY, double a, double vx,
+			double vy)
+	{
+		double totalMass = (end - start) * mass;
+		fill(start, end, (i, random) ->
+		{
+			double u = random.nextDouble(0.99); // cuts off the thin tail beyond 10a
+			double r = a * Math.sqrt(u / (1 - u));
+			double angle = random.nextDouble(2 * Math.PI);
+			double sigma = Math.sqrt(g * totalMass / (6 * Math.sqrt(r * r + a * a)));
+			double x = clampX(centerX + r * Math.cos(angle));
+			double y = clampY(centerY + r * Math.sin(angle));
+			store.set(i, mass, radius, x, y, vx + sigma * random.nextGaussian(), vy + sigma * random.nextGaussian());
+		});
+	}
+
+	private double clampX(double x)
+	{
+		return Math.max(radius, Math.min(WIDTH - radius, x));
+	}
+
+	private double clampY(double y)
+	{
+		return Math.max(radius, Math.min(HEIGHT - radius, y));
+	}
+
+	/* fill() runs body.create(i, random) for every i in [start, end), in blocks
+	 * of BLOCK_SIZE. Every call to fill() splits a new random generator off the
+	 * seed for each block, before any of them run, so what a block gets does
+	 * not depend on which thread runs it or when. */
+	private void fill(int start, int end, BodyFactory body)
+	{
+		int nBlocks = (end - start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		SplittableRandom root = new SplittableRandom(seed ^ ((long) start << 32) ^ end);
+		SplittableRandom[] randoms = new SplittableRandom[nBlocks];
+		for (int b = 0; b < nBlocks; b++)
+		{
+			randoms[b] = root.split();
+		}
+
+		IntConsumer block = b ->
+		{
+			int blockEnd = Math.min(end, start + (b + 1) * BLOCK_SIZE);
+			for (int i = start + b * BLOCK_SIZE; i < blockEnd; i++)
+			{
+				body.create(i, randoms[b]);
+			}
+		};
+		if (pool == null)
+		{
+			for (int b = 0; b < nBlocks; b++)
+			{
+				block.accept(b);
+			}
+		}
+		else
+		{
+			pool.parallelFor(nBlocks, block);
+		}
+	}
+
+	/* BodyFactory creates body i of a scenario from random. */
+	private interface BodyFactory
+	{
+		void create(int i, SplittableRandom random);
+	}
+}
@@ -0,0 +1,76 @@
+package model;
+
+/* Snapshot is a copy of the positions and radii of every body at the end of
+ * one timestep, for drawing or saving the state of a Space without touching
+ * the simulation while it runs. */
+public class Snapshot
+{
+	double[] x;
+	double[] y;
+	double[] radius;
+	private int size;
+	private long step;
+
+	/* Creates an empty snapshot. */
+	public Snapshot()
+	{
+		x = new double[0];
+		y = new double[0];
+		radius = new double[0];
+	}
+
+	/* copyFrom() replaces the contents of this snapshot with the bodies in store
+	 * at the given step. */
+	void copyFrom(BodyStore store, long step)
+	{
+		resize(store.getSize());
+		System.arraycopy(store.x, 0, x, 0, store.getSize());
+		System.arraycopy(store.y, 0, y, 0, store.getSize());
+		System.arraycopy(store.radius, 0, radius, 0, store.getSize());
+		this.step = step;
+	}
+
+	/* resize() makes room for size bodies. */
+	void resize(int size)
+	{
+		if (x.length != size)
+		{
+			x = new double[size];
+			y = new double[size];
+			radius = new double[size];
+		}
+		this.size = size;
+	}
+
+	void setStep(long step)
+	{
+		this.step = step;
+	}
+
+	/* getSize() returns the number of bodies in this snapshot. */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/* getStep() returns the timestep this snapshot was taken at. */
+	public long getStep()
+	{
+		return step;
+	}
+
+	public double getX(int i)
+	{
+		return x[i];
+	}
+
+	public double getY(int i)
+	{
+		return y[i];
+	}
+
+	public double getRadius(int i)
+	{
+		return radius[i];
+	}
+}
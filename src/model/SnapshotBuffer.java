@@ -0,0 +1,41 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* SnapshotBuffer hands snapshots from the simulation thread to a single reader,
+ * such as the view, using three buffers. The writer always fills a buffer the
+ * reader does not hold and then swaps it into the middle; the reader swaps the
+ * middle buffer out when it has been refreshed. Neither side ever waits for the
+ * other, the reader never sees a half written snapshot, and snapshots the
+ * reader was too slow to pick up are simply replaced. */
+public class SnapshotBuffer implements SnapshotSource
+{
+	private static final int FRESH = 4; // set on middle when it holds a snapshot the reader has not seen
+	private static final int INDEX = 3;
+
+	private final Snapshot[] buffers = { new Snapshot(), new Snapshot(), new Snapshot() };
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int writing = 0; // only used by the writer
+	private int reading = 2; // only used by the reader
+	private boolean hasSnapshot = false; // only used by the reader
+
+	/* publish() copies the bodies in store into a free buffer and makes it the
+	 * latest snapshot. Only one thread may publish. */
+	public void publish(BodyStore store, long step)
+	{
+		buffers[writing].copyFrom(store, step);
+		writing = middle.getAndSet(writing | FRESH) & INDEX;
+	}
+
+	/* latest() returns the newest published snapshot. Only one thread may read. */
+	@Override
+	public Snapshot latest()
+	{
+		if ((middle.get() & FRESH) != 0)
+		{
+			reading = middle.getAndSet(reading) & INDEX;
+			hasSnapshot = true;
+		}
+		return hasSnapshot ? buffers[reading] : null;
+	}
+}
@@ -0,0 +1,10 @@
+package model;
+
+/* SnapshotSource is anything a view can pull the latest state of the bodies
+ * from, such as a running Space or a recording being replayed. */
+public interface SnapshotSource
+{
+	/* latest() returns the newest snapshot, or null if there is none yet. The
+	 * snapshot stays the same until the next call to latest(). */
+	Snapshot latest();
+}
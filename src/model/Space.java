@@ -1,34 +1,223 @@
 package model;
 
-import java.awt.geom.Point2D;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* Space represents the 2D space that all objects exist within. This class is
  * the core class within the model, and contains the list of objects that
  * inhabit the space. */
 public class Space extends Observable implements Runnable
 {
-	private final static double G = 6.67e-2; // gravitational constant, currently 10^8 times bigger than real life
-	private final static double timestep = .5 ; // tickrate of simulation, can be interpreted as units in "seconds"
+	public static final double DEFAULT_G = 6.67e-2; // gravitational constant, currently 10^8 times bigger than real life
+	public static final double DEFAULT_TIMESTEP = .5; // tickrate of simulation, can be interpreted as units in "seconds"
+	public static final double DEFAULT_OVERLAP_TOLERANCE = 3; // how far bodies may overlap before they are rewound
+	private double g = DEFAULT_G;
+	private double timestep = DEFAULT_TIMESTEP;
+	private double overlapTolerance = DEFAULT_OVERLAP_TOLERANCE;
 	private Body[] bodies;
+	private BodyStore store;
 	private int nBodies;
-	private final int BORDER_WIDTH = 2000; //width constraint that bodies should stay in
-	private final int BORDER_HEIGHT =2000; //height constraint that bodies should stay in
+	static final int BORDER_WIDTH = 2000; //width constraint that bodies should stay in
+	static final int BORDER_HEIGHT =2000; //height constraint that bodies should stay in
 	private long numTimesteps;
-	private final double overlapTolerance = 3;
-	private static int numCollisions = 0;
-	private Point2D.Double[] forces;
+	private final SpaceMetrics metrics = new SpaceMetrics();
+	private boolean timed; // whether the phases of this step are being timed
+	private int stepCollisions; // collisions found by the last checkCollisions()
+	private long resolveNanos; // time the last checkCollisions() spent resolving, when timed
+	private final long[] stepNanos = new long[SpaceMetrics.Phase.values().length]; // phase times of this step
+	private BlockTimesteps blockTimesteps; // null moves every body by the whole timestep
+	private CollisionEvents collisionEvents; // null looks for overlaps after moving instead
+	private double stepLength = timestep; // how far the bodies were last moved, for rewind()
+	private static final int MIN_PARALLEL_BATCH = 256; // smaller batches of contacts are resolved serially
+	private boolean verbose = true; // print collisions and progress to stdout
+	private long stepDelay = 5; // milliseconds run() sleeps after every timestep
+	private long step; // number of timesteps moveBodies() has run
+	private SnapshotBuffer snapshots; // null when nobody is watching
+	private WorkerPool pool; // null when the simulation runs on a single thread
+	private ParallelForceCalculator parallelForces;
+	private ForceCalculator forceCalculator; // null uses the all-pairs loop
+	private CollisionGrid collisionGrid;
+	private NeighbourList neighbourList; // null finds the candidates with collisionGrid every timestep
+	private int[] collisionCandidates;
+	private int[][] workerCandidates; // one candidate buffer per worker thread
+	private ContactList[] workerContacts;
+	private ContactList contacts;
+	private boolean[] contactResolved; // which contacts resolveContacts() resolved
+	// pairs of bodies that collided in the last timestep and in this one; a pair
+	// is not counted again in the timestep right after its collision
+	private PairSet prevContacts = new PairSet();
+	private PairSet currContacts = new PairSet();
 	
 	public void setNumTimesteps(long n) {
 		numTimesteps = n;
 	}
-	
-	public void initializeForces() {
-		forces = new Point2D.Double[nBodies];
-		for (int i = 0; i < nBodies; i++) {
-			forces[i] = new Point2D.Double();
+
+	/* setVerbose() sets whether collisions and the progress of run() are printed
+	 * to stdout. */
+	public void setVerbose(boolean verbose)
+	{
+		this.verbose = verbose;
+	}
+
+	/* setStepDelay() sets how many milliseconds run() sleeps after every timestep,
+	 * so the simulation can be watched. 0 runs as fast as possible. */
+	public void setStepDelay(long stepDelay)
+	{
+		this.stepDelay = stepDelay;
+	}
+
+	/* setG() sets the gravitational constant of this space. */
+	public void setG(double g)
+	{
+		this.g = g;
+	}
+
+	public double getG()
+	{
+		return g;
+	}
+
+	/* setTimestep() sets how far in time every step moves the bodies. */
+	public void setTimestep(double timestep)
+	{
+		if (!(timestep > 0))
+		{
+			throw new IllegalArgumentException("timestep must be positive, was " + timestep);
+		}
+		this.timestep = timestep;
+		stepLength = timestep;
+	}
+
+	public double getTimestep()
+	{
+		return timestep;
+	}
+
+	/* setOverlapTolerance() sets how far two colliding bodies may overlap before
+	 * they are rewound to where they only overlap by that much. */
+	public void setOverlapTolerance(double overlapTolerance)
+	{
+		if (!(overlapTolerance >= 0))
+		{
+			throw new IllegalArgumentException("overlapTolerance must not be negative, was " + overlapTolerance);
+		}
+		this.overlapTolerance = overlapTolerance;
+	}
+
+	public double getOverlapTolerance()
+	{
+		return overlapTolerance;
+	}
+
+	/* setNumThreads() sets how many worker threads are used to calculate forces
+	 * and collisions. With 1 thread everything runs serially on the calling
+	 * thread. */
+	public void setNumThreads(int numThreads)
+	{
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+			parallelForces = null;
+			workerCandidates = null;
+			workerContacts = null;
+		}
+		if (numThreads > 1)
+		{
+			pool = new WorkerPool(numThreads);
+			parallelForces = new ParallelForceCalculator();
+		}
+	}
+
+	/* setBlockTimesteps() gives every body its own timestep of
+	 * timestep / 2^level, for a level up to maxLevel picked from how fast it
+	 * moves and accelerates; see BlockTimesteps. A maxLevel of 0 goes back to
+	 * moving every body by the whole timestep. Block timesteps cannot be used
+	 * with a force calculator that computes every force whenever any are
+	 * needed, such as a ParticleMeshForceCalculator. */
+	public void setBlockTimesteps(int maxLevel, double accuracy)
+	{
+		if (maxLevel > 0 && forceCalculator != null && !forceCalculator.calculatesOnlyActive())
+		{
+			throw new IllegalArgumentException(forceCalculator.getClass().getSimpleName()
+					+ " computes every force on every substep, so it cannot be used with block timesteps");
+		}
+		blockTimesteps = maxLevel == 0 ? null : new BlockTimesteps(nBodies, maxLevel, accuracy);
+	}
+
+	/* getBlockTimesteps() returns the timesteps of the bodies, or null when every
+	 * body moves by the whole timestep. */
+	public BlockTimesteps getBlockTimesteps()
+	{
+		return blockTimesteps;
+	}
+
+	/* setEventDrivenCollisions() switches between looking for bodies that
+	 * overlap after they have moved, and rewinding them, and predicting when
+	 * they will touch with CollisionEvents. Event driven collisions do not let
+	 * bodies pass through each other, however fast they go, unless a body runs
+	 * out of collisions in a timestep, but always run on a single thread. */
+	public void setEventDrivenCollisions(boolean eventDriven)
+	{
+		collisionEvents = eventDriven ? new CollisionEvents(this) : null;
+	}
+
+	public boolean isEventDrivenCollisions()
+	{
+		return collisionEvents != null;
+	}
+
+	/* setNeighbourSkin() keeps the collision candidates in a NeighbourList with
+	 * the given skin, which is only built again once a body has moved more than
+	 * half the skin, instead of binning every body into the CollisionGrid every
+	 * timestep. Both find every pair that touches on the paths the bodies took in
+	 * the timestep. A body that is rewound after it has bounced is put off its
+	 * path, though, and there the two find different pairs. So the results only
+	 * match until that happens, and crowded runs drift apart from then on. A
+	 * skin of 0 goes back to the grid. */
+	public void setNeighbourSkin(double skin)
+	{
+		neighbourList = skin == 0 ? null : new NeighbourList(BORDER_WIDTH, BORDER_HEIGHT, skin);
+	}
+
+	/* getNeighbourList() returns the list of collision candidates, or null when
+	 * they are found with the grid. */
+	public NeighbourList getNeighbourList()
+	{
+		return neighbourList;
+	}
+
+	/* setForceCalculator() replaces the all-pairs loop in calculateForces() with
+	 * the given calculator, e.g. a BarnesHutForceCalculator. Passing null goes
+	 * back to the all-pairs loop. With block timesteps the calculator has to
+	 * compute only the forces that are needed; see setBlockTimesteps(). */
+	public void setForceCalculator(ForceCalculator forceCalculator)
+	{
+		if (blockTimesteps != null && forceCalculator != null && !forceCalculator.calculatesOnlyActive())
+		{
+			throw new IllegalArgumentException(forceCalculator.getClass().getSimpleName()
+					+ " computes every force on every substep, so it cannot be used with block timesteps");
+		}
+		this.forceCalculator = forceCalculator;
+	}
+
+	/* getNumThreads() returns the number of threads used to calculate forces and
+	 * collisions. */
+	public int getNumThreads()
+	{
+		return pool == null ? 1 : pool.getNumThreads();
+	}
+
+	/* createBodies() creates the Body views onto every slot of store. */
+	private void createBodies()
+	{
+		bodies = new Body[nBodies];
+		for (int i = 0; i < nBodies; i++)
+		{
+			bodies[i] = new Body(store, i);
 		}
 	}
 
@@ -37,8 +226,7 @@ public class Space extends Observable implements Runnable
 	public Space(int nBodies, double mass, double radius)
 	{
 		this.nBodies = nBodies;
-		bodies = new Body[nBodies];
-		forces = new Point2D.Double[nBodies];
+		store = new BodyStore(nBodies);
 
 		for (int i = 0; i < nBodies; i++)
 		{
@@ -48,9 +236,17 @@ public class Space extends Observable implements Runnable
 			double randVX = ThreadLocalRandom.current().nextDouble(-8, 8);
 			double randVY = ThreadLocalRandom.current().nextDouble(-8, 8);
 
-			bodies[i] = new Body(mass, radius, randX, randY, randVX, randVY);
-			forces[i] = new Point2D.Double();
+			store.set(i, mass, radius, randX, randY, randVX, randVY);
 		}
+		createBodies();
+	}
+
+	/* This constructor creates a body for every slot of store. */
+	public Space(BodyStore store)
+	{
+		this.nBodies = store.getSize();
+		this.store = store;
+		createBodies();
 	}
 
 	/* This constructor allows the initialization of preset bodies. */
@@ -58,7 +254,7 @@ public class Space extends Observable implements Runnable
 	{
 		this.nBodies = bodies.length;
 		this.bodies = bodies;
-		initializeForces();
+		this.store = new BodyStore(bodies);
 	}
 
 	/**
@@ -67,8 +263,8 @@ public class Space extends Observable implements Runnable
 	 */
 	public Space(int nBodies)
 	{
-		bodies = new Body[nBodies];
-		forces = new Point2D.Double[nBodies];
+		this.nBodies = nBodies;
+		store = new BodyStore(nBodies);
 
 		for (int i = 0; i < nBodies; i++)
 		{
@@ -79,19 +275,56 @@ public class Space extends Observable implements Runnable
 			double randVX = ThreadLocalRandom.current().nextDouble(-15, 15);
 			double randVY = ThreadLocalRandom.current().nextDouble(-15, 15);
 
-			bodies[i] = new Body(mass, randRadius, randX, randY, randVX, randVY);
-			forces[i]= new Point2D.Double();
-			
-			//This line here to easier save scenarios (prints out the randomly generated parameters)
-			System.out.println("new Body(" + mass + ", " + randRadius + ", " + randX + ", " + randY  + ", " + randVX + ", " + randVY + ")");
+			store.set(i, mass, randRadius, randX, randY, randVX, randVY);
+		}
+		createBodies();
+	}
+
+	/* printBodies() prints every body as the Java code that creates it, to make
+	 * it easier to save a randomly generated scenario. */
+	public void printBodies()
+	{
+		for (int i = 0; i < nBodies; i++)
+		{
+			System.out.println("new Body(" + store.mass[i] + ", " + store.radius[i] + ", " + store.x[i] + ", " + store.y[i]
+					+ ", " + store.vx[i] + ", " + store.vy[i] + ")");
+		}
+	}
+
+	/* setSnapshotBuffer() makes moveBodies() publish a snapshot of the bodies
+	 * into buffer at the end of every timestep, for a view to pick up. It should
+	 * be called before the simulation starts running on another thread. */
+	public void setSnapshotBuffer(SnapshotBuffer buffer)
+	{
+		this.snapshots = buffer;
+		if (buffer != null)
+		{
+			buffer.publish(store, step);
 		}
 	}
 
-	/* setChangedAndNotifyObservers() calls setChanged() and notifyObservers(). */
+	/* getStep() returns the number of timesteps moveBodies() has run. */
+	public long getStep()
+	{
+		return step;
+	}
+
+	/* setStep() sets the timestep counter, for restoring a checkpoint. */
+	void setStep(long step)
+	{
+		this.step = step;
+	}
+
+	/* setChangedAndNotifyObservers() calls setChanged() and notifyObservers(),
+	 * if anybody is observing. notifyObservers() copies the list of observers
+	 * every time, even an empty one, and this is called for every rewind. */
 	public void setChangedAndNotifyObservers()
 	{
-		setChanged();
-		notifyObservers();
+		if (countObservers() > 0)
+		{
+			setChanged();
+			notifyObservers();
+		}
 	}
 
 	/* moveBodies() first recalculates new vx and vy for every body, and then calls
@@ -99,103 +332,320 @@ public class Space extends Observable implements Runnable
 	 * take collisions into account. */
 	public void moveBodies()
 	{
-		// get the gravitational forces acting on every body
-		Point2D.Double[] forces = calculateForces();
-
-		// adjust the velocity for every body
-		updateVelocitiesByForce(forces);
+		StepEvent event = new StepEvent();
+		timed = metrics.isTimingEnabled() || event.isEnabled();
+		long rewindStart = 0;
+		if (timed)
+		{
+			event.begin();
+			rewindStart = metrics.getPhaseNanos(SpaceMetrics.Phase.REWIND);
+			Arrays.fill(stepNanos, 0);
+		}
+		int collisions = 0;
 
-		// move each body according to its new velocity
-		for (Body b : bodies)
+		if (collisionEvents != null)
 		{
-			b.move(timestep);
+			// before the forces, which are enormous between bodies that overlap
+			long t = timed ? System.nanoTime() : 0;
+			collisionEvents.separateOverlaps();
+			endPhase(SpaceMetrics.Phase.COLLISION_RESOLVE, t);
 		}
+		if (blockTimesteps == null)
+		{
+			long t = timed ? System.nanoTime() : 0;
+
+			// get the gravitational forces acting on every body
+			calculateForces();
+			t = endPhase(SpaceMetrics.Phase.FORCE, t);
+
+			// adjust the velocity for every body
+			updateVelocitiesByForce();
+			t = endPhase(SpaceMetrics.Phase.VELOCITY, t);
 
-		// check for collisions between any bodies
-		checkCollisions();
+			// move each body according to its new velocity, and collide them
+			moveAndCollide(timestep);
+			collisions = stepCollisions;
+		}
+		else
+		{
+			for (int s = 0; s < blockTimesteps.getSubsteps(); s++)
+			{
+				moveSubstep(s);
+				collisions += stepCollisions;
+			}
+		}
+		step++;
+		long t = timed ? System.nanoTime() : 0;
 
 		// last step is to notify observers of the new state
+		if (snapshots != null)
+		{
+			snapshots.publish(store, step);
+		}
 		setChangedAndNotifyObservers();
+		endPhase(SpaceMetrics.Phase.NOTIFY, t);
+		metrics.endStep(timed);
+
+		if (timed && event.shouldCommit())
+		{
+			event.step = step;
+			event.bodies = nBodies;
+			event.collisions = collisions;
+			event.force = stepNanos[SpaceMetrics.Phase.FORCE.ordinal()];
+			event.velocity = stepNanos[SpaceMetrics.Phase.VELOCITY.ordinal()];
+			event.move = stepNanos[SpaceMetrics.Phase.MOVE.ordinal()];
+			event.collisionDetect = stepNanos[SpaceMetrics.Phase.COLLISION_DETECT.ordinal()];
+			event.collisionResolve = stepNanos[SpaceMetrics.Phase.COLLISION_RESOLVE.ordinal()];
+			event.rewind = metrics.getPhaseNanos(SpaceMetrics.Phase.REWIND) - rewindStart;
+			event.notify = stepNanos[SpaceMetrics.Phase.NOTIFY.ordinal()];
+			event.commit();
+		}
+		timed = false;
+	}
+
+	/* moveSubstep() runs substep s of a timestep split up by blockTimesteps. The
+	 * bodies whose own step starts at s get new forces, a new step length and a
+	 * kick of their velocity over that length. Then every body moves by one
+	 * substep and collisions are checked, as in a whole timestep: the bodies
+	 * that are not active still move and can still collide with each other, so
+	 * only the force evaluations are saved, and moving the bodies and checking
+	 * their collisions costs 2^maxLevel times as much as in a whole timestep. */
+	private void moveSubstep(int s)
+	{
+		long t = timed ? System.nanoTime() : 0;
+		int nActive = blockTimesteps.findActive(s);
+		int[] active = blockTimesteps.getActive();
+		calculateForces(active, nActive);
+		t = endPhase(SpaceMetrics.Phase.FORCE, t);
+
+		blockTimesteps.chooseLevels(store, s, nActive, timestep);
+		double[] vx = store.vx, vy = store.vy, oldVX = store.oldVX, oldVY = store.oldVY;
+		double[] fx = store.fx, fy = store.fy, mass = store.mass;
+		for (int k = 0; k < nActive; k++)
+		{
+			int i = active[k];
+			double dt = blockTimesteps.getStepLength(i, timestep);
+			oldVX[i] = vx[i];
+			oldVY[i] = vy[i];
+			vx[i] += fx[i] / mass[i] * dt;
+			vy[i] += fy[i] / mass[i] * dt;
+		}
+		endPhase(SpaceMetrics.Phase.VELOCITY, t);
+
+		moveAndCollide(timestep / blockTimesteps.getSubsteps());
+	}
+
+	/* moveAndCollide() moves every body by dt at its current velocity and
+	 * resolves the collisions on the way: by predicting them when collisions
+	 * are event driven, and otherwise by moving first and then looking for
+	 * bodies that overlap. */
+	private void moveAndCollide(double dt)
+	{
+		long t = timed ? System.nanoTime() : 0;
+		if (collisionEvents == null)
+		{
+			moveAll(dt);
+			endPhase(SpaceMetrics.Phase.MOVE, t);
+			checkCollisions();
+			return;
+		}
+
+		stepCollisions = 0;
+		resolveNanos = 0;
+		collisionEvents.advance(dt);
+		metrics.addCollisions(stepCollisions);
+		swapContacts();
+		if (timed)
+		{
+			// moving the bodies between events is part of finding them
+			addPhase(SpaceMetrics.Phase.COLLISION_DETECT, System.nanoTime() - t - resolveNanos);
+			addPhase(SpaceMetrics.Phase.COLLISION_RESOLVE, resolveNanos);
+		}
+	}
+
+	/* moveAll() moves every body by dt at its current velocity, keeping where it
+	 * was and how fast it went for rewind(). */
+	private void moveAll(double dt)
+	{
+		double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+		double[] oldX = store.oldX, oldY = store.oldY, oldVX = store.oldVX, oldVY = store.oldVY;
+		for (int i = 0; i < nBodies; i++)
+		{
+			oldX[i] = x[i];
+			oldY[i] = y[i];
+			oldVX[i] = vx[i];
+			oldVY[i] = vy[i];
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+		}
+		stepLength = dt;
+	}
+
+	/* endPhase() adds the time since start to phase, if this step is timed, and
+	 * returns the time now so the next phase can start from it. */
+	private long endPhase(SpaceMetrics.Phase phase, long start)
+	{
+		if (!timed)
+		{
+			return 0;
+		}
+		long now = System.nanoTime();
+		addPhase(phase, now - start);
+		return now;
+	}
+
+	/* addPhase() adds nanos to phase, both in the metrics and in the times of
+	 * this step. */
+	private void addPhase(SpaceMetrics.Phase phase, long nanos)
+	{
+		metrics.addPhase(phase, nanos);
+		stepNanos[phase.ordinal()] += nanos;
 	}
 	
 	/* This method moves two bodies <b1, b2> by a fraction of a timestep <rewind>. 
 	 * This is called when two bodies have overlapped more than an allowed tolerance.
 	 * <rewind> should be < 1. */
 	public void rewind(Body b1, Body b2, double rewind) {
+		rewind(b1.getIndex(), b2.getIndex(), rewind);
+		setChangedAndNotifyObservers();
+	}
+
+	/* rewind() moves bodies i and j of the store back to where they were at the
+	 * start of the timestep, and then forward by a fraction <rewind> of it. */
+	private void rewind(int i, int j, double rewind) {
+		double dt = stepLength * rewind;
 	
-		//Update velocities by force
-		Point2D.Double deltaV; // dv = f/m, dv = a
-		
 		// Velocity = (Force / Mass) * timestep. This is F = ma derived for velocity
-		//Recalculate first body's velocity
-		deltaV = new Point2D.Double(b1.getOldForce().getX() / b1.getMass(), b1.getOldForce().getY() / b1.getMass());
-		b1.changeOldVelocityBy(deltaV, timestep * rewind);
-		
-		//Recalculate second body's velocity
-		deltaV = new Point2D.Double(b2.getOldForce().getX()/ b2.getMass(), b2.getOldForce().getY() / b2.getMass());
-		b2.changeOldVelocityBy(deltaV, timestep * rewind);
+		//Recalculate both bodies' velocities from their old ones
+		store.vx[i] = store.oldVX[i] + store.fx[i] / store.mass[i] * dt;
+		store.vy[i] = store.oldVY[i] + store.fy[i] / store.mass[i] * dt;
+		store.vx[j] = store.oldVX[j] + store.fx[j] / store.mass[j] * dt;
+		store.vy[j] = store.oldVY[j] + store.fy[j] / store.mass[j] * dt;
 		
 		//move bodies
-		b1.moveRewind(timestep * rewind);
-		b2.moveRewind(timestep * rewind);
-		
-		setChangedAndNotifyObservers();
+		store.x[i] = store.oldX[i] + store.oldVX[i] * dt;
+		store.y[i] = store.oldY[i] + store.oldVY[i] * dt;
+		store.x[j] = store.oldX[j] + store.oldVX[j] * dt;
+		store.y[j] = store.oldY[j] + store.oldVY[j] * dt;
 	}
 
 	/* calculateForces() calculates the net force on every pair of bodies and
-	 * returns the array of forces of each associated body. The index of the forces
-	 * matches the index of its associated body. */
-	public Point2D.Double[] calculateForces()
+	 * stores the force on each body in the fx and fy arrays of the BodyStore. The
+	 * index of the forces matches the index of its associated body. */
+	public void calculateForces()
 	{
-		double distance, magnitude;
-		Point2D.Double direction;
+		if (forceCalculator != null)
+		{
+			forceCalculator.calculateForces(store, g, pool);
+			return;
+		}
+		if (parallelForces != null)
+		{
+			parallelForces.calculateForces(store, g, pool);
+			return;
+		}
+
+		double[] x = store.x, y = store.y, mass = store.mass;
+		double[] fx = store.fx, fy = store.fy;
+
+		// forces are recalculated from scratch every timestep
+		Arrays.fill(fx, 0);
+		Arrays.fill(fy, 0);
 
 		for (int i = 0; i < nBodies - 1; i++)
 		{
 			for (int j = i + 1; j < nBodies; j++)
 			{
+				// Direction is the vector of the difference between the two x and y positions
+				double dx = x[j] - x[i];
+				double dy = y[j] - y[i];
+
 				// get the distance of the two bodies
-				double temp = (Math.pow((bodies[i].getXPos() - bodies[j].getXPos()), 2)
-						+ Math.pow((bodies[i].getYPos() - bodies[j].getYPos()), 2));
-				distance = Math.sqrt(temp);
+				double distSq = dx * dx + dy * dy;
+				double distance = Math.sqrt(distSq);
 
 				// Force = (G * m1 * m2) / (distance^2)
-				magnitude = (G * bodies[i].getMass() * bodies[j].getMass()) / Math.pow(distance, 2);
-
-				// Direction is the vector of the difference between the two x and y positions
-				direction = new Point2D.Double((bodies[j].getXPos() - bodies[i].getXPos()),
-						(bodies[j].getYPos() - bodies[i].getYPos()));
+				double magnitude = (g * mass[i] * mass[j]) / distSq;
 
 				// calculate values of the forces for x and y components, and add them to the
-				// net forces
-				double ix = (forces[i].getX() + (magnitude * direction.getX()) / distance);
-				double jx = (forces[j].getX() + (magnitude * -direction.getX()) / distance); // j is opposite direction
-				double iy = (forces[i].getY() + (magnitude * direction.getY()) / distance);
-				double jy = (forces[j].getY() + (magnitude * -direction.getY()) / distance); // j is opposite direction
-
-				// set the net force to be the net calculated just previously
-				forces[i].setLocation(ix, iy);
-				forces[j].setLocation(jx, jy);
+				// net forces. j is the opposite direction
+				double forceX = magnitude * dx / distance;
+				double forceY = magnitude * dy / distance;
+				fx[i] += forceX;
+				fy[i] += forceY;
+				fx[j] -= forceX;
+				fy[j] -= forceY;
 			}
 		}
+	}
+
+	/* calculateForces() for block timesteps only has to get the forces on the
+	 * bodies active[0..nActive) right. Each of them is summed against every other
+	 * body; the forces on the other bodies are left alone. */
+	private void calculateForces(int[] active, int nActive)
+	{
+		if (nActive == nBodies)
+		{
+			calculateForces();
+		}
+		else if (forceCalculator != null)
+		{
+			forceCalculator.calculateForces(store, g, pool, active, nActive);
+		}
+		else if (pool == null)
+		{
+			addForcesOnActive(active, 0, nActive);
+		}
+		else
+		{
+			pool.parallelRange(nActive, (start, end) -> addForcesOnActive(active, start, end));
+		}
+	}
 
-		return forces;
+	/* addForcesOnActive() sets the force on bodies active[start..end). */
+	private void addForcesOnActive(int[] active, int start, int end)
+	{
+		double[] x = store.x, y = store.y, mass = store.mass;
+		for (int k = start; k < end; k++)
+		{
+			int i = active[k];
+			double xi = x[i];
+			double yi = y[i];
+			double fxi = 0;
+			double fyi = 0;
+			for (int j = 0; j < nBodies; j++)
+			{
+				if (j == i)
+				{
+					continue;
+				}
+				double dx = x[j] - xi;
+				double dy = y[j] - yi;
+				double distSq = dx * dx + dy * dy;
+				double scale = g * mass[i] * mass[j] / (distSq * Math.sqrt(distSq));
+				fxi += scale * dx;
+				fyi += scale * dy;
+			}
+			store.fx[i] = fxi;
+			store.fy[i] = fyi;
+		}
 	}
 
-	/* updateVelocitiesByForce() uses the given Point2D.Double[] of forces to update
-	 * the velocity of every Body in bodies. The velocities are updated with a call
-	 * to changeVelocityBy() and are scaled by the timestep. */
-	public void updateVelocitiesByForce(Point2D.Double[] forces)
+	/* updateVelocitiesByForce() uses the forces in the BodyStore to update the
+	 * velocity of every Body. The velocities are changed by force / mass and are
+	 * scaled by the timestep. */
+	public void updateVelocitiesByForce()
 	{
-		Point2D.Double deltaV; // dv = f/m, dv = a
+		double[] vx = store.vx, vy = store.vy, oldVX = store.oldVX, oldVY = store.oldVY;
+		double[] fx = store.fx, fy = store.fy, mass = store.mass;
 
 		for (int i = 0; i < nBodies; i++)
 		{
 			// Velocity = (Force / Mass) * timestep. This is F = ma derived for velocity
-			bodies[i].setOldForce(forces[i]);
-			deltaV = new Point2D.Double(forces[i].getX() / bodies[i].getMass(), forces[i].getY() / bodies[i].getMass());
-
-			bodies[i].changeVelocityBy(deltaV, timestep);
+			oldVX[i] = vx[i];
+			oldVY[i] = vy[i];
+			vx[i] += fx[i] / mass[i] * timestep;
+			vy[i] += fy[i] / mass[i] * timestep;
 		}
 	}
 
@@ -203,122 +653,379 @@ public class Space extends Observable implements Runnable
 	 * checkCollisions() checks if any two bodies in bodies are close enough to have
 	 * collided; i.e. the distance from their centers is less than the sum of their
 	 * radii. If two bodies are found to be collided, their velocities will be
-	 * updated accordingly using each body's setVelocity() method.
+	 * updated accordingly using each body's setVelocity() method. Only bodies whose
+	 * paths over the last timestep share a cell of the CollisionGrid are checked
+	 * against each other, since a rewind can move a body anywhere along its path;
+	 * with a NeighbourList the candidates come from there instead. With more
+	 * than one thread the work is done by checkCollisionsInParallel() instead.
 	 */
 	public void checkCollisions()
 	{
+		long start = timed ? System.nanoTime() : 0;
+		stepCollisions = 0;
+		resolveNanos = 0;
+		if (pool != null)
+		{
+			checkCollisionsInParallel();
+		}
+		else
+		{
+			checkCollisionsSerially();
+		}
+		metrics.addCollisions(stepCollisions);
+		swapContacts();
+		if (timed)
+		{
+			addPhase(SpaceMetrics.Phase.COLLISION_DETECT, System.nanoTime() - start - resolveNanos);
+			addPhase(SpaceMetrics.Phase.COLLISION_RESOLVE, resolveNanos);
+		}
+	}
+
+	/* swapContacts() makes this timestep's collisions the ones not to count
+	 * again next time. */
+	private void swapContacts()
+	{
+		PairSet last = prevContacts;
+		prevContacts = currContacts;
+		currContacts = last;
+		currContacts.clear();
+	}
+
+	/* checkCollisionsSerially() is checkCollisions() on a single thread. */
+	private void checkCollisionsSerially()
+	{
+
 		// check bodies for collisions and adjust only collided bodies accordingly
+		double[] radius = store.radius;
+		if (collisionGrid == null)
+		{
+			collisionGrid = new CollisionGrid(BORDER_WIDTH, BORDER_HEIGHT);
+		}
+		// apart from the grid, which the parallel path may have made already
+		if (collisionCandidates == null || collisionCandidates.length < nBodies)
+		{
+			collisionCandidates = new int[nBodies];
+		}
+		boolean listed = neighbourList != null && neighbourList.update(store);
+		if (!listed)
+		{
+			collisionGrid.build(store, true);
+		}
 
-		for (int i = 0; i < bodies.length - 1; i++)
+		for (int i = 0; i < nBodies - 1; i++)
 		{
-			for (int j = i + 1; j < bodies.length; j++)
+			int numCandidates = listed ? neighbourList.findCandidates(i, collisionCandidates)
+					: collisionGrid.findCandidates(i, collisionCandidates);
+			for (int k = 0; k < numCandidates; k++)
 			{
-				Body b1 = bodies[i];
-				Body b2 = bodies[j];
+				int j = collisionCandidates[k];
 				// if the distance between the bodies is less than the sum of their radii,
 				// they've collided. Don't count collisions that have happened on last timestep
-				if ((b1.getPosition().distance(b2.getPosition()) < (b1.getRadius() + b2.getRadius())) &&
-					!b1.getPrevCollisions().contains(b2) )
+				if (distance(i, j) < radius[i] + radius[j] && !prevContacts.contains(i, j))
 				{
-					numCollisions++;
-					System.out.println("Num collisions: " + numCollisions);
-					//check within tolerance. If it's over the allowed tolerance, rewind until they're not
-					double overlap = (b1.getRadius() + b2.getRadius()) - b1.getPosition().distance(b2.getPosition());
-					
-					
-					if (overlap > overlapTolerance ) {
-						//TODO: fix rewind value?
-						double rewind = (overlapTolerance / overlap); 
-						rewind(b1, b2, rewind);
-					} 
-					
-					//add collision to list so we don't include it on the next timestep
-					b1.addCollision(b2);
-					
-					double v1ix = b1.getVelocity().getX(); // initial x-velocity of body 1
-					double v1iy = b1.getVelocity().getY(); // initial y-velocity of body 1
-					double x1i = b1.getXPos(); // initial x-pos of body 1
-					double y1i = b1.getYPos(); // initial y-pos of body 1
-
-					double v2ix = b2.getVelocity().getX(); // initial x-velocity of body 2
-					double v2iy = b2.getVelocity().getY(); // initial y-velocity of body 2
-					double x2i = b2.getXPos(); // initial x-pos of body 2
-					double y2i = b2.getYPos(); // initial y-pos of body 2
-
-					/* blackNumerator, redNumerator, and denominator are variables that correspond
-					 * the the portion of the associated letter equation they represent in the
-					 * assignment files.*/
-
-					// these equations calculate a new velocity for body 1
-					double blackNumeratorA = v2ix * Math.pow(x2i - x1i, 2) + v2iy * (x2i - x1i) * (y2i - y1i);
-					double redNumeratorA = v1ix * Math.pow(y2i - y1i, 2) - v1iy * (x2i - x1i) * (y2i - y1i);
-					double denominatorA = Math.pow(x2i - x1i, 2) + Math.pow(y2i - y1i, 2);
-					double v1fx = (blackNumeratorA + redNumeratorA) / denominatorA;
-
-					double blackNumeratorB = v2ix * (x2i - x1i) * (y2i - y1i) + v2iy * Math.pow(y2i - y1i, 2);
-					double redNumeratorB = v1ix * (y2i - y1i) * (x2i - x1i) + v1iy * Math.pow(x2i - x1i, 2);
-					double denominatorB = Math.pow(x2i - x1i, 2) + Math.pow(y2i - y1i, 2);
-					double v1fy = (blackNumeratorB - redNumeratorB) / denominatorB;
-
-					b1.setVelocity(new Point2D.Double(v1fx, v1fy)); // update b1 velocity
-
-					// these equations calculate a new velocity for body 2
-
-					double blackNumeratorC = v1ix * Math.pow(x2i - x1i, 2) + v1iy * (x2i - x1i) * (y2i - y1i);
-					double redNumeratorC = v2ix * Math.pow(y2i - y1i, 2) - v2iy * (x2i - x1i) * (y2i - y1i);
-					double denominatorC = Math.pow(x2i - x1i, 2) + Math.pow(y2i - y1i, 2);
-					double v2fx = (blackNumeratorC + redNumeratorC) / denominatorC;
-
-					double blackNumeratorD = v1ix * (x2i - x1i) * (y2i - y1i) + v1iy * Math.pow(y2i - y1i, 2);
-					double redNumeratorD = v2ix * (y2i - y1i) * (x2i - x1i) + v2iy * Math.pow(x2i - x1i, 2);
-					double denominatorD = Math.pow(x2i - x1i, 2) + Math.pow(y2i - y1i, 2);
-					double v2fy = (blackNumeratorD - redNumeratorD) / denominatorD;
-
-					b2.setVelocity(new Point2D.Double(v2fx, v2fy));
+					stepCollisions++;
+					if (verbose)
+					{
+						System.out.println("Num collisions: " + (metrics.getCollisions() + stepCollisions));
+					}
+					long resolveStart = timed ? System.nanoTime() : 0;
+					if (resolveCollision(i, j))
+					{
+						setChangedAndNotifyObservers();
+					}
+					currContacts.add(i, j);
+					if (timed)
+					{
+						resolveNanos += System.nanoTime() - resolveStart;
+					}
 				}
-				
-				
 			}
 			
-			//Check collisions on border
-			Body b1 = bodies[i];
-			//Check two vertical walls
-			if (b1.getXPos() <= b1.getRadius() || b1.getXPos() >= (BORDER_WIDTH - b1.getRadius()) && 
-					!b1.getPrevXWallCollision()) {
-				//switch x velocity
-				Point2D.Double newVel = new Point2D.Double(-b1.getVelocity().getX(), b1.getVelocity().getY());
-				b1.setVelocity(newVel);
-				b1.setCurrXWallCollision(true);
+			checkWallCollisions(i);
+		}
+		
+		//check border collisions on last one that gets missed in for loop
+		if (nBodies > 0)
+		{
+			checkWallCollisions(nBodies - 1);
+		}
+	}
+
+	/* checkCollisionsInParallel() finds and resolves collisions in two stages.
+	 * First every worker finds the new contacts for its share of the bodies.
+	 * The contacts are then split into batches where no body appears twice, and
+	 * the contacts of each batch are resolved in parallel, one batch after the
+	 * other. The contacts of a body are resolved in the same order as in
+	 * checkCollisions(); the walls are checked once all contacts are resolved. */
+	private void checkCollisionsInParallel()
+	{
+		int workers = pool.getNumThreads();
+		if (collisionGrid == null)
+		{
+			collisionGrid = new CollisionGrid(BORDER_WIDTH, BORDER_HEIGHT);
+		}
+		if (workerContacts == null)
+		{
+			workerCandidates = new int[workers][nBodies];
+			workerContacts = new ContactList[workers];
+			for (int t = 0; t < workers; t++)
+			{
+				workerContacts[t] = new ContactList();
+			}
+			contacts = new ContactList();
+		}
+		// a rewind moves bodies back along the path they took this timestep, which
+		// can bring them into contact, so every pair whose paths share a cell
+		// becomes a contact. It is only resolved if the two bodies overlap by the
+		// time its turn comes
+		boolean listed = neighbourList != null && neighbourList.update(store);
+		if (!listed)
+		{
+			collisionGrid.build(store, true);
+		}
+
+		// detection: worker t checks a contiguous block of bodies, so joining the
+		// lists in worker order gives the contacts in the order of the serial loop
+		pool.parallelFor(workers, t ->
+		{
+			int[] candidates = workerCandidates[t];
+			ContactList found = workerContacts[t];
+			found.clear();
+			int start = (int) ((long) nBodies * t / workers);
+			int end = (int) ((long) nBodies * (t + 1) / workers);
+			for (int i = start; i < end; i++)
+			{
+				int numCandidates = listed ? neighbourList.findCandidates(i, candidates)
+						: collisionGrid.findCandidates(i, candidates);
+				for (int k = 0; k < numCandidates; k++)
+				{
+					int j = candidates[k];
+					if (!prevContacts.contains(i, j))
+					{
+						found.add(i, j);
+					}
+				}
+			}
+		});
+		contacts.clear();
+		for (ContactList found : workerContacts)
+		{
+			contacts.addAll(found);
+		}
+
+		// resolution: no body is in two contacts of the same batch
+		long resolveStart = timed ? System.nanoTime() : 0;
+		int numBatches = contacts.partitionIntoBatches(nBodies);
+		if (contactResolved == null || contactResolved.length < contacts.size())
+		{
+			contactResolved = new boolean[Math.max(contacts.size(), 2 * nBodies)];
+		}
+		AtomicInteger resolved = new AtomicInteger();
+		for (int b = 0; b < numBatches; b++)
+		{
+			int first = contacts.getBatchStart(b);
+			int size = contacts.getBatchStart(b + 1) - first;
+			if (size < MIN_PARALLEL_BATCH)
+			{
+				resolved.addAndGet(resolveContacts(first, first + size));
+			}
+			else
+			{
+				pool.parallelRange(size, (start, end) -> resolved.addAndGet(resolveContacts(first + start, first + end)));
+			}
+		}
+		stepCollisions = resolved.get();
+		// the pair set is not thread safe, so it is filled in once all batches are done
+		for (int k = 0; k < contacts.size(); k++)
+		{
+			if (contactResolved[k])
+			{
+				currContacts.add(contacts.getFirst(k), contacts.getSecond(k));
+			}
+		}
+		if (timed)
+		{
+			resolveNanos = System.nanoTime() - resolveStart;
+		}
+		if (verbose && stepCollisions > 0)
+		{
+			System.out.println("Num collisions: " + (metrics.getCollisions() + stepCollisions));
+		}
+
+		pool.parallelRange(nBodies, (start, end) ->
+		{
+			for (int i = start; i < end; i++)
+			{
+				checkWallCollisions(i);
 			}
-			//Check two horizontal walls
-			if (b1.getYPos() <= b1.getRadius() || b1.getYPos() >= (BORDER_WIDTH - b1.getRadius()) &&
-					!b1.getPrevYWallCollision()) {
-				//switch y velocity
-				Point2D.Double newVel = new Point2D.Double(b1.getVelocity().getX(), -b1.getVelocity().getY());
-				b1.setVelocity(newVel);
-				b1.setCurrYWallCollision(true);
+		});
+	}
+
+	/* resolveContacts() resolves the contacts [start, end) of contacts whose
+	 * bodies still overlap; an earlier contact may have rewound them apart.
+	 * Marks the ones it resolved in contactResolved, and returns how many there
+	 * were. */
+	private int resolveContacts(int start, int end)
+	{
+		int resolved = 0;
+		for (int k = start; k < end; k++)
+		{
+			int i = contacts.getFirst(k);
+			int j = contacts.getSecond(k);
+			contactResolved[k] = distance(i, j) < store.radius[i] + store.radius[j];
+			if (contactResolved[k])
+			{
+				resolveCollision(i, j);
+				resolved++;
 			}
-			b1.resetCollisions();
 		}
+		return resolved;
+	}
+
+	/* distance() returns the distance between the centers of bodies i and j. */
+	private double distance(int i, int j)
+	{
+		double dx = store.x[i] - store.x[j];
+		double dy = store.y[i] - store.y[j];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/* resolveCollision() handles a new collision between bodies i and j: it
+	 * rewinds them if they overlap by more than overlapTolerance, and then
+	 * updates both velocities for an elastic collision. Only bodies i and j are
+	 * changed. Returns whether the bodies had to be rewound. */
+	private boolean resolveCollision(int i, int j)
+	{
+		//check within tolerance. If it's over the allowed tolerance, rewind until they're not
+		double overlap = (store.radius[i] + store.radius[j]) - distance(i, j);
 		
-		//check border collisions on last one that gets missed in for loop
+		
+		boolean rewound = overlap > overlapTolerance;
+		if (rewound) {
+			//TODO: fix rewind value?
+			double rewind = (overlapTolerance / overlap); 
+			long start = timed ? System.nanoTime() : 0;
+			rewind(i, j, rewind);
+			metrics.addRewind(timed ? System.nanoTime() - start : 0);
+		} 
+		
+		bounce(i, j);
+		return rewound;
+	}
+
+	/* collide() is called by CollisionEvents when bodies i and j touch. It
+	 * bounces them off each other and counts the collision, unless they were
+	 * already touching in the last timestep. */
+	void collide(int i, int j)
+	{
+		long start = timed ? System.nanoTime() : 0;
+		if (currContacts.add(i, j) && !prevContacts.contains(i, j))
+		{
+			stepCollisions++;
+			if (verbose)
+			{
+				System.out.println("Num collisions: " + (metrics.getCollisions() + stepCollisions));
+			}
+		}
+		bounce(i, j);
+		if (timed)
+		{
+			resolveNanos += System.nanoTime() - start;
+		}
+	}
+
+	/* bounce() updates the velocities of bodies i and j for an elastic collision
+	 * between them. */
+	private void bounce(int i, int j)
+	{
+		double[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+
+		double v1ix = vx[i]; // initial x-velocity of body 1
+		double v1iy = vy[i]; // initial y-velocity of body 1
+		double x1i = x[i]; // initial x-pos of body 1
+		double y1i = y[i]; // initial y-pos of body 1
+
+		double v2ix = vx[j]; // initial x-velocity of body 2
+		double v2iy = vy[j]; // initial y-velocity of body 2
+		double x2i = x[j]; // initial x-pos of body 2
+		double y2i = y[j]; // initial y-pos of body 2
+
+		/* blackNumerator, redNumerator, and denominator are variables that correspond
+		 * the the portion of the associated letter equation they represent in the
+		 * assignment files.*/
+		double dx = x2i - x1i;
+		double dy = y2i - y1i;
+		double denominator = dx * dx + dy * dy;
+
+		// these equations calculate a new velocity for body 1
+		double blackNumeratorA = v2ix * (dx * dx) + v2iy * dx * dy;
+		double redNumeratorA = v1ix * (dy * dy) - v1iy * dx * dy;
+		double v1fx = (blackNumeratorA + redNumeratorA) / denominator;
+
+		double blackNumeratorB = v2ix * dx * dy + v2iy * (dy * dy);
+		double redNumeratorB = v1ix * dy * dx - v1iy * (dx * dx);
+		double v1fy = (blackNumeratorB - redNumeratorB) / denominator;
+
+		bodies[i].setVelocity(v1fx, v1fy); // update b1 velocity
+
+		// these equations calculate a new velocity for body 2
+
+		double blackNumeratorC = v1ix * (dx * dx) + v1iy * dx * dy;
+		double redNumeratorC = v2ix * (dy * dy) - v2iy * dx * dy;
+		double v2fx = (blackNumeratorC + redNumeratorC) / denominator;
+
+		double blackNumeratorD = v1ix * dx * dy + v1iy * (dy * dy);
+		double redNumeratorD = v2ix * dy * dx - v2iy * (dx * dx);
+		double v2fy = (blackNumeratorD - redNumeratorD) / denominator;
+
+		bodies[j].setVelocity(v2fx, v2fy);
+	}
+
+	/* checkWallCollisions() bounces body i off the borders of the space, and
+	 * moves its wall collisions of this timestep into its previous ones. */
+	private void checkWallCollisions(int i)
+	{
 		//Check collisions on border
-		Body b1 = bodies[bodies.length - 1];
-		if (b1.getXPos() <= b1.getRadius() || b1.getXPos() >= (BORDER_WIDTH - b1.getRadius()) && 
+		Body b1 = bodies[i];
+		double x = store.x[i], y = store.y[i], r = store.radius[i];
+		//Check two vertical walls
+		if (x <= r || x >= (BORDER_WIDTH - r) && 
 				!b1.getPrevXWallCollision()) {
-			 
-			Point2D.Double newVel = new Point2D.Double(-b1.getVelocity().getX(), b1.getVelocity().getY());
-			b1.setVelocity(newVel);
+			//switch x velocity
+			b1.setVelocity(-store.vx[i], store.vy[i]);
 			b1.setCurrXWallCollision(true);
 		}
-		if (b1.getYPos() <= b1.getRadius() || b1.getYPos() >= (BORDER_WIDTH - b1.getRadius()) &&
+		//Check two horizontal walls
+		if (y <= r || y >= (BORDER_WIDTH - r) &&
 				!b1.getPrevYWallCollision()) {
-			Point2D.Double newVel = new Point2D.Double(b1.getVelocity().getX(), -b1.getVelocity().getY());
-			b1.setVelocity(newVel);
+			//switch y velocity
+			b1.setVelocity(store.vx[i], -store.vy[i]);
 			b1.setCurrYWallCollision(true);
 		}
 		b1.resetCollisions();
-		
+	}
+
+	/* getEnergy() returns the kinetic energy of the bodies plus the potential
+	 * energy of every pair of them, -G m1 m2 / distance. Without collisions and
+	 * with an exact integrator it would never change, so how much it drifts
+	 * shows how accurate a run is. It works through every pair, so it costs about
+	 * as much as a timestep. */
+	public double getEnergy()
+	{
+		double[] x = store.x, y = store.y, mass = store.mass;
+		double kinetic = 0;
+		double potential = 0;
+		for (int i = 0; i < nBodies; i++)
+		{
+			kinetic += 0.5 * mass[i] * (store.vx[i] * store.vx[i] + store.vy[i] * store.vy[i]);
+			for (int j = i + 1; j < nBodies; j++)
+			{
+				double dx = x[j] - x[i];
+				double dy = y[j] - y[i];
+				potential -= g * mass[i] * mass[j] / Math.sqrt(dx * dx + dy * dy);
+			}
+		}
+		return kinetic + potential;
 	}
 
 	/* getBodies() returns the array containing the bodies. */
@@ -327,6 +1034,38 @@ public class Space extends Observable implements Runnable
 		return bodies;
 	}
 
+	/* setNumBodies() makes the first n slots of the store the bodies of this
+	 * Space, so that a Space that only checks collisions can be reused for a set
+	 * of bodies that changes from step to step. n can be at most the capacity
+	 * of the store. The contacts of the last timestep are forgotten, and
+	 * getBodies() can hold more bodies than are in use. */
+	void setNumBodies(int n)
+	{
+		store.setSize(n);
+		nBodies = n;
+		if (bodies.length < n)
+		{
+			Body[] grown = Arrays.copyOf(bodies, n);
+			for (int i = bodies.length; i < n; i++)
+			{
+				grown[i] = new Body(store, i);
+			}
+			bodies = grown;
+		}
+		if (workerCandidates != null && workerCandidates[0].length < n)
+		{
+			workerCandidates = null;
+			workerContacts = null;
+		}
+		prevContacts.clear();
+	}
+
+	/* getBodyStore() returns the arrays holding the state of every body. */
+	public BodyStore getBodyStore()
+	{
+		return store;
+	}
+
 	@Override
 	public void run() {
 		//start timer
@@ -334,31 +1073,54 @@ public class Space extends Observable implements Runnable
 		
 		for (int i = 0; i < numTimesteps; i++) {
 			moveBodies();
-			setChangedAndNotifyObservers();
 			
-			try {
-				Thread.sleep(5);
-			} catch (InterruptedException e) {
-				System.out.println("Problem sleeping");
-				e.printStackTrace();
-			} 
+			if (stepDelay > 0) {
+				try {
+					Thread.sleep(stepDelay);
+				} catch (InterruptedException e) {
+					System.out.println("Problem sleeping");
+					e.printStackTrace();
+				} 
+			}
 			
 			//For testing purposes, in practice comment this
-			if (i % 1000 == 0) System.out.println(i);
+			if (verbose && i % 1000 == 0) System.out.println(i);
 		}
 		
-		System.out.println("I have stopped");
 		//end timer
 		long endTime = System.nanoTime();
 		long duration = (endTime - startTime);
-		System.out.println("Time is " + duration/1000000000 + " seconds, " + duration/1000 + " microseconds");
-		System.out.println("Detected collisions: " + numCollisions);
+		if (verbose) {
+			System.out.println("I have stopped");
+			System.out.println("Time is " + duration/1000000000 + " seconds, " + duration/1000 + " microseconds");
+			System.out.println("Detected collisions: " + getNumCollisions());
+		}
 		
 		return;
 	}
 	
 	public int getNumCollisions() {
-		return numCollisions;
+		return (int) metrics.getCollisions();
+	}
+
+	/* getPrevContacts() returns the pairs of bodies that collided in the last
+	 * timestep, which are not counted again in the next one. The set belongs to
+	 * the Space and is only meant to be read. */
+	public PairSet getPrevContacts()
+	{
+		return prevContacts;
+	}
+
+	/* setNumCollisions() sets the collision counter, for restoring a checkpoint. */
+	void setNumCollisions(int n) {
+		metrics.setCollisions(n);
+	}
+
+	/* getMetrics() returns the step, collision and timing counters of this
+	 * space. */
+	public SpaceMetrics getMetrics()
+	{
+		return metrics;
 	}
 	
 }
@@ -0,0 +1,223 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/* SpaceCheckpoint is a copy of everything a Space needs to carry on from the
+ * timestep it was taken at: every array of its BodyStore (including the old
+ * positions, velocities and forces that rewind() uses), the pairs of bodies
+ * that collided in the last timestep, every body's wall collision flags, the
+ * step counter, the collision count, and its g, timestep and overlap
+ * tolerance. A Space restored from a checkpoint continues exactly as the
+ * original would have, as long as it is run with the same force calculator
+ * and number of threads.
+ *
+ * Taking a checkpoint only copies arrays, so it is quick to do on the
+ * simulation thread; writing it to disk can then happen on another thread. */
+public class SpaceCheckpoint
+{
+	private static final int MAGIC = 0x4E42434B; // "NBCK"
+	private static final int VERSION = 2; // files of any other version are rejected
+
+	private final BodyStore store;
+	private final long step;
+	private final int numCollisions;
+	private final int[] wallFlags;
+	private final PairSet prevContacts;
+	private final double g;
+	private final double timestep;
+	private final double overlapTolerance;
+
+	private SpaceCheckpoint(BodyStore store, long step, int numCollisions, int[] wallFlags, PairSet prevContacts,
+			double g, double timestep, double overlapTolerance)
+	{
+		this.store = store;
+		this.step = step;
+		this.numCollisions = numCollisions;
+		this.wallFlags = wallFlags;
+		this.prevContacts = prevContacts;
+		this.g = g;
+		this.timestep = timestep;
+		this.overlapTolerance = overlapTolerance;
+	}
+
+	/* capture() copies the state of space. It must not be called while space is
+	 * in the middle of a timestep. */
+	public static SpaceCheckpoint capture(Space space)
+	{
+		BodyStore source = space.getBodyStore();
+		Body[] bodies = space.getBodies();
+		int n = source.getSize();
+
+		BodyStore store = new BodyStore(n);
+		for (int i = 0; i < n; i++)
+		{
+			store.copy(source, i, i);
+		}
+		int[] wallFlags = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			wallFlags[i] = bodies[i].getWallCollisionFlags();
+		}
+		PairSet prevContacts = new PairSet();
+		addAll(prevContacts, space.getPrevContacts());
+		return new SpaceCheckpoint(store, space.getStep(), space.getNumCollisions(), wallFlags, prevContacts,
+				space.getG(), space.getTimestep(), space.getOverlapTolerance());
+	}
+
+	private static void addAll(PairSet to, PairSet from)
+	{
+		for (int k = 0; k < from.size(); k++)
+		{
+			to.add(from.getFirst(k), from.getSecond(k));
+		}
+	}
+
+	/* restore() creates a new Space in the state of this checkpoint. The
+	 * checkpoint can be restored more than once. */
+	public Space restore()
+	{
+		int n = store.getSize();
+		BodyStore copy = new BodyStore(n);
+		for (int i = 0; i < n; i++)
+		{
+			copy.copy(store, i, i);
+		}
+		Space space = new Space(copy);
+		Body[] bodies = space.getBodies();
+		for (int i = 0; i < n; i++)
+		{
+			bodies[i].setWallCollisionFlags(wallFlags[i]);
+		}
+		addAll(space.getPrevContacts(), prevContacts);
+		space.setStep(step);
+		space.setNumCollisions(numCollisions);
+		space.setG(g);
+		space.setTimestep(timestep);
+		space.setOverlapTolerance(overlapTolerance);
+		return space;
+	}
+
+	/* getStep() returns the timestep this checkpoint was taken at. */
+	public long getStep()
+	{
+		return step;
+	}
+
+	/* writeTo() saves this checkpoint to file. It is written to a temporary file
+	 * first and then moved into place, so file always holds a whole checkpoint,
+	 * either this one or the one before. */
+	public void writeTo(Path file) throws IOException
+	{
+		Path parent = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)))
+			{
+				int n = store.getSize();
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(n);
+				out.writeLong(step);
+				out.writeInt(numCollisions);
+				out.writeDouble(g);
+				out.writeDouble(timestep);
+				out.writeDouble(overlapTolerance);
+				for (double[] values : arrays(store))
+				{
+					for (int i = 0; i < n; i++)
+					{
+						out.writeDouble(values[i]);
+					}
+				}
+				for (int i = 0; i < n; i++)
+				{
+					out.writeByte(wallFlags[i]);
+				}
+				out.writeInt(prevContacts.size());
+				for (int k = 0; k < prevContacts.size(); k++)
+				{
+					out.writeInt(prevContacts.getFirst(k));
+					out.writeInt(prevContacts.getSecond(k));
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/* readFrom() loads a checkpoint saved by writeTo(). */
+	public static SpaceCheckpoint readFrom(Path file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file + " is not a checkpoint file");
+			}
+			int version = in.readInt();
+			if (version != VERSION)
+			{
+				throw new IOException(file + " has unsupported version " + version);
+			}
+			int n = in.readInt();
+			long step = in.readLong();
+			int numCollisions = in.readInt();
+			double g = in.readDouble();
+			double timestep = in.readDouble();
+			double overlapTolerance = in.readDouble();
+			if (!(timestep > 0) || !(overlapTolerance >= 0))
+			{
+				throw new IOException(file + " has timestep " + timestep + " and overlap tolerance " + overlapTolerance);
+			}
+
+			BodyStore store = new BodyStore(n);
+			for (double[] values : arrays(store))
+			{
+				for (int i = 0; i < n; i++)
+				{
+					values[i] = in.readDouble();
+				}
+			}
+			int[] wallFlags = new int[n];
+			PairSet prevContacts = new PairSet();
+			for (int i = 0; i < n; i++)
+			{
+				wallFlags[i] = in.readByte();
+			}
+			int count = in.readInt();
+			for (int k = 0; k < count; k++)
+			{
+				prevContacts.add(readIndex(in, n), readIndex(in, n));
+			}
+			return new SpaceCheckpoint(store, step, numCollisions, wallFlags, prevContacts, g, timestep, overlapTolerance);
+		}
+	}
+
+	private static int readIndex(DataInputStream in, int n) throws IOException
+	{
+		int index = in.readInt();
+		if (index < 0 || index >= n)
+		{
+			throw new IOException("Body index " + index + " out of range");
+		}
+		return index;
+	}
+
+	/* arrays() returns every array of store, in the order they are saved. */
+	private static double[][] arrays(BodyStore store)
+	{
+		return new double[][] { store.x, store.y, store.vx, store.vy, store.mass, store.radius, store.fx, store.fy,
+				store.oldX, store.oldY, store.oldVX, store.oldVY };
+	}
+}
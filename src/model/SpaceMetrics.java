@@ -0,0 +1,255 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/* SpaceMetrics holds the counters of one Space: steps, collisions, rewinds and
+ * dropped collision events, the recent steps and collisions per second, and
+ * how long each phase of a step takes. The counters are always kept, and cost
+ * a few additions per step. The phases are only timed while timing is enabled
+ * here or a JFR recording has the n-Body step event turned on, since that
+ * takes a System.nanoTime() call around every phase.
+ *
+ * Almost everything is written only by the thread running the simulation, and
+ * at most once per phase, so no locks or atomic updates are needed. The
+ * exceptions are the rewinds, which can happen on any worker thread and are
+ * added up in LongAdders. Readers on other threads, such as JMX, see the values
+ * as of the end of a recent step.
+ *
+ * register() makes the metrics visible over JMX. */
+public class SpaceMetrics implements SpaceMetricsMXBean
+{
+	/* The phases of a step. COLLISION_DETECT includes bouncing off the walls,
+	 * and COLLISION_RESOLVE includes rewinding, which is also timed on its own
+	 * as REWIND. With more than one thread REWIND adds up the time spent on
+	 * every thread, so it can be more than COLLISION_RESOLVE. */
+	public enum Phase
+	{
+		FORCE, VELOCITY, MOVE, COLLISION_DETECT, COLLISION_RESOLVE, REWIND, NOTIFY
+	}
+
+	private static final long RATE_WINDOW = 1_000_000_000L; // nanoseconds the rates are measured over
+
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private final LongAdder rewindNanos = new LongAdder();
+	private final LongAdder rewinds = new LongAdder();
+	private volatile long collisions;
+	private volatile long droppedEvents;
+	private volatile long timedSteps;
+	private volatile long steps;
+	private volatile boolean timingEnabled;
+	private volatile double stepsPerSecond;
+	private volatile double collisionsPerSecond;
+	private long windowStart = System.nanoTime();
+	private long windowSteps;
+	private long windowCollisions;
+	private ObjectName name; // set once registered with JMX
+
+	/* addPhase() adds nanos to the time spent in phase. */
+	void addPhase(Phase phase, long nanos)
+	{
+		phaseNanos[phase.ordinal()] += nanos;
+	}
+
+	/* addRewind() counts a rewind that took nanos, or 0 if it was not timed. It
+	 * can be called from any thread. */
+	void addRewind(long nanos)
+	{
+		rewinds.increment();
+		if (nanos != 0)
+		{
+			rewindNanos.add(nanos);
+		}
+	}
+
+	/* addCollisions() adds the collisions of a step. */
+	void addCollisions(long n)
+	{
+		collisions += n;
+	}
+
+	/* addDroppedEvents() counts collisions that were missed because a body had
+	 * run out of collisions in its timestep. */
+	void addDroppedEvents(long n)
+	{
+		droppedEvents += n;
+	}
+
+	/* setCollisions() sets the collision count, for restoring a checkpoint. */
+	void setCollisions(long n)
+	{
+		collisions = n;
+	}
+
+	/* endStep() counts a finished step and updates the rates once a second. */
+	void endStep(boolean timed)
+	{
+		if (timed)
+		{
+			timedSteps++;
+		}
+		long now = System.nanoTime();
+		long elapsed = now - windowStart;
+		long s = steps + 1;
+		if (elapsed >= RATE_WINDOW)
+		{
+			stepsPerSecond = (s - windowSteps) * 1e9 / elapsed;
+			collisionsPerSecond = (collisions - windowCollisions) * 1e9 / elapsed;
+			windowStart = now;
+			windowSteps = s;
+			windowCollisions = collisions;
+		}
+		steps = s;
+	}
+
+	/* getPhaseNanos() returns the total time spent in phase while timed. */
+	public long getPhaseNanos(Phase phase)
+	{
+		return phase == Phase.REWIND ? rewindNanos.sum() : phaseNanos[phase.ordinal()];
+	}
+
+	/* register() registers these metrics with the platform MBean server as
+	 * nbody:type=Space,name=<name>, replacing anything already registered
+	 * under that name. */
+	public void register(String name) throws JMException
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName("nbody:type=Space,name=" + ObjectName.quote(name));
+		if (server.isRegistered(objectName))
+		{
+			server.unregisterMBean(objectName);
+		}
+		server.registerMBean(this, objectName);
+		this.name = objectName;
+	}
+
+	/* unregister() removes these metrics from the MBean server, if they were
+	 * registered. */
+	public void unregister() throws JMException
+	{
+		if (name != null)
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	@Override
+	public long getSteps()
+	{
+		return steps;
+	}
+
+	@Override
+	public long getCollisions()
+	{
+		return collisions;
+	}
+
+	@Override
+	public long getRewinds()
+	{
+		return rewinds.sum();
+	}
+
+	@Override
+	public long getDroppedEvents()
+	{
+		return droppedEvents;
+	}
+
+	@Override
+	public double getStepsPerSecond()
+	{
+		return stepsPerSecond;
+	}
+
+	@Override
+	public double getCollisionsPerSecond()
+	{
+		return collisionsPerSecond;
+	}
+
+	@Override
+	public boolean isTimingEnabled()
+	{
+		return timingEnabled;
+	}
+
+	@Override
+	public void setTimingEnabled(boolean enabled)
+	{
+		timingEnabled = enabled;
+	}
+
+	@Override
+	public long getTimedSteps()
+	{
+		return timedSteps;
+	}
+
+	@Override
+	public double getForceMillis()
+	{
+		return millis(Phase.FORCE);
+	}
+
+	@Override
+	public double getVelocityMillis()
+	{
+		return millis(Phase.VELOCITY);
+	}
+
+	@Override
+	public double getMoveMillis()
+	{
+		return millis(Phase.MOVE);
+	}
+
+	@Override
+	public double getCollisionDetectMillis()
+	{
+		return millis(Phase.COLLISION_DETECT);
+	}
+
+	@Override
+	public double getCollisionResolveMillis()
+	{
+		return millis(Phase.COLLISION_RESOLVE);
+	}
+
+	@Override
+	public double getRewindMillis()
+	{
+		return millis(Phase.REWIND);
+	}
+
+	@Override
+	public double getNotifyMillis()
+	{
+		return millis(Phase.NOTIFY);
+	}
+
+	private double millis(Phase phase)
+	{
+		long timed = timedSteps; // reading the volatile makes the times of the finished steps visible
+		return timed == 0 ? 0 : getPhaseNanos(phase) / 1e6;
+	}
+
+	/* resetTimings() sets the phase times back to zero. Calling it while a step
+	 * is running can leave part of that step's times behind. */
+	@Override
+	public void resetTimings()
+	{
+		for (int p = 0; p < phaseNanos.length; p++)
+		{
+			phaseNanos[p] = 0;
+		}
+		rewindNanos.reset();
+		timedSteps = 0;
+	}
+}
@@ -0,0 +1,47 @@
+package model;
+
+/* SpaceMetricsMXBean is the management interface of SpaceMetrics, as seen by
+ * JMX clients such as JConsole or VisualVM. The phase times are totals in
+ * milliseconds over the steps that were timed, which is every step since
+ * timing was turned on. */
+public interface SpaceMetricsMXBean
+{
+	long getSteps();
+
+	long getCollisions();
+
+	long getRewinds();
+
+	/* Collisions of event driven collisions that were missed because a body
+	 * had run out of collisions in its timestep; those bodies may overlap or
+	 * have passed through each other. */
+	long getDroppedEvents();
+
+	/* Rates over the last second or so of simulation. */
+	double getStepsPerSecond();
+
+	double getCollisionsPerSecond();
+
+	boolean isTimingEnabled();
+
+	void setTimingEnabled(boolean enabled);
+
+	long getTimedSteps();
+
+	double getForceMillis();
+
+	double getVelocityMillis();
+
+	double getMoveMillis();
+
+	double getCollisionDetectMillis();
+
+	double getCollisionResolveMillis();
+
+	double getRewindMillis();
+
+	double getNotifyMillis();
+
+	/* resetTimings() sets the phase times and timed steps back to zero. */
+	void resetTimings();
+}
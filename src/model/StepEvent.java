@@ -0,0 +1,62 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/* StepEvent is the JFR event for one step of a Space, with the time spent in
+ * each phase. It is off unless a recording turns it on, e.g.
+ *
+ *   java -XX:StartFlightRecording:filename=run.jfr,settings=profile ...
+ *
+ * with nbody.Step enabled, or in JDK Mission Control. While it is off the
+ * phases are not timed at all. */
+@Name("nbody.Step")
+@Label("Simulation Step")
+@Category("n-Body")
+@Description("One timestep of a Space, split into its phases")
+@StackTrace(false)
+class StepEvent extends Event
+{
+	@Label("Step")
+	long step;
+
+	@Label("Bodies")
+	int bodies;
+
+	@Label("Collisions")
+	int collisions;
+
+	@Label("Force")
+	@Timespan(Timespan.NANOSECONDS)
+	long force;
+
+	@Label("Velocity Update")
+	@Timespan(Timespan.NANOSECONDS)
+	long velocity;
+
+	@Label("Move")
+	@Timespan(Timespan.NANOSECONDS)
+	long move;
+
+	@Label("Collision Detection")
+	@Timespan(Timespan.NANOSECONDS)
+	long collisionDetect;
+
+	@Label("Collision Resolution")
+	@Timespan(Timespan.NANOSECONDS)
+	long collisionResolve;
+
+	@Label("Rewind")
+	@Description("Time spent rewinding bodies, added up over every thread")
+	@Timespan(Timespan.NANOSECONDS)
+	long rewind;
+
+	@Label("Notify")
+	@Timespan(Timespan.NANOSECONDS)
+	long notify;
+}
@@ -0,0 +1,173 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* TrajectoryReader reads the frames of a trajectory file written by a
+ * TrajectoryRecorder, in any order. The file is memory mapped a chunk of frames
+ * at a time, so jumping to any frame only costs mapping its chunk. */
+public class TrajectoryReader implements Closeable
+{
+	private final FileChannel channel;
+	private final int nBodies;
+	private final boolean velocities;
+	private final long dataStart;
+	private final long frameSize;
+	private final int chunkFrames;
+	private final int numFrames;
+	private final double[] mass;
+	private final double[] radius;
+	private MappedByteBuffer chunk;
+	private int chunkIndex = -1; // which chunk is mapped
+
+	/* Opens the trajectory file and reads its header. */
+	public TrajectoryReader(Path file) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				Math.min(channel.size(), TrajectoryRecorder.HEADER_SIZE));
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.capacity() < TrajectoryRecorder.HEADER_SIZE || header.getInt() != TrajectoryRecorder.MAGIC)
+		{
+			channel.close();
+			throw new IOException(file + " is not a trajectory file");
+		}
+		int version = header.getInt();
+		if (version != TrajectoryRecorder.VERSION)
+		{
+			channel.close();
+			throw new IOException(file + " has unsupported version " + version);
+		}
+		nBodies = header.getInt();
+		velocities = (header.getInt() & TrajectoryRecorder.VELOCITIES) != 0;
+		long recordedFrames = header.getLong();
+
+		frameSize = TrajectoryRecorder.frameSize(nBodies, velocities);
+		dataStart = TrajectoryRecorder.HEADER_SIZE + 16L * nBodies;
+		chunkFrames = (int) Math.max(1, TrajectoryRecorder.CHUNK_BYTES / frameSize);
+		// only trust frames that were completely written
+		long completeFrames = Math.max(0, (channel.size() - dataStart) / frameSize);
+		numFrames = (int) Math.min(Integer.MAX_VALUE, Math.min(recordedFrames, completeFrames));
+
+		MappedByteBuffer bodies = channel.map(FileChannel.MapMode.READ_ONLY, TrajectoryRecorder.HEADER_SIZE, 16L * nBodies);
+		bodies.order(ByteOrder.LITTLE_ENDIAN);
+		mass = new double[nBodies];
+		radius = new double[nBodies];
+		bodies.asDoubleBuffer().get(mass);
+		bodies.position(8 * nBodies);
+		bodies.asDoubleBuffer().get(radius);
+	}
+
+	public int getNumBodies()
+	{
+		return nBodies;
+	}
+
+	public int getNumFrames()
+	{
+		return numFrames;
+	}
+
+	/* hasVelocities() returns whether the frames hold velocities as well as
+	 * positions. */
+	public boolean hasVelocities()
+	{
+		return velocities;
+	}
+
+	/* getStep() returns the timestep that frame was recorded at. */
+	public long getStep(int frame) throws IOException
+	{
+		return frame(frame).getLong();
+	}
+
+	/* findFrame() returns the last frame recorded at or before step, or 0 if
+	 * step is before the first frame. */
+	public int findFrame(long step) throws IOException
+	{
+		int low = 0;
+		int high = numFrames - 1;
+		while (low < high)
+		{
+			int mid = (low + high + 1) >>> 1;
+			if (getStep(mid) <= step)
+			{
+				low = mid;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/* readFrame() copies the positions in frame into snapshot. */
+	public void readFrame(int frame, Snapshot snapshot) throws IOException
+	{
+		MappedByteBuffer buffer = frame(frame);
+		long step = buffer.getLong();
+		snapshot.resize(nBodies);
+		buffer.asDoubleBuffer().get(snapshot.x, 0, nBodies);
+		buffer.position(buffer.position() + 8 * nBodies);
+		buffer.asDoubleBuffer().get(snapshot.y, 0, nBodies);
+		System.arraycopy(radius, 0, snapshot.radius, 0, nBodies);
+		snapshot.setStep(step);
+	}
+
+	/* readFrame() copies the masses, radii, positions and, if they were
+	 * recorded, velocities in frame into store. */
+	public void readFrame(int frame, BodyStore store) throws IOException
+	{
+		if (store.getSize() != nBodies)
+		{
+			throw new IllegalArgumentException("The file has " + nBodies + " bodies, but the store has " + store.getSize());
+		}
+		MappedByteBuffer buffer = frame(frame);
+		buffer.getLong();
+		buffer.asDoubleBuffer().get(store.x, 0, nBodies);
+		buffer.position(buffer.position() + 8 * nBodies);
+		buffer.asDoubleBuffer().get(store.y, 0, nBodies);
+		if (velocities)
+		{
+			buffer.position(buffer.position() + 8 * nBodies);
+			buffer.asDoubleBuffer().get(store.vx, 0, nBodies);
+			buffer.position(buffer.position() + 8 * nBodies);
+			buffer.asDoubleBuffer().get(store.vy, 0, nBodies);
+		}
+		System.arraycopy(mass, 0, store.mass, 0, nBodies);
+		System.arraycopy(radius, 0, store.radius, 0, nBodies);
+	}
+
+	/* frame() maps the chunk holding frame if needed, and returns it positioned
+	 * at the start of the frame. */
+	private MappedByteBuffer frame(int frame) throws IOException
+	{
+		if (frame < 0 || frame >= numFrames)
+		{
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + numFrames);
+		}
+		int index = frame / chunkFrames;
+		if (index != chunkIndex)
+		{
+			long start = dataStart + (long) index * chunkFrames * frameSize;
+			long size = Math.min((long) chunkFrames * frameSize, dataStart + numFrames * frameSize - start);
+			chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			chunk.order(ByteOrder.LITTLE_ENDIAN);
+			chunkIndex = index;
+		}
+		chunk.position((int) ((long) (frame % chunkFrames) * frameSize));
+		return chunk;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,131 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* TrajectoryRecorder writes the state of the bodies at chosen timesteps to a
+ * binary trajectory file, through memory mapped regions of the file. The file
+ * starts with a header:
+ *
+ *   int magic, int version, int nBodies, int flags, long frameCount, long 0,
+ *   double[nBodies] mass, double[nBodies] radius
+ *
+ * followed by frameCount frames of the same size:
+ *
+ *   long step, double[nBodies] x, double[nBodies] y,
+ *   and when flags has VELOCITIES: double[nBodies] vx, double[nBodies] vy
+ *
+ * Every number is little endian. Because every frame has the same size, frame
+ * k can be found without reading the ones before it, and the frame count in the
+ * header is updated with every frame, so a file cut short by a crash can still
+ * be read up to its last complete frame. */
+public class TrajectoryRecorder implements Closeable
+{
+	static final int MAGIC = 0x4E424459; // "NBDY"
+	static final int VERSION = 1;
+	static final int VELOCITIES = 1;
+	static final int HEADER_SIZE = 32;
+	static final int FRAME_COUNT_OFFSET = 16;
+	static final long CHUNK_BYTES = 64L << 20; // how much of the file is mapped at a time
+
+	private final FileChannel channel;
+	private final int nBodies;
+	private final boolean velocities;
+	private final long dataStart; // where the first frame starts
+	private final long frameSize;
+	private final int chunkFrames; // frames per mapped chunk
+	private final MappedByteBuffer header;
+	private MappedByteBuffer chunk;
+	private long numFrames;
+
+	/* Creates the file, replacing any file that is already there, and writes the
+	 * header for the bodies in store. When velocities is true, the velocities
+	 * are saved with every frame as well as the positions. */
+	public TrajectoryRecorder(Path file, BodyStore store, boolean velocities) throws IOException
+	{
+		this.nBodies = store.getSize();
+		this.velocities = velocities;
+		this.frameSize = frameSize(nBodies, velocities);
+		this.dataStart = HEADER_SIZE + 16L * nBodies;
+		this.chunkFrames = (int) Math.max(1, CHUNK_BYTES / frameSize);
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataStart);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(nBodies);
+		header.putInt(velocities ? VELOCITIES : 0);
+		header.putLong(0);
+		header.putLong(0);
+		header.asDoubleBuffer().put(store.mass, 0, nBodies);
+		header.position(header.position() + 8 * nBodies);
+		header.asDoubleBuffer().put(store.radius, 0, nBodies);
+	}
+
+	/* frameSize() returns the size in bytes of one frame of nBodies bodies. */
+	static long frameSize(int nBodies, boolean velocities)
+	{
+		return 8 + (velocities ? 32L : 16L) * nBodies;
+	}
+
+	/* record() appends a frame with the state of the bodies in store at the given
+	 * step. store must hold as many bodies as the one the file was created for. */
+	public void record(BodyStore store, long step) throws IOException
+	{
+		if (store.getSize() != nBodies)
+		{
+			throw new IllegalArgumentException("Recording " + nBodies + " bodies, but the store has " + store.getSize());
+		}
+		if (numFrames % chunkFrames == 0)
+		{
+			// the last chunk is full, so map the next one, which grows the file
+			long start = dataStart + numFrames * frameSize;
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, chunkFrames * frameSize);
+			chunk.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		chunk.putLong(step);
+		putDoubles(store.x);
+		putDoubles(store.y);
+		if (velocities)
+		{
+			putDoubles(store.vx);
+			putDoubles(store.vy);
+		}
+		numFrames++;
+		header.putLong(FRAME_COUNT_OFFSET, numFrames);
+	}
+
+	/* putDoubles() copies the first nBodies values of values into the chunk. */
+	private void putDoubles(double[] values)
+	{
+		chunk.asDoubleBuffer().put(values, 0, nBodies);
+		chunk.position(chunk.position() + 8 * nBodies);
+	}
+
+	/* getNumFrames() returns the number of frames recorded so far. */
+	public long getNumFrames()
+	{
+		return numFrames;
+	}
+
+	/* close() flushes the file and cuts off the unused end of the last chunk. */
+	@Override
+	public void close() throws IOException
+	{
+		header.force();
+		if (chunk != null)
+		{
+			chunk.force();
+		}
+		channel.truncate(dataStart + numFrames * frameSize);
+		channel.close();
+	}
+}
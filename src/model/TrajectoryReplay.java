@@ -0,0 +1,97 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/* TrajectoryReplay plays back a trajectory file as a SnapshotSource, so a view
+ * can show a recorded run exactly like a live one. While playing, every call to
+ * latest() moves forward by the playback speed in frames; it can also be paused
+ * and moved to any frame or timestep. Like any SnapshotSource, latest() is only
+ * meant to be called by one thread, but the replay can be controlled from
+ * another, such as the JavaFX Application Thread while a view draws on a
+ * thread of its own. */
+public class TrajectoryReplay implements SnapshotSource
+{
+	private final TrajectoryReader reader;
+	private final Snapshot snapshot = new Snapshot();
+	private int frame;
+	private int loadedFrame = -1;
+	private int speed = 1; // frames per call to latest()
+	private boolean playing = true;
+
+	public TrajectoryReplay(TrajectoryReader reader)
+	{
+		this.reader = reader;
+	}
+
+	/* latest() returns the current frame, and moves on to the next one if the
+	 * replay is playing. At the last frame the replay pauses. */
+	@Override
+	public synchronized Snapshot latest()
+	{
+		if (reader.getNumFrames() == 0)
+		{
+			return null;
+		}
+		try
+		{
+			if (loadedFrame != frame)
+			{
+				reader.readFrame(frame, snapshot);
+				loadedFrame = frame;
+			}
+			if (playing)
+			{
+				step(speed);
+				playing = frame < reader.getNumFrames() - 1;
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return snapshot;
+	}
+
+	/* step() moves the given number of frames forward, or backwards if frames is
+	 * negative, staying within the recording. */
+	public synchronized void step(int frames)
+	{
+		frame = (int) Math.max(0, Math.min(reader.getNumFrames() - 1L, (long) frame + frames));
+	}
+
+	/* seekToFrame() moves to the given frame. */
+	public synchronized void seekToFrame(int frame)
+	{
+		this.frame = 0;
+		step(frame);
+	}
+
+	/* seekToStep() moves to the last frame recorded at or before step. */
+	public synchronized void seekToStep(long step) throws IOException
+	{
+		frame = reader.findFrame(step);
+	}
+
+	public synchronized int getFrame()
+	{
+		return frame;
+	}
+
+	public synchronized void setPlaying(boolean playing)
+	{
+		this.playing = playing;
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		return playing;
+	}
+
+	/* setSpeed() sets how many frames to move forward on every call to latest()
+	 * while playing. */
+	public synchronized void setSpeed(int speed)
+	{
+		this.speed = speed;
+	}
+}
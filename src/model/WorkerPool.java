@@ -0,0 +1,74 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/* WorkerPool is the set of worker threads that the parallel parts of the
+ * simulation share. Work is handed out as a number of numbered tasks, and the
+ * caller waits until every task has finished. */
+public class WorkerPool
+{
+	private final ForkJoinPool pool;
+	private final int numThreads;
+
+	/* Creates a pool with the given number of worker threads. The workers are
+	 * daemon threads, so they do not keep the program alive. */
+	public WorkerPool(int numThreads)
+	{
+		if (numThreads < 1)
+		{
+			throw new IllegalArgumentException("numThreads must be at least 1, was " + numThreads);
+		}
+		this.numThreads = numThreads;
+		this.pool = new ForkJoinPool(numThreads);
+	}
+
+	/* getNumThreads() returns the number of worker threads in this pool. */
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/* parallelFor() runs task.accept(t) for every t in [0, nTasks) on the workers
+	 * of this pool and returns once all of them are done. Any exception thrown
+	 * by a task is rethrown here. */
+	public void parallelFor(int nTasks, IntConsumer task)
+	{
+		if (nTasks == 1)
+		{
+			task.accept(0);
+			return;
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(nTasks);
+		for (int t = 0; t < nTasks; t++)
+		{
+			final int id = t;
+			tasks.add(ForkJoinTask.adapt(() -> task.accept(id)));
+		}
+		pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+	}
+
+	/* parallelRange() splits [0, n) into one contiguous block per worker and runs
+	 * task.accept(start, end) on each block. */
+	public void parallelRange(int n, RangeTask task)
+	{
+		int blocks = Math.max(1, Math.min(numThreads, n));
+		parallelFor(blocks, b -> task.accept((int) ((long) n * b / blocks), (int) ((long) n * (b + 1) / blocks)));
+	}
+
+	/* shutdown() stops the worker threads once they have finished their work. */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/* RangeTask is a piece of work over the indices [start, end). */
+	public interface RangeTask
+	{
+		void accept(int start, int end);
+	}
+}
@@ -1,10 +1,46 @@
 package test;
 
+import static org.junit.Assume.assumeTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
+import model.BarnesHutForceCalculator;
+import model.BlockTimesteps;
 import model.Body;
+import model.BodyStore;
+import model.CollisionGrid;
+import model.ContactList;
+import model.DomainNode;
+import model.FloatForceCalculator;
+import model.ForceCalculator;
+import model.PairSet;
+import model.ParticleMeshForceCalculator;
+import model.ScenarioFile;
+import model.ScenarioGenerator;
+import model.Snapshot;
+import model.SnapshotBuffer;
+import model.Space;
+import model.SpaceCheckpoint;
+import model.SpaceMetrics;
+import model.TrajectoryReader;
+import model.TrajectoryRecorder;
+import model.WorkerPool;
+import view.DensityMap;
+import view.FrameRenderer;
 
 /* Tests is the JUnit 5 testing class. */
 public class Tests
@@ -85,4 +121,840 @@ public class Tests
 		assertEquals(-10.0, b.getPosition().getX());
 		assertEquals(-10.0, b.getPosition().getY());
 	}
+	
+	@Test
+	public void testParallelForcesMatchSerialForces()
+	{
+		Body[] serialBodies = new Body[50];
+		Body[] parallelBodies = new Body[50];
+		for (int i = 0; i < serialBodies.length; i++)
+		{
+			serialBodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+			parallelBodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+		}
+		Space serial = new Space(serialBodies);
+		Space parallel = new Space(parallelBodies);
+		parallel.setNumThreads(4);
+		
+		serial.calculateForces();
+		parallel.calculateForces();
+		BodyStore expected = serial.getBodyStore();
+		BodyStore actual = parallel.getBodyStore();
+		
+		for (int i = 0; i < expected.getSize(); i++)
+		{
+			assertEquals(expected.fx[i], actual.fx[i], 1e-9);
+			assertEquals(expected.fy[i], actual.fy[i], 1e-9);
+		}
+	}
+	
+	@Test
+	public void testBarnesHutWithZeroThetaMatchesAllPairs()
+	{
+		Body[] directBodies = new Body[100];
+		Body[] treeBodies = new Body[100];
+		for (int i = 0; i < directBodies.length; i++)
+		{
+			directBodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+			treeBodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+		}
+		Space direct = new Space(directBodies);
+		Space tree = new Space(treeBodies);
+		tree.setForceCalculator(new BarnesHutForceCalculator(0));
+		
+		direct.calculateForces();
+		tree.calculateForces();
+		BodyStore expected = direct.getBodyStore();
+		BodyStore actual = tree.getBodyStore();
+		
+		for (int i = 0; i < expected.getSize(); i++)
+		{
+			assertEquals(expected.fx[i], actual.fx[i], 1e-9);
+			assertEquals(expected.fy[i], actual.fy[i], 1e-9);
+		}
+	}
+	
+	@Test
+	public void testSpaceMovesBodiesInItsStore()
+	{
+		Body b = new Body(1, 1, 100, 100, 10, 0);
+		Space space = new Space(new Body[] { b });
+		
+		b.move(1);
+		
+		assertEquals(110.0, space.getBodyStore().x[0]);
+		assertEquals(110.0, b.getPosition().getX());
+	}
+	
+	@Test
+	public void testCollisionGridFindsBodiesInNeighbouringCells()
+	{
+		BodyStore store = new BodyStore(3);
+		store.set(0, 1, 10, 19, 19, 0, 0);
+		store.set(1, 1, 10, 21, 21, 0, 0); // across the corner of the first cell
+		store.set(2, 1, 10, 90, 90, 0, 0); // too far away to collide
+		CollisionGrid grid = new CollisionGrid(100, 100);
+		grid.build(store);
+		
+		int[] candidates = new int[3];
+		int count = grid.findCandidates(0, candidates);
+		
+		assertEquals(1, count);
+		assertEquals(1, candidates[0]);
+	}
+	
+	@Test
+	public void testContactBatchesNeverShareABody()
+	{
+		ContactList contacts = new ContactList();
+		contacts.add(0, 1);
+		contacts.add(0, 2);
+		contacts.add(3, 4);
+		contacts.add(1, 2);
+		
+		int numBatches = contacts.partitionIntoBatches(5);
+		
+		// {0-1, 3-4}, then {0-2}, then {1-2}
+		assertEquals(3, numBatches);
+		assertEquals(2, contacts.getBatchStart(1));
+		assertEquals(4, contacts.getBatchStart(3));
+		assertEquals(0, contacts.getFirst(0));
+		assertEquals(1, contacts.getSecond(0));
+		assertEquals(3, contacts.getFirst(1));
+		assertEquals(2, contacts.getSecond(2));
+		assertEquals(1, contacts.getFirst(3));
+	}
+	
+	@Test
+	public void testOffAxisBounceSwapsTheVelocitiesAlongTheNormal()
+	{
+		// equal masses touching along (0.6, 0.8): the parts of their velocities
+		// along that line are swapped, and the parts across it are kept
+		Space space = new Space(new Body[] { new Body(1, 5.1, 100, 100, 1, 2), new Body(1, 5.1, 106, 108, -1, 0.5) });
+		space.setVerbose(false);
+		
+		space.checkCollisions();
+		
+		BodyStore store = space.getBodyStore();
+		assertEquals(-0.44, store.vx[0], 1e-12);
+		assertEquals(0.08, store.vy[0], 1e-12);
+		assertEquals(0.44, store.vx[1], 1e-12);
+		assertEquals(2.42, store.vy[1], 1e-12);
+	}
+	
+	@Test
+	public void testSnapshotBufferReturnsLatestSnapshot()
+	{
+		Body b = new Body(1, 1, 100, 100, 10, 0);
+		Space space = new Space(new Body[] { b });
+		space.setVerbose(false);
+		SnapshotBuffer snapshots = new SnapshotBuffer();
+		space.setSnapshotBuffer(snapshots);
+		
+		space.moveBodies();
+		space.moveBodies();
+		
+		assertEquals(2, snapshots.latest().getStep());
+		assertEquals(b.getXPos(), snapshots.latest().getX(0));
+	}
+	
+	@Test
+	public void testRestoredCheckpointContinuesTheSameWay() throws Exception
+	{
+		// crowded enough that there are contacts in progress when the checkpoint is taken
+		ScenarioGenerator generator = new ScenarioGenerator(3);
+		generator.setMass(100);
+		generator.setRadius(15);
+		Space space = new Space(generator.uniform(1500));
+		space.setVerbose(false);
+		// none of the defaults, which a restore must not fall back to
+		space.setG(0.1);
+		space.setTimestep(0.25);
+		space.setOverlapTolerance(2);
+		for (int i = 0; i < 10; i++)
+		{
+			space.moveBodies();
+		}
+		assertEquals(true, space.getPrevContacts().size() > 0);
+		SpaceCheckpoint checkpoint = SpaceCheckpoint.capture(space);
+		Path file = Files.createTempFile("checkpoint", ".bin");
+		checkpoint.writeTo(file);
+		Space restored = checkpoint.restore();
+		Space reloaded = SpaceCheckpoint.readFrom(file).restore();
+		Files.delete(file);
+		restored.setVerbose(false);
+		reloaded.setVerbose(false);
+		
+		for (int i = 0; i < 10; i++)
+		{
+			space.moveBodies();
+			restored.moveBodies();
+			reloaded.moveBodies();
+		}
+		
+		assertSameState(space, restored);
+		assertSameState(space, reloaded);
+	}
+	
+	@Test
+	public void testMetricsCountEveryStep()
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(3);
+		generator.setMass(100);
+		generator.setRadius(15);
+		Space space = new Space(generator.uniform(1500));
+		space.setVerbose(false);
+		SpaceMetrics metrics = space.getMetrics();
+		for (int i = 0; i < 5; i++)
+		{
+			space.moveBodies();
+		}
+		assertEquals(5, metrics.getSteps());
+		assertEquals(true, metrics.getCollisions() > 0);
+		assertEquals((long) space.getNumCollisions(), metrics.getCollisions());
+		assertEquals(true, metrics.getRewinds() > 0);
+		assertEquals(0, metrics.getTimedSteps());
+		assertEquals(0.0, metrics.getForceMillis());
+		
+		// only the steps taken while timing is on are timed
+		long collisions = metrics.getCollisions();
+		metrics.setTimingEnabled(true);
+		for (int i = 0; i < 5; i++)
+		{
+			space.moveBodies();
+		}
+		assertEquals(10, metrics.getSteps());
+		assertEquals(true, metrics.getCollisions() > collisions);
+		assertEquals(5, metrics.getTimedSteps());
+		assertEquals(true, metrics.getForceMillis() > 0);
+		assertEquals(true, metrics.getMoveMillis() > 0);
+		assertEquals(true, metrics.getCollisionDetectMillis() > 0);
+		
+		metrics.resetTimings();
+		assertEquals(0, metrics.getTimedSteps());
+		assertEquals(0.0, metrics.getForceMillis());
+		assertEquals(10, metrics.getSteps());
+	}
+	
+	/* assertSameState() checks that every array of the two BodyStores is equal
+	 * bit for bit, and so are the step, the collision count and the pairs that
+	 * collided in the last step. */
+	private static void assertSameState(Space expected, Space actual)
+	{
+		BodyStore e = expected.getBodyStore();
+		BodyStore a = actual.getBodyStore();
+		double[][] expectedArrays = { e.x, e.y, e.vx, e.vy, e.mass, e.radius, e.fx, e.fy, e.oldX, e.oldY, e.oldVX, e.oldVY };
+		double[][] actualArrays = { a.x, a.y, a.vx, a.vy, a.mass, a.radius, a.fx, a.fy, a.oldX, a.oldY, a.oldVX, a.oldVY };
+		for (int k = 0; k < expectedArrays.length; k++)
+		{
+			assertEquals(true, Arrays.equals(expectedArrays[k], actualArrays[k]));
+		}
+		assertEquals(expected.getStep(), actual.getStep());
+		assertEquals(expected.getNumCollisions(), actual.getNumCollisions());
+		assertEquals(expected.getG(), actual.getG());
+		assertEquals(expected.getTimestep(), actual.getTimestep());
+		assertEquals(expected.getOverlapTolerance(), actual.getOverlapTolerance());
+		PairSet expectedContacts = expected.getPrevContacts();
+		PairSet actualContacts = actual.getPrevContacts();
+		assertEquals(expectedContacts.size(), actualContacts.size());
+		for (int k = 0; k < expectedContacts.size(); k++)
+		{
+			assertEquals(true, actualContacts.contains(expectedContacts.getFirst(k), expectedContacts.getSecond(k)));
+		}
+	}
+	
+	@Test
+	public void testScenarioFilesReadBackExactly() throws Exception
+	{
+		BodyStore store = new ScenarioGenerator(6).plummer(500);
+		// numbers the quick parser leaves to Double.parseDouble()
+		store.set(0, 1e-300, 0.1, 123456789.12345679, -0.0, Double.MAX_VALUE, -Double.MIN_VALUE);
+		Path file = Files.createTempFile("scenario", ".txt");
+		ScenarioFile.write(file, store);
+		BodyStore read = ScenarioFile.read(file);
+		
+		assertEquals(500, read.getSize());
+		double[][] expected = { store.mass, store.radius, store.x, store.y, store.vx, store.vy };
+		double[][] actual = { read.mass, read.radius, read.x, read.y, read.vx, read.vy };
+		for (int k = 0; k < expected.length; k++)
+		{
+			assertEquals(true, Arrays.equals(expected[k], actual[k]));
+		}
+		
+		// written by hand: no body count, commas and tabs, and comments
+		List<String> lines = new ArrayList<>(Arrays.asList("# two bodies", "5, 2.5, 10, 20, -1e-2, 3E1", "",
+				"7\t1\t30\t40\t0\t.5 # last"));
+		Files.write(file, lines);
+		read = ScenarioFile.read(file);
+		assertEquals(2, read.getSize());
+		assertEquals(2.5, read.radius[0]);
+		assertEquals(-0.01, read.vx[0]);
+		assertEquals(30.0, read.vy[0]);
+		assertEquals(40.0, read.y[1]);
+		assertEquals(0.5, read.vy[1]);
+		
+		// a body with three numbers is named by its line
+		lines.add("8 1 2");
+		Files.write(file, lines);
+		String error = null;
+		try
+		{
+			ScenarioFile.read(file);
+		}
+		catch (IOException e)
+		{
+			error = e.getMessage();
+		}
+		Files.delete(file);
+		assertEquals(true, error != null && error.contains("line 5"));
+	}
+	
+	@Test
+	public void testScenarioGeneratorDoesNotDependOnThreads()
+	{
+		BodyStore serial = new ScenarioGenerator(7).plummer(20000);
+		ScenarioGenerator parallel = new ScenarioGenerator(7);
+		WorkerPool pool = new WorkerPool(3);
+		parallel.setWorkerPool(pool);
+		BodyStore store = parallel.plummer(20000);
+		pool.shutdown();
+		
+		assertEquals(serial.x[0], store.x[0]);
+		assertEquals(serial.vy[19999], store.vy[19999]);
+	}
+	
+	@Test
+	public void testVectorForcesMatchAllPairs() throws Exception
+	{
+		// VectorForceCalculator is only there when vector/ has been compiled too
+		Class<?> vector = null;
+		try
+		{
+			vector = Class.forName("model.VectorForceCalculator");
+		}
+		catch (ClassNotFoundException e)
+		{
+		}
+		assumeTrue("vector/ was not compiled", vector != null);
+		Body[] bodies = new Body[101]; // not a multiple of the vector length
+		for (int i = 0; i < bodies.length; i++)
+		{
+			bodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+		}
+		Space space = new Space(bodies);
+		space.calculateForces();
+		BodyStore store = space.getBodyStore();
+		double[] expectedX = store.fx.clone();
+		double[] expectedY = store.fy.clone();
+		
+		ForceCalculator calculator = (ForceCalculator) vector.getDeclaredConstructor().newInstance();
+		calculator.calculateForces(store, 6.67e-2, null);
+		
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			assertEquals(expectedX[i], store.fx[i], 1e-9);
+			assertEquals(expectedY[i], store.fy[i], 1e-9);
+		}
+		
+		// for block timesteps, only the active bodies get their forces again
+		int[] active = {0, 7, 100};
+		for (int i : active)
+		{
+			store.fx[i] = 0;
+			store.fy[i] = 0;
+		}
+		store.fx[1] = 0;
+		calculator.calculateForces(store, 6.67e-2, null, active, active.length);
+		for (int i : active)
+		{
+			assertEquals(expectedX[i], store.fx[i], 1e-9);
+			assertEquals(expectedY[i], store.fy[i], 1e-9);
+		}
+		assertEquals(0.0, store.fx[1]);
+	}
+	
+	@Test
+	public void testFloatForcesAreCloseToDoubleForces()
+	{
+		Body[] bodies = new Body[100];
+		for (int i = 0; i < bodies.length; i++)
+		{
+			bodies[i] = new Body(i + 1, 1, (i * 37) % 500, (i * 91) % 500, 0, 0);
+		}
+		Space space = new Space(bodies);
+		space.calculateForces();
+		BodyStore store = space.getBodyStore();
+		double[] expectedX = store.fx.clone();
+		double[] expectedY = store.fy.clone();
+		
+		new FloatForceCalculator().calculateForces(store, 6.67e-2, null);
+		
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			double size = Math.hypot(expectedX[i], expectedY[i]);
+			assertEquals(expectedX[i], store.fx[i], 1e-5 * size);
+			assertEquals(expectedY[i], store.fy[i], 1e-5 * size);
+		}
+	}
+	
+	@Test
+	public void testTrajectoriesReadBackAsRecorded() throws Exception
+	{
+		for (boolean velocities : new boolean[] { false, true })
+		{
+			checkTrajectoryRoundTrip(velocities);
+		}
+	}
+	
+	/* checkTrajectoryRoundTrip() records a frame every 5 steps, reads every
+	 * frame back, and then cuts the last frame in half, which the header still
+	 * counts. */
+	private static void checkTrajectoryRoundTrip(boolean velocities) throws Exception
+	{
+		Path file = Files.createTempFile("trajectory", ".nbdy");
+		file.toFile().deleteOnExit(); // not straight away, as it stays mapped until it is garbage collected
+		Space space = new Space(new ScenarioGenerator(4).uniform(40));
+		space.setVerbose(false);
+		BodyStore[] frames = new BodyStore[4];
+		try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, space.getBodyStore(), velocities))
+		{
+			for (int k = 0; k < frames.length; k++)
+			{
+				recorder.record(space.getBodyStore(), space.getStep());
+				frames[k] = copyOf(space.getBodyStore());
+				for (int i = 0; i < 5; i++)
+				{
+					space.moveBodies();
+				}
+			}
+			assertEquals(4, recorder.getNumFrames());
+		}
+		
+		try (TrajectoryReader reader = new TrajectoryReader(file))
+		{
+			assertEquals(40, reader.getNumBodies());
+			assertEquals(4, reader.getNumFrames());
+			assertEquals(velocities, reader.hasVelocities());
+			BodyStore store = new BodyStore(40);
+			for (int k = 0; k < frames.length; k++)
+			{
+				assertEquals(5L * k, reader.getStep(k));
+				reader.readFrame(k, store);
+				assertEquals(true, Arrays.equals(frames[k].x, store.x));
+				assertEquals(true, Arrays.equals(frames[k].y, store.y));
+				assertEquals(true, Arrays.equals(frames[k].mass, store.mass));
+				assertEquals(true, Arrays.equals(frames[k].radius, store.radius));
+				assertEquals(velocities, Arrays.equals(frames[k].vx, store.vx));
+			}
+			assertEquals(0, reader.findFrame(-1));
+			assertEquals(0, reader.findFrame(0));
+			assertEquals(1, reader.findFrame(7));
+			assertEquals(2, reader.findFrame(10));
+			assertEquals(3, reader.findFrame(100));
+		}
+		
+		long frameSize = 8 + (velocities ? 32 : 16) * 40;
+		try (RandomAccessFile cut = new RandomAccessFile(file.toFile(), "rw"))
+		{
+			cut.setLength(cut.length() - frameSize / 2);
+		}
+		try (TrajectoryReader reader = new TrajectoryReader(file))
+		{
+			assertEquals(3, reader.getNumFrames());
+			assertEquals(2, reader.findFrame(100));
+		}
+	}
+	
+	/* copyOf() returns a new store with the same bodies as store. */
+	private static BodyStore copyOf(BodyStore store)
+	{
+		BodyStore copy = new BodyStore(store.getSize());
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			copy.set(i, store.mass[i], store.radius[i], store.x[i], store.y[i], store.vx[i], store.vy[i]);
+		}
+		return copy;
+	}
+	
+	@Test
+	public void testDensityMapShadesSmallBodiesAndCirclesLargeOnes()
+	{
+		BodyStore store = new BodyStore(5);
+		store.set(0, 1, 0.2, 10.5, 20.5, 0, 0);
+		store.set(1, 1, 0.2, 10.7, 20.2, 0, 0); // the same pixel
+		store.set(2, 1, 0.2, 30.5, 40.5, 0, 0);
+		store.set(3, 1, 5, 50, 50, 0, 0); // large enough to be a circle
+		store.set(4, 1, 0.2, 500, 500, 0, 0); // off the screen
+		SnapshotBuffer snapshots = new SnapshotBuffer();
+		snapshots.publish(store, 0);
+		DensityMap map = new DensityMap(100, 100);
+		
+		map.render(snapshots.latest(), 0, 0, 1);
+		
+		assertEquals(2, map.getCount(10, 20));
+		assertEquals(1, map.getCount(30, 40));
+		assertEquals(0, map.getCount(50, 50));
+		assertEquals(0xFF000000, map.getPixels()[50 * 100 + 45]); // the edge of the circle
+		assertEquals(0, map.getPixels()[50 * 100 + 50]); // but not the inside
+		// more bodies give a darker pixel
+		int oneAlpha = map.getPixels()[40 * 100 + 30] >>> 24;
+		int twoAlpha = map.getPixels()[20 * 100 + 10] >>> 24;
+		assertEquals(true, twoAlpha > oneAlpha && oneAlpha > 0);
+		
+		// zoomed in twice around the origin, everything is twice as far out
+		map.render(snapshots.latest(), 0, 0, 2);
+		assertEquals(1, map.getCount(61, 81));
+		assertEquals(0xFF000000, map.getPixels()[99 * 100 + 90]);
+	}
+	
+	@Test
+	public void testFramesAreDrawnInStripsAndHandedOver()
+	{
+		BodyStore store = new BodyStore(500);
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			store.set(i, 1, i % 10 == 0 ? 1 + i % 7 : 0.2, (i * 37) % 110 - 5, (i * 53) % 110 - 5, 0, 0);
+		}
+		SnapshotBuffer snapshots = new SnapshotBuffer();
+		snapshots.publish(store, 0);
+		DensityMap serial = new DensityMap(100, 100);
+		DensityMap strips = new DensityMap(100, 100);
+		WorkerPool pool = new WorkerPool(3);
+		
+		serial.render(snapshots.latest(), 0, 0, 1);
+		strips.render(snapshots.latest(), 0, 0, 1, pool);
+		pool.shutdown();
+		
+		assertEquals(true, Arrays.equals(serial.getPixels(), strips.getPixels()));
+		
+		FrameRenderer renderer = new FrameRenderer(snapshots, 100, 100, 1);
+		assertEquals(null, renderer.latestFrame());
+		assertEquals(true, renderer.renderFrame());
+		DensityMap frame = renderer.latestFrame();
+		assertEquals(true, Arrays.equals(serial.getPixels(), frame.getPixels()));
+		assertEquals(null, renderer.latestFrame()); // nothing new
+		assertEquals(false, renderer.renderFrame()); // nothing changed
+		renderer.setView(0, 0, 2);
+		assertEquals(true, renderer.renderFrame());
+		assertEquals(true, renderer.latestFrame() != frame);
+	}
+	
+	@Test
+	public void testParticleMeshForcesAreCloseToAllPairsForces()
+	{
+		Body[] bodies = new Body[200];
+		for (int i = 0; i < bodies.length; i++)
+		{
+			bodies[i] = new Body(i + 1, 1, (i * 397) % 2000, (i * 911) % 2000, 0, 0);
+		}
+		bodies[0] = new Body(50, 1, -600, 2500, 0, 0); // off the mesh
+		Space space = new Space(bodies);
+		space.calculateForces();
+		BodyStore store = space.getBodyStore();
+		double[] expectedX = store.fx.clone();
+		double[] expectedY = store.fy.clone();
+		double sumSq = 0;
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			sumSq += expectedX[i] * expectedX[i] + expectedY[i] * expectedY[i];
+		}
+		double rms = Math.sqrt(sumSq / store.getSize());
+		
+		new ParticleMeshForceCalculator(64, true).calculateForces(store, 6.67e-2, null);
+		
+		for (int i = 0; i < store.getSize(); i++)
+		{
+			assertEquals(expectedX[i], store.fx[i], 0.05 * rms);
+			assertEquals(expectedY[i], store.fy[i], 0.05 * rms);
+		}
+	}
+	
+	@Test
+	public void testParallelCollisionsMatchSerialCollisions()
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(5);
+		generator.setMass(1);
+		generator.setRadius(10);
+		Space serial = new Space(generator.uniform(2000));
+		Space parallel = new Space(generator.uniform(2000));
+		serial.setVerbose(false);
+		parallel.setVerbose(false);
+		serial.setG(0);
+		parallel.setG(0);
+		parallel.setNumThreads(4);
+		
+		for (int i = 0; i < 30; i++)
+		{
+			serial.moveBodies();
+			parallel.moveBodies();
+		}
+		
+		assertEquals(true, serial.getNumCollisions() > 0);
+		assertEquals(serial.getNumCollisions(), parallel.getNumCollisions());
+		BodyStore expected = serial.getBodyStore();
+		BodyStore actual = parallel.getBodyStore();
+		for (int i = 0; i < expected.getSize(); i++)
+		{
+			assertEquals(expected.x[i], actual.x[i], 1e-9);
+			assertEquals(expected.y[i], actual.y[i], 1e-9);
+		}
+	}
+	
+	@Test
+	public void testThreadsCanChangeBetweenSteps()
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(5);
+		generator.setMass(1);
+		generator.setRadius(10);
+		Space fixed = new Space(generator.uniform(1000));
+		Space switched = new Space(generator.uniform(1000));
+		fixed.setVerbose(false);
+		switched.setVerbose(false);
+		fixed.setG(0);
+		switched.setG(0);
+		
+		int[] threads = { 4, 1, 2, 1, 4 };
+		for (int i = 0; i < 20; i++)
+		{
+			switched.setNumThreads(threads[i % threads.length]);
+			fixed.moveBodies();
+			switched.moveBodies();
+		}
+		switched.setNumThreads(1);
+		
+		assertEquals(fixed.getNumCollisions(), switched.getNumCollisions());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals(fixed.getBodyStore().x[i], switched.getBodyStore().x[i], 1e-9);
+			assertEquals(fixed.getBodyStore().y[i], switched.getBodyStore().y[i], 1e-9);
+		}
+	}
+	
+	@Test
+	public void testNeighbourListFindsTheSameCollisionsAsTheGrid()
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(5);
+		generator.setMass(1);
+		generator.setRadius(10);
+		Space grid = new Space(generator.uniform(1000));
+		Space listed = new Space(generator.uniform(1000));
+		grid.setVerbose(false);
+		listed.setVerbose(false);
+		listed.setNeighbourSkin(20);
+		
+		for (int i = 0; i < 50; i++)
+		{
+			grid.moveBodies();
+			listed.moveBodies();
+		}
+		
+		assertEquals(true, listed.getNeighbourList().size() > 0);
+		assertEquals(grid.getNumCollisions(), listed.getNumCollisions());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals(grid.getBodyStore().x[i], listed.getBodyStore().x[i]);
+		}
+	}
+	
+	@Test
+	public void testPairSetIgnoresOrderAndClears()
+	{
+		PairSet pairs = new PairSet();
+		for (int i = 0; i < 100; i++)
+		{
+			pairs.add(i, i + 1);
+		}
+		
+		assertEquals(false, pairs.add(6, 5));
+		assertEquals(true, pairs.contains(99, 100));
+		assertEquals(false, pairs.contains(5, 7));
+		pairs.clear();
+		assertEquals(false, pairs.contains(5, 6));
+		assertEquals(0, pairs.size());
+	}
+	
+	@Test
+	public void testBlockTimestepsOnlyShortenCloseEncounters()
+	{
+		Body[] bodies = new Body[4];
+		// a tight binary in a circular orbit, and two bodies far away from it
+		bodies[0] = new Body(1e5, 1, 500, 500, 0, 18.26);
+		bodies[1] = new Body(1e5, 1, 510, 500, 0, -18.26);
+		bodies[2] = new Body(1, 1, 1500, 1500, 0, 0);
+		bodies[3] = new Body(1, 1, 1600, 1500, 0, 0);
+		Space space = new Space(bodies);
+		space.setBlockTimesteps(4, 1);
+		
+		for (int i = 0; i < 10; i++)
+		{
+			space.moveBodies();
+		}
+		
+		BlockTimesteps blocks = space.getBlockTimesteps();
+		assertEquals(true, blocks.getLevel(0) > 0);
+		assertEquals(0, blocks.getLevel(2));
+		assertEquals(0, space.getNumCollisions());
+		BodyStore store = space.getBodyStore();
+		double distance = Math.hypot(store.x[1] - store.x[0], store.y[1] - store.y[0]);
+		assertEquals(10, distance, 1);
+	}
+	
+	@Test
+	public void testBlockTimestepsRefuseTheMesh()
+	{
+		// the mesh would compute every force on every substep
+		Space space = new Space(new Body[] {new Body(1, 1, 0, 0, 0, 0)});
+		space.setForceCalculator(new ParticleMeshForceCalculator(64, false));
+		boolean refused = false;
+		try
+		{
+			space.setBlockTimesteps(4, 1);
+		}
+		catch (IllegalArgumentException e)
+		{
+			refused = true;
+		}
+		assertEquals(true, refused);
+		assertEquals(null, space.getBlockTimesteps());
+		
+		space.setForceCalculator(new BarnesHutForceCalculator());
+		space.setBlockTimesteps(4, 1);
+		refused = false;
+		try
+		{
+			space.setForceCalculator(new ParticleMeshForceCalculator(64, false));
+		}
+		catch (IllegalArgumentException e)
+		{
+			refused = true;
+		}
+		assertEquals(true, refused);
+	}
+	
+	@Test
+	public void testEventDrivenCollisionsStopTunnelling()
+	{
+		// each body moves 200 in a timestep, much further than the gap between them
+		Body[] bodies = new Body[2];
+		bodies[0] = new Body(1, 5, 500, 1000, 400, 0);
+		bodies[1] = new Body(1, 5, 700, 1000, -400, 0);
+		Space space = new Space(bodies);
+		space.setVerbose(false);
+		space.setEventDrivenCollisions(true);
+		
+		space.moveBodies();
+		
+		BodyStore store = space.getBodyStore();
+		assertEquals(1, space.getNumCollisions());
+		assertEquals(true, store.x[0] < store.x[1] - 10);
+		assertEquals(-400, store.vx[0], 1);
+	}
+	
+	@Test
+	public void testDomainNodesMatchASingleSpace() throws Exception
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(3);
+		generator.setRadius(8);
+		BodyStore start = generator.uniform(400);
+		Space single = new Space(generator.uniform(400));
+		single.setVerbose(false);
+		single.setG(0.1);
+		single.setTimestep(0.25);
+		for (int i = 0; i < 30; i++)
+		{
+			single.moveBodies();
+		}
+		
+		// three nodes on localhost, each on its own thread, sending every body for
+		// the forces; their ports are whichever ones the system picks
+		String host = InetAddress.getLoopbackAddress().getHostAddress();
+		ServerSocket[] servers = new ServerSocket[3];
+		int[] ports = new int[3];
+		for (int r = 0; r < 3; r++)
+		{
+			servers[r] = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			ports[r] = servers[r].getLocalPort();
+		}
+		ExecutorService threads = Executors.newFixedThreadPool(3);
+		List<Future<Object[]>> results = new ArrayList<>();
+		for (int r = 0; r < 3; r++)
+		{
+			int rank = r;
+			results.add(threads.submit(() ->
+			{
+				try (DomainNode node = new DomainNode(rank, start, servers[rank], host, ports, DomainNode.DEFAULT_HALO, 0))
+				{
+					node.setG(0.1);
+					node.setTimestep(0.25);
+					for (int i = 0; i < 30; i++)
+					{
+						node.step();
+					}
+					return new Object[] { node.gatherCollisions(), node.gather() };
+				}
+			}));
+		}
+		Object[] first = results.get(0).get();
+		for (Future<Object[]> result : results)
+		{
+			result.get();
+		}
+		threads.shutdown();
+		
+		BodyStore expected = single.getBodyStore();
+		BodyStore store = (BodyStore) first[1];
+		assertEquals((long) single.getNumCollisions(), first[0]);
+		for (int i = 0; i < 400; i++)
+		{
+			assertEquals(expected.x[i], store.x[i]);
+			assertEquals(expected.vy[i], store.vy[i]);
+		}
+	}
+	
+	@Test
+	public void testSpacesWithTheirOwnSettingsRunConcurrently() throws Exception
+	{
+		double[][] settings = { { 6.67e-2, 0.5, 3 }, { 0.2, 0.25, 1 }, { 0.01, 1, 5 }, { 6.67e-2, 0.5, 0 } };
+		
+		// the same spaces, one at a time and all at once
+		ExecutorService threads = Executors.newFixedThreadPool(settings.length);
+		List<Future<Space>> results = new ArrayList<>();
+		Space[] serial = new Space[settings.length];
+		for (int k = 0; k < settings.length; k++)
+		{
+			double[] s = settings[k];
+			serial[k] = runWithSettings(s[0], s[1], s[2]);
+			results.add(threads.submit(() -> runWithSettings(s[0], s[1], s[2])));
+		}
+		
+		for (int k = 0; k < settings.length; k++)
+		{
+			Space space = results.get(k).get();
+			assertEquals(settings[k][0], space.getG());
+			assertEquals(serial[k].getNumCollisions(), space.getNumCollisions());
+			for (int i = 0; i < 300; i++)
+			{
+				assertEquals(serial[k].getBodyStore().x[i], space.getBodyStore().x[i]);
+				assertEquals(serial[k].getBodyStore().vy[i], space.getBodyStore().vy[i]);
+			}
+		}
+		threads.shutdown();
+		assertEquals(false, serial[0].getBodyStore().x[0] == serial[1].getBodyStore().x[0]);
+	}
+	
+	private static Space runWithSettings(double g, double timestep, double overlapTolerance)
+	{
+		ScenarioGenerator generator = new ScenarioGenerator(7);
+		generator.setG(g);
+		Space space = new Space(generator.plummer(300));
+		space.setVerbose(false);
+		space.setG(g);
+		space.setTimestep(timestep);
+		space.setOverlapTolerance(overlapTolerance);
+		for (int i = 0; i < 40; i++)
+		{
+			space.moveBodies();
+		}
+		return space;
+	}
 }
@@ -1,28 +1,46 @@
 package view;
 
-import java.util.Observable;
-import java.util.Observer;
-
+import javafx.animation.AnimationTimer;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.Paint;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
-import model.Body;
-import model.Space;
+import model.SnapshotSource;
 
-public class CanvasView extends BorderPane implements Observer
+/* CanvasView shows the bodies of a simulation. It does not watch the Space
+ * itself, and does not draw them either: a FrameRenderer draws the latest
+ * snapshot of its SnapshotSource into an image on other threads. Once per
+ * frame, an AnimationTimer on the JavaFX Application Thread puts the newest
+ * finished image on the canvas in one go and asks for the next one. The
+ * simulation never waits for the screen, the screen is never redrawn more
+ * often than it refreshes, and drawing many bodies does not hold up the
+ * JavaFX Application Thread.
+ *
+ * Scrolling zooms in and out around the mouse, and dragging moves the view. */
+public class CanvasView extends BorderPane
 {
-	private Space space;
-
 	private Canvas canvas;
 	private GraphicsContext gc;
 	private int canvasWidth;
 	private int canvasHeight;
+	private static final double ZOOM_PER_NOTCH = 1.25; // one notch of the scroll wheel
+	private static final double SCROLL_NOTCH = 40; // the scroll of one notch
+	// threads drawing the frames; the other half of the cores are left to the simulation
+	private static final int RENDER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	private AnimationTimer timer;
+	private final FrameRenderer renderer;
+	private final WritableImage image;
+	private double originX = 0; // the world position of the top left corner of the canvas
+	private double originY = 0;
+	private double scale = 1; // pixels per unit of the world
+	private double dragX; // where the mouse was last dragged from
+	private double dragY;
 
-	public CanvasView(Space space, int width, int height)
+	public CanvasView(SnapshotSource source, int width, int height)
 	{
-		this.space = space;
 		this.canvasWidth = width;
 		this.canvasHeight = height;
 
@@ -30,43 +48,78 @@ public class CanvasView extends BorderPane implements Observer
 		gc = canvas.getGraphicsContext2D();
 
 		this.setCenter(canvas);
+
+		renderer = new FrameRenderer(source, width, height, RENDER_THREADS);
+		image = new WritableImage(width, height);
+
+		canvas.setOnScroll(event ->
+		{
+			// the point of the world under the mouse stays where it is
+			double zoom = Math.pow(ZOOM_PER_NOTCH, event.getDeltaY() / SCROLL_NOTCH);
+			originX += event.getX() / scale * (1 - 1 / zoom);
+			originY += event.getY() / scale * (1 - 1 / zoom);
+			scale *= zoom;
+			renderer.setView(originX, originY, scale);
+		});
+		canvas.setOnMousePressed(event ->
+		{
+			dragX = event.getX();
+			dragY = event.getY();
+		});
+		canvas.setOnMouseDragged(event ->
+		{
+			originX -= (event.getX() - dragX) / scale;
+			originY -= (event.getY() - dragY) / scale;
+			dragX = event.getX();
+			dragY = event.getY();
+			renderer.setView(originX, originY, scale);
+		});
+
+		timer = new AnimationTimer()
+		{
+			@Override
+			public void handle(long now)
+			{
+				update();
+			}
+		};
+	}
+
+	/* start() starts redrawing the canvas every frame. */
+	public void start()
+	{
+		renderer.start();
+		timer.start();
 	}
 
-	/* update() is called whenever the observed Space object calls
-	 * notifyObservers(). In this implementation, this happens to be 60 times per
-	 * second, because of the AnimationTimer in Main.java. */
-	@Override
-	public void update(Observable o, Object arg)
+	/* stop() stops redrawing the canvas. */
+	public void stop()
 	{
-		space = (Space) o;
+		timer.stop();
+		renderer.stop();
+	}
 
+	/* update() is called by the AnimationTimer every frame, 60 times per second.
+	 * It shows the newest frame the renderer has finished, if it has not been
+	 * shown yet, and asks for the next one. */
+	public void update()
+	{
+		DensityMap frame = renderer.latestFrame();
+		if (frame != null)
+		{
+			draw(frame);
+		}
+		renderer.requestFrame();
+	}
+
+	/* draw() clears the canvas and puts frame on it. */
+	private void draw(DensityMap frame)
+	{
 		gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight()); // reset the canvas
+		image.getPixelWriter().setPixels(0, 0, canvasWidth, canvasHeight, PixelFormat.getIntArgbPreInstance(),
+				frame.getPixels(), 0, canvasWidth);
+		gc.drawImage(image, 0, 0);
 		gc.setStroke(Color.BLACK);
-		
 		gc.strokeRect(0, 0, canvasWidth, canvasHeight);
-		
-		// draw each body
-		
-		for (Body b : space.getBodies())
-		{
-			// x and y coord need to be offset from the center to the corner in
-			// order to be drawn with strokeOval().
-			double xCorner = b.getXPos() - b.getRadius();
-			double yCorner = b.getYPos() - b.getRadius();
-			double width = b.getRadius() * 2;
-			double height = b.getRadius() * 2;
-			gc.strokeOval(xCorner, yCorner, width, height);
-		}
-		
-		/*
-		for (int i = 0; i < space.getBodies().length; i++) {
-			gc.setFill(Color.rgb(0, 255/(i+1), 255/(i+1)));
-			Body b = space.getBodies()[i];
-			double xCorner = b.getXPos() - b.getRadius();
-			double yCorner = b.getYPos() - b.getRadius();
-			double width = b.getRadius() * 2;
-			double height = b.getRadius() * 2;
-			gc.fillOval(xCorner, yCorner, width, height);
-		} */
 	}
 }
@@ -0,0 +1,327 @@
+package view;
+
+import java.util.Arrays;
+
+import model.Snapshot;
+import model.WorkerPool;
+
+/* DensityMap draws a snapshot into one image of ARGB pixels, at a level of
+ * detail that suits how big each body is on the screen. Bodies with a radius
+ * of at least CIRCLE_RADIUS pixels are drawn as black circles; smaller ones
+ * only count towards the pixel they fall in, and the pixel is darker where
+ * there are more bodies. Bodies that are not on the screen at all are skipped.
+ *
+ * With a WorkerPool the image is cut into strips of rows, a few per worker, and
+ * the workers draw whole strips. The bodies are first sorted by the strips
+ * they are drawn on, so a strip only looks at its own bodies, and a circle
+ * that crosses strips is drawn in pieces by each of them. No two workers write
+ * the same pixel, and the image comes out the same as on a single thread.
+ *
+ * The view is given as the world position of the top left corner of the
+ * screen and the number of pixels per unit of the world. */
+public class DensityMap
+{
+	public static final double CIRCLE_RADIUS = 1.5; // in pixels, so 3 pixels across
+
+	private static final double COVER = 0.4; // how much of what is left of a pixel each body darkens
+	private static final int STRIPS_PER_THREAD = 4; // some strips have many more bodies than others
+	private static final int CIRCLE = 1 << 30; // set on the count of a pixel a circle goes through
+	private static final int CIRCLE_PIXEL = 0xFF000000; // opaque black
+	private static final int OFF = -1; // the cell of a body that is not on the screen
+	private static final int LARGE = -2; // the cell of a body drawn as a circle
+
+	private final int width;
+	private final int height;
+	private final int[] counts; // bodies per pixel, plus CIRCLE
+	private final int[] pixels; // premultiplied ARGB
+	private final int[] shades = new int[256]; // pixel for each count, the last one for anything more
+	private int[][] next = new int[0][]; // per block of bodies, its bodies per strip and then where they go in order
+	private int[] cells = new int[0]; // what cell() returned for each body
+	private int[] order = new int[0]; // the bodies by strip, once for every strip they are drawn on
+	private int[] stripStart = new int[0]; // where the bodies of each strip start in order
+
+	// what is being drawn, only changed between renders
+	private Snapshot snapshot;
+	private double originX;
+	private double originY;
+	private double scale;
+	private int stripHeight;
+	private int numStrips;
+
+	public DensityMap(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		counts = new int[width * height];
+		pixels = new int[width * height];
+		for (int c = 1; c < shades.length; c++)
+		{
+			int alpha = (int) Math.round(255 * (1 - Math.pow(1 - COVER, c)));
+			shades[c] = alpha << 24; // black
+		}
+	}
+
+	/* render() draws snapshot for a view whose top left corner is at
+	 * (originX, originY) in the world, with scale pixels per unit. */
+	public void render(Snapshot snapshot, double originX, double originY, double scale)
+	{
+		render(snapshot, originX, originY, scale, null);
+	}
+
+	/* render() draws snapshot as above, in strips on the workers of pool, or on
+	 * the calling thread if pool is null. */
+	public void render(Snapshot snapshot, double originX, double originY, double scale, WorkerPool pool)
+	{
+		this.snapshot = snapshot;
+		this.originX = originX;
+		this.originY = originY;
+		this.scale = scale;
+		if (pool == null || pool.getNumThreads() == 1 || height < 2)
+		{
+			stripHeight = height;
+			numStrips = 1;
+			drawStrip(0, false);
+		}
+		else
+		{
+			stripHeight = Math.max(1, (height + pool.getNumThreads() * STRIPS_PER_THREAD - 1)
+					/ (pool.getNumThreads() * STRIPS_PER_THREAD));
+			numStrips = (height + stripHeight - 1) / stripHeight;
+			sortByStrip(pool);
+			pool.parallelFor(numStrips, s -> drawStrip(s, true));
+		}
+		this.snapshot = null;
+	}
+
+	/* sortByStrip() puts the bodies into order, strip by strip, with a block of
+	 * bodies per worker: each block counts its bodies per strip, the counts
+	 * become where each block writes its bodies of each strip, and the blocks
+	 * then write them there. A small body goes into order as the pixel it
+	 * counts towards, p, written as -1 - p, so that drawing it is one add. */
+	private void sortByStrip(WorkerPool pool)
+	{
+		int n = snapshot.getSize();
+		int blocks = pool.getNumThreads();
+		int stripPixels = stripHeight * width;
+		if (next.length != blocks || next[0].length != numStrips)
+		{
+			next = new int[blocks][numStrips];
+		}
+		if (cells.length < n)
+		{
+			cells = new int[n];
+		}
+		pool.parallelFor(blocks, b ->
+		{
+			int[] count = next[b];
+			Arrays.fill(count, 0);
+			for (int i = (int) ((long) n * b / blocks); i < (int) ((long) n * (b + 1) / blocks); i++)
+			{
+				int cell = cell(i);
+				cells[i] = cell;
+				if (cell >= 0)
+				{
+					count[cell / stripPixels]++;
+				}
+				else if (cell == LARGE)
+				{
+					long rows = circleRows(i);
+					for (int s = (int) (rows >>> 32) / stripHeight; s <= (int) rows / stripHeight; s++)
+					{
+						count[s]++;
+					}
+				}
+			}
+		});
+
+		if (stripStart.length != numStrips + 1)
+		{
+			stripStart = new int[numStrips + 1];
+		}
+		int total = 0;
+		for (int s = 0; s < numStrips; s++)
+		{
+			stripStart[s] = total;
+			for (int b = 0; b < blocks; b++)
+			{
+				int count = next[b][s];
+				next[b][s] = total;
+				total += count;
+			}
+		}
+		stripStart[numStrips] = total;
+		if (order.length < total)
+		{
+			order = new int[total + total / 4];
+		}
+
+		pool.parallelFor(blocks, b ->
+		{
+			int[] at = next[b];
+			for (int i = (int) ((long) n * b / blocks); i < (int) ((long) n * (b + 1) / blocks); i++)
+			{
+				int cell = cells[i];
+				if (cell >= 0)
+				{
+					order[at[cell / stripPixels]++] = -1 - cell;
+				}
+				else if (cell == LARGE)
+				{
+					long rows = circleRows(i);
+					for (int s = (int) (rows >>> 32) / stripHeight; s <= (int) rows / stripHeight; s++)
+					{
+						order[at[s]++] = i;
+					}
+				}
+			}
+		});
+	}
+
+	/* cell() returns the pixel body i counts towards if it is small, LARGE if
+	 * it is drawn as a circle, and OFF if it is not on the screen. */
+	private int cell(int i)
+	{
+		double x = (snapshot.getX(i) - originX) * scale;
+		double y = (snapshot.getY(i) - originY) * scale;
+		double r = snapshot.getRadius(i) * scale;
+		if (x + r < 0 || y + r < 0 || x - r >= width || y - r >= height)
+		{
+			return OFF;
+		}
+		if (r >= CIRCLE_RADIUS)
+		{
+			return circleRows(i) >= 0 ? LARGE : OFF;
+		}
+		if (x >= 0 && y >= 0 && x < width && y < height)
+		{
+			return (int) y * width + (int) x;
+		}
+		return OFF;
+	}
+
+	/* circleRows() returns the first and the last row the circle of body i is
+	 * drawn on, as first << 32 | last, or -1 if there are none. */
+	private long circleRows(int i)
+	{
+		double y = (snapshot.getY(i) - originY) * scale;
+		double r = snapshot.getRadius(i) * scale;
+		int first = (int) Math.max(0, Math.ceil(y - r - 0.5));
+		int last = (int) Math.min(height - 1, Math.floor(y + r - 0.5));
+		return first <= last ? (long) first << 32 | last : -1;
+	}
+
+	/* drawStrip() draws strip s, with the bodies sortByStrip() put in order for
+	 * it if sorted is true, and with all of them otherwise. */
+	private void drawStrip(int s, boolean sorted)
+	{
+		int y0 = s * stripHeight;
+		int y1 = Math.min(height, y0 + stripHeight);
+		Arrays.fill(counts, y0 * width, y1 * width, 0);
+		if (sorted)
+		{
+			for (int k = stripStart[s]; k < stripStart[s + 1]; k++)
+			{
+				int body = order[k];
+				if (body < 0)
+				{
+					counts[-1 - body]++;
+				}
+				else
+				{
+					draw(body, y0, y1);
+				}
+			}
+		}
+		else
+		{
+			for (int i = 0; i < snapshot.getSize(); i++)
+			{
+				draw(i, y0, y1);
+			}
+		}
+
+		int last = shades.length - 1;
+		for (int p = y0 * width; p < y1 * width; p++)
+		{
+			int c = counts[p];
+			pixels[p] = c >= CIRCLE ? CIRCLE_PIXEL : shades[Math.min(c, last)];
+		}
+	}
+
+	/* draw() draws the part of body i on the rows from y0 up to y1. */
+	private void draw(int i, int y0, int y1)
+	{
+		double x = (snapshot.getX(i) - originX) * scale;
+		double y = (snapshot.getY(i) - originY) * scale;
+		double r = snapshot.getRadius(i) * scale;
+		if (r >= CIRCLE_RADIUS)
+		{
+			if (x + r >= 0 && x - r < width)
+			{
+				drawCircle(x, y, r, y0, y1);
+			}
+		}
+		else if (x >= 0 && x < width && y >= y0 && y < y1)
+		{
+			counts[(int) y * width + (int) x]++;
+		}
+	}
+
+	/* drawCircle() draws the rows from y0 up to y1 of a circle a pixel thick:
+	 * the pixels whose middle is within r of (x, y), but not within r - 1. */
+	private void drawCircle(double x, double y, double r, int y0, int y1)
+	{
+		int first = (int) Math.max(y0, Math.ceil(y - r - 0.5));
+		int last = (int) Math.min(y1 - 1, Math.floor(y + r - 0.5));
+		double inner = r - 1;
+		for (int row = first; row <= last; row++)
+		{
+			double dy = row + 0.5 - y;
+			double outer = Math.sqrt(Math.max(0, r * r - dy * dy));
+			int left = (int) Math.ceil(x - outer - 0.5);
+			int right = (int) Math.floor(x + outer - 0.5);
+			if (Math.abs(dy) < inner)
+			{
+				double hole = Math.sqrt(inner * inner - dy * dy);
+				fill(row, left, (int) Math.ceil(x - hole - 0.5) - 1);
+				fill(row, (int) Math.floor(x + hole - 0.5) + 1, right);
+			}
+			else
+			{
+				fill(row, left, right);
+			}
+		}
+	}
+
+	/* fill() puts a circle through the pixels from left to right on row. */
+	private void fill(int row, int left, int right)
+	{
+		int start = row * width;
+		for (int p = start + Math.max(0, left); p <= start + Math.min(width - 1, right); p++)
+		{
+			counts[p] |= CIRCLE;
+		}
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/* getPixels() returns the image, row by row, as premultiplied ARGB. */
+	public int[] getPixels()
+	{
+		return pixels;
+	}
+
+	/* getCount() returns how many small bodies fell in pixel (x, y). */
+	public int getCount(int x, int y)
+	{
+		return counts[y * width + x] & ~CIRCLE;
+	}
+}
@@ -0,0 +1,162 @@
+package view;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import model.Snapshot;
+import model.SnapshotSource;
+import model.WorkerPool;
+
+/* FrameRenderer draws the snapshots of a SnapshotSource on a thread of its own,
+ * so that a view only has to put the finished image on the screen. The view
+ * asks for a frame every time the screen refreshes; the renderer then takes
+ * the latest snapshot and, if it or the view has changed since the last frame,
+ * draws it with a DensityMap, in strips on a WorkerPool when it has more than
+ * one thread. The pool only lives while the renderer is started. Asking
+ * again before that frame is done asks for one more frame, not one for every
+ * time.
+ *
+ * Finished frames are handed over through three DensityMaps, the same way
+ * SnapshotBuffer hands over snapshots: the renderer draws into one the view
+ * does not hold and swaps it into the middle, and the view swaps the middle one
+ * out when it is new. Neither side waits for the other, and a frame the view
+ * was too slow to pick up is replaced by the next one.
+ *
+ * The source is read on the renderer thread, not the thread of the view. */
+public class FrameRenderer
+{
+	private static final int FRESH = 4; // set on middle when it holds a frame the view has not had
+	private static final int INDEX = 3;
+
+	private final SnapshotSource source;
+	private final int numThreads;
+	private WorkerPool pool; // null when the renderer thread draws on its own
+	private final DensityMap[] frames;
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private final AtomicBoolean requested = new AtomicBoolean();
+	private volatile double[] view = { 0, 0, 1 }; // originX, originY and scale, replaced as a whole
+	private volatile boolean running;
+	private Thread thread;
+	private int drawing = 0; // only used by the renderer
+	private int showing = 2; // only used by the view
+	private Snapshot lastDrawn; // only used by the renderer
+	private long lastDrawnStep = -1;
+	private double[] lastView;
+
+	/* Creates a renderer of frames of width by height pixels that draws them
+	 * with numThreads threads. */
+	public FrameRenderer(SnapshotSource source, int width, int height, int numThreads)
+	{
+		this.source = source;
+		this.numThreads = numThreads;
+		this.frames = new DensityMap[] { new DensityMap(width, height), new DensityMap(width, height),
+				new DensityMap(width, height) };
+	}
+
+	/* setView() makes the frames show the world from (originX, originY) at the
+	 * top left corner, with scale pixels per unit. */
+	public void setView(double originX, double originY, double scale)
+	{
+		view = new double[] { originX, originY, scale };
+	}
+
+	/* start() starts the renderer thread. */
+	public synchronized void start()
+	{
+		if (thread != null)
+		{
+			return;
+		}
+		running = true;
+		pool = numThreads > 1 ? new WorkerPool(numThreads) : null;
+		thread = new Thread(this::run, "FrameRenderer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/* stop() stops the renderer thread, once it has finished the frame it is
+	 * drawing, and the threads of its WorkerPool. */
+	public synchronized void stop()
+	{
+		if (thread == null)
+		{
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/* requestFrame() asks the renderer thread for a frame of the latest
+	 * snapshot. */
+	public void requestFrame()
+	{
+		requested.set(true);
+		Thread renderer = thread;
+		if (renderer != null)
+		{
+			LockSupport.unpark(renderer);
+		}
+	}
+
+	private void run()
+	{
+		while (running)
+		{
+			if (requested.getAndSet(false))
+			{
+				renderFrame();
+			}
+			else
+			{
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	/* renderFrame() draws the latest snapshot if it or the view has changed
+	 * since the last frame, and returns whether it did. It is called by the
+	 * renderer thread, and only one thread may call it. */
+	public boolean renderFrame()
+	{
+		Snapshot snapshot = source.latest();
+		double[] view = this.view;
+		if (snapshot == null || (snapshot == lastDrawn && snapshot.getStep() == lastDrawnStep && view == lastView))
+		{
+			return false;
+		}
+		lastDrawn = snapshot;
+		lastDrawnStep = snapshot.getStep();
+		lastView = view;
+		frames[drawing].render(snapshot, view[0], view[1], view[2], pool);
+		drawing = middle.getAndSet(drawing | FRESH) & INDEX;
+		return true;
+	}
+
+	/* latestFrame() returns the newest finished frame if the view has not had it
+	 * yet, and null otherwise. The frame stays as it is until the next call.
+	 * Only one thread may take frames. */
+	public DensityMap latestFrame()
+	{
+		if ((middle.get() & FRESH) == 0)
+		{
+			return null;
+		}
+		showing = middle.getAndSet(showing) & INDEX;
+		return frames[showing];
+	}
+}
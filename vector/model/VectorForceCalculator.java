@@ -0,0 +1,248 @@
+package model;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/* VectorForceCalculator computes the same all-pairs gravitational forces as
+ * Space.calculateForces(), with the inner loop written in the Vector API: body
+ * i is paired with a whole vector of bodies j at a time (4 on AVX2, 8 on
+ * AVX-512), using one square root and one division per pair instead of a
+ * square root and three divisions. The forces differ from the scalar loop only
+ * by rounding, because the sums are added up in a different order.
+ *
+ * The Vector API is the incubator module jdk.incubator.vector, which has to be
+ * added at compile time and at run time with --add-modules jdk.incubator.vector.
+ * So that the rest of the model compiles without the module, this class is in
+ * the source folder vector/ rather than src/, and BatchRunner only loads it by
+ * name when it has been compiled. When the module is missing at run time, or
+ * the CPU has no vector registers for doubles, this calculator falls back to a
+ * scalar loop, so it is always safe to use. With a WorkerPool the rows are dealt out to the workers as in
+ * ParallelForceCalculator. */
+public class VectorForceCalculator implements ForceCalculator
+{
+	private final boolean vectorized = isVectorApiAvailable() && Kernel.LANES > 1;
+	private double[][] accX; // per-worker x force accumulators
+	private double[][] accY; // per-worker y force accumulators
+
+	/* isVectorApiAvailable() returns whether the JVM was started with the Vector
+	 * API module. It does not touch any class of the module, so it is safe to
+	 * call without it. */
+	public static boolean isVectorApiAvailable()
+	{
+		return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	}
+
+	/* isVectorized() returns whether this calculator uses the Vector API, rather
+	 * than the scalar fallback. */
+	public boolean isVectorized()
+	{
+		return vectorized;
+	}
+
+	/* getLanes() returns how many bodies j are paired with body i at a time. */
+	public int getLanes()
+	{
+		return vectorized ? Kernel.LANES : 1;
+	}
+
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool)
+	{
+		int n = store.getSize();
+		if (pool == null)
+		{
+			Arrays.fill(store.fx, 0, n, 0);
+			Arrays.fill(store.fy, 0, n, 0);
+			rows(store, g, 0, 1, store.fx, store.fy);
+			return;
+		}
+
+		int workers = pool.getNumThreads();
+		if (accX == null || accX.length != workers || accX[0].length != n)
+		{
+			accX = new double[workers][n];
+			accY = new double[workers][n];
+		}
+		pool.parallelFor(workers, t -> rows(store, g, t, workers, accX[t], accY[t]));
+
+		// merge the accumulators, clearing them for the next step as we go
+		pool.parallelRange(n, (start, end) ->
+		{
+			for (int i = start; i < end; i++)
+			{
+				double sumX = 0;
+				double sumY = 0;
+				for (int t = 0; t < workers; t++)
+				{
+					sumX += accX[t][i];
+					sumY += accY[t][i];
+					accX[t][i] = 0;
+					accY[t][i] = 0;
+				}
+				store.fx[i] = sumX;
+				store.fy[i] = sumY;
+			}
+		});
+	}
+
+	/* calculateForces() for block timesteps sums the force on each active body
+	 * against every other body, a vector of them at a time. */
+	@Override
+	public void calculateForces(BodyStore store, double g, WorkerPool pool, int[] active, int nActive)
+	{
+		if (pool == null)
+		{
+			activeRows(store, g, active, 0, nActive);
+		}
+		else
+		{
+			pool.parallelRange(nActive, (start, end) -> activeRows(store, g, active, start, end));
+		}
+	}
+
+	@Override
+	public boolean calculatesOnlyActive()
+	{
+		return true;
+	}
+
+	/* rows() adds the forces between body i and every body after it into fx
+	 * and fy, for i = first, first + stride, ... */
+	private void rows(BodyStore store, double g, int first, int stride, double[] fx, double[] fy)
+	{
+		int n = store.getSize();
+		double[] x = store.x, y = store.y, mass = store.mass;
+		for (int i = first; i < n - 1; i += stride)
+		{
+			int j = vectorized ? Kernel.row(i, n, x, y, mass, g * mass[i], fx, fy) : i + 1;
+
+			// the scalar loop does the bodies left over after the last full vector
+			double fxi = fx[i];
+			double fyi = fy[i];
+			double xi = x[i];
+			double yi = y[i];
+			double gmi = g * mass[i];
+			for (; j < n; j++)
+			{
+				double dx = x[j] - xi;
+				double dy = y[j] - yi;
+				double distSq = dx * dx + dy * dy;
+				double scale = gmi * mass[j] / (distSq * Math.sqrt(distSq));
+				fxi += scale * dx;
+				fyi += scale * dy;
+				fx[j] -= scale * dx;
+				fy[j] -= scale * dy;
+			}
+			fx[i] = fxi;
+			fy[i] = fyi;
+		}
+	}
+
+	/* activeRows() sets the force on bodies active[start..end). */
+	private void activeRows(BodyStore store, double g, int[] active, int start, int end)
+	{
+		for (int k = start; k < end; k++)
+		{
+			int i = active[k];
+			store.fx[i] = 0;
+			store.fy[i] = 0;
+			span(store, g, i, 0, i);
+			span(store, g, i, i + 1, store.getSize());
+		}
+	}
+
+	/* span() adds the pull of bodies from..to-1 on body i into store.fx[i] and
+	 * store.fy[i], leaving the forces on those bodies alone. */
+	private void span(BodyStore store, double g, int i, int from, int to)
+	{
+		double[] x = store.x, y = store.y, mass = store.mass;
+		double gmi = g * mass[i];
+		int j = vectorized ? Kernel.span(i, from, to, x, y, mass, gmi, store.fx, store.fy) : from;
+
+		// the scalar loop does the bodies left over after the last full vector
+		double fxi = 0;
+		double fyi = 0;
+		double xi = x[i];
+		double yi = y[i];
+		for (; j < to; j++)
+		{
+			double dx = x[j] - xi;
+			double dy = y[j] - yi;
+			double distSq = dx * dx + dy * dy;
+			double scale = gmi * mass[j] / (distSq * Math.sqrt(distSq));
+			fxi += scale * dx;
+			fyi += scale * dy;
+		}
+		store.fx[i] += fxi;
+		store.fy[i] += fyi;
+	}
+
+	/* Kernel holds everything that uses the Vector API, so that its classes are
+	 * only loaded once isVectorApiAvailable() has said they are there. */
+	private static class Kernel
+	{
+		static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+		static final int LANES = SPECIES.length();
+
+		/* row() adds the forces between body i and the bodies after it into fx and
+		 * fy, one vector of bodies at a time. It stops before the last partial
+		 * vector and returns the first body it did not do. */
+		static int row(int i, int n, double[] x, double[] y, double[] mass, double gmi, double[] fx, double[] fy)
+		{
+			DoubleVector xi = DoubleVector.broadcast(SPECIES, x[i]);
+			DoubleVector yi = DoubleVector.broadcast(SPECIES, y[i]);
+			DoubleVector sumX = DoubleVector.zero(SPECIES);
+			DoubleVector sumY = DoubleVector.zero(SPECIES);
+			int j = i + 1;
+			int end = j + SPECIES.loopBound(n - j);
+			for (; j < end; j += LANES)
+			{
+				DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+				DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+				DoubleVector distSq = dx.fma(dx, dy.mul(dy));
+				DoubleVector scale = DoubleVector.fromArray(SPECIES, mass, j).mul(gmi)
+						.div(distSq.mul(distSq.lanewise(VectorOperators.SQRT)));
+				DoubleVector forceX = scale.mul(dx);
+				DoubleVector forceY = scale.mul(dy);
+				sumX = sumX.add(forceX);
+				sumY = sumY.add(forceY);
+				// j is the opposite direction
+				DoubleVector.fromArray(SPECIES, fx, j).sub(forceX).intoArray(fx, j);
+				DoubleVector.fromArray(SPECIES, fy, j).sub(forceY).intoArray(fy, j);
+			}
+			fx[i] += sumX.reduceLanes(VectorOperators.ADD);
+			fy[i] += sumY.reduceLanes(VectorOperators.ADD);
+			return j;
+		}
+
+		/* span() adds the pull of bodies from..to-1 on body i into fx[i] and fy[i],
+		 * one vector of bodies at a time, without the opposite forces on them. It
+		 * stops before the last partial vector and returns the first body it did
+		 * not do. */
+		static int span(int i, int from, int to, double[] x, double[] y, double[] mass, double gmi, double[] fx, double[] fy)
+		{
+			DoubleVector xi = DoubleVector.broadcast(SPECIES, x[i]);
+			DoubleVector yi = DoubleVector.broadcast(SPECIES, y[i]);
+			DoubleVector sumX = DoubleVector.zero(SPECIES);
+			DoubleVector sumY = DoubleVector.zero(SPECIES);
+			int j = from;
+			int end = j + SPECIES.loopBound(to - j);
+			for (; j < end; j += LANES)
+			{
+				DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+				DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+				DoubleVector distSq = dx.fma(dx, dy.mul(dy));
+				DoubleVector scale = DoubleVector.fromArray(SPECIES, mass, j).mul(gmi)
+						.div(distSq.mul(distSq.lanewise(VectorOperators.SQRT)));
+				sumX = sumX.add(scale.mul(dx));
+				sumY = sumY.add(scale.mul(dy));
+			}
+			fx[i] += sumX.reduceLanes(VectorOperators.ADD);
+			fy[i] += sumY.reduceLanes(VectorOperators.ADD);
+			return j;
+		}
+	}
+}